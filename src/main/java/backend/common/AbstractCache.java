@@ -1,98 +1,238 @@
 package backend.common;
 
 import backend.utils.Error;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * AbstractCache 实现了一个引用计数策略的缓存
+ * 按 key 分段加锁，不同段之间的 get/release 互不阻塞；
+ * 同一个 key 的并发加载只会执行一次，其他线程等待这次加载的 future
  */
 public abstract class AbstractCache<T> {
-    private HashMap<Long, T> cache; // 实际缓存的数据
-    private HashMap<Long, Integer> references; // 资源的引用个数
-    private HashMap<Long, Boolean> getting; // 正在被获取的资源
-    private int maxResource; // 缓存最大缓存资源数
-    private int count = 0; // 缓存中元素的个数
-    private Lock lock;
+    private static final int MAX_SEGMENTS = 64;
+
+    private final Segment<T>[] segments;
+    private final int segmentMask;
+    private final int maxResource; // 缓存最大缓存资源数
+    private final AtomicInteger count = new AtomicInteger(); // 缓存中元素的个数（含正在加载的）
+    private final EvictionPolicy policy;
+
+    /**
+     * 缓存中的一项
+     */
+    private static final class CacheEntry<T> {
+        final long key;
+        T obj; // 实际缓存的数据
+        int references; // 资源的引用个数
+        int handle; // 驱逐策略的句柄
+        CompletableFuture<T> loading; // 不为 null 说明资源正在被某个线程获取
+
+        CacheEntry(long key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 一个分段：一把锁 + 一张以原始 long 为键的表
+     */
+    private static final class Segment<T> {
+        final ReentrantLock lock = new ReentrantLock();
+        final LongMap<CacheEntry<T>> entries = new LongMap<>();
+    }
 
     public AbstractCache(int maxResource) {
+        this(maxResource, RefCountPolicy.INSTANCE);
+    }
+
+    public AbstractCache(int maxResource, EvictionPolicy policy) {
         this.maxResource = maxResource;
-        cache = new HashMap<>();
-        references = new HashMap<>();
-        getting = new HashMap<>();
-        lock = new ReentrantLock();
+        this.policy = policy;
+        int n = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+        n = Math.min(n, MAX_SEGMENTS);
+        @SuppressWarnings("unchecked")
+        Segment<T>[] segs = (Segment<T>[]) new Segment<?>[n];
+        segments = segs;
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment<>();
+        }
+        segmentMask = n - 1;
     }
 
     protected T get(long key) throws Exception {
+        Segment<T> seg = segmentFor(key);
         while (true) {
-            lock.lock();
-            if (getting.containsKey(key)) {
-                // 请求的资源正在被其他线程获取
-                lock.unlock();
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    continue;
+            CompletableFuture<T> inflight = null;
+            seg.lock.lock();
+            try {
+                CacheEntry<T> entry = seg.entries.get(key);
+                if (entry != null && entry.loading == null) {
+                    // 资源在缓存中，直接返回
+                    entry.references++;
+                    policy.touch(entry.handle);
+                    return entry.obj;
+                }
+                if (entry != null) {
+                    inflight = entry.loading;
+                }
+            } finally {
+                seg.lock.unlock();
+            }
+            if (inflight != null) {
+                // 请求的资源正在被其他线程获取，等它加载完再重试
+                awaitQuietly(inflight);
+                continue;
+            }
+
+            // 尝试获取该资源：先在段锁外占一个名额
+            reserve();
+            CacheEntry<T> entry = null;
+            seg.lock.lock();
+            try {
+                if (!seg.entries.containsKey(key)) {
+                    entry = new CacheEntry<>(key);
+                    entry.loading = new CompletableFuture<>();
+                    seg.entries.put(key, entry);
+                }
+            } finally {
+                seg.lock.unlock();
+            }
+            if (entry == null) {
+                // 占名额期间已经有别的线程开始加载，退还名额后重试
+                count.decrementAndGet();
+                continue;
+            }
+            return load(seg, entry);
+        }
+    }
+
+    /**
+     * 资源已在缓存中时返回它并增加引用，否则 (包括正在加载) 返回 null，不会触发加载
+     */
+    protected T getIfCached(long key) {
+        Segment<T> seg = segmentFor(key);
+        seg.lock.lock();
+        try {
+            CacheEntry<T> entry = seg.entries.get(key);
+            if (entry == null || entry.loading != null) {
+                return null;
+            }
+            entry.references++;
+            return entry.obj;
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    /**
+     * 为一个新资源占用缓存名额
+     * 缓存已满时先按驱逐策略淘汰一个未被引用的资源，只有全部资源都被引用时才失败
+     */
+    private void reserve() throws Exception {
+        while (true) {
+            int c = count.get();
+            if (maxResource > 0 && c >= maxResource) {
+                if (!evictOne()) {
+                    throw Error.CacheFullException;
                 }
                 continue;
             }
-            if (cache.containsKey(key)) {
-                // 资源在缓存中，直接返回
-                T obj = cache.get(key);
-                references.put(key, references.get(key) + 1);
-                lock.unlock();
-                return obj;
+            if (count.compareAndSet(c, c + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 淘汰一个引用计数为 0 的资源
+     * 策略给出的候选可能在此期间又被引用，所以要在段锁内再确认一次
+     */
+    private boolean evictOne() {
+        for (int i = 0; i < 2 * maxResource; i++) {
+            long key = policy.victim();
+            if (key == EvictionPolicy.NO_VICTIM) {
+                return false;
             }
-            // 尝试获取该资源
-            if (maxResource > 0 && count == maxResource) {
-                lock.unlock();
-                throw Error.CacheFullException;
+            Segment<T> seg = segmentFor(key);
+            seg.lock.lock();
+            try {
+                CacheEntry<T> entry = seg.entries.get(key);
+                if (entry == null || entry.loading != null || entry.references > 0) {
+                    continue;
+                }
+                releaseForCache(entry.obj);
+                seg.entries.remove(key);
+                policy.remove(entry.handle);
+            } finally {
+                seg.lock.unlock();
             }
-            count++;
-            getting.put(key, true);
-            lock.unlock();
-            break;
+            count.decrementAndGet();
+            return true;
         }
-        T obj = null;
+        return false;
+    }
+
+    private T load(Segment<T> seg, CacheEntry<T> entry) throws Exception {
+        T obj;
         try {
-            obj = getForCache(key);
+            obj = getForCache(entry.key);
         } catch (Exception e) {
-            lock.lock();
-            count--;
-            getting.remove(key);
-            lock.unlock();
+            seg.lock.lock();
+            try {
+                seg.entries.remove(entry.key);
+            } finally {
+                seg.lock.unlock();
+            }
+            count.decrementAndGet();
+            entry.loading.completeExceptionally(e);
             throw e;
         }
-        lock.lock();
-        getting.remove(key);
-        cache.put(key, obj);
-        references.put(key, 1);
-        lock.unlock();
+        CompletableFuture<T> loading;
+        seg.lock.lock();
+        try {
+            entry.obj = obj;
+            entry.references = 1;
+            entry.handle = policy.admit(entry.key);
+            loading = entry.loading;
+            entry.loading = null;
+        } finally {
+            seg.lock.unlock();
+        }
+        loading.complete(obj);
         return obj;
     }
 
+    private static void awaitQuietly(CompletableFuture<?> f) {
+        try {
+            f.join();
+        } catch (Exception e) {
+            // 加载失败由重试时自己重新加载并抛出
+        }
+    }
+
     /**
      * 强行释放一个缓存
      */
     protected void release(long key) {
-        lock.lock();
+        Segment<T> seg = segmentFor(key);
+        boolean evicted = false;
+        seg.lock.lock();
         try {
-            int ref = references.get(key) - 1;
-            if (ref == 0) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
-                count--;
-            } else {
-                references.put(key, ref);
+            CacheEntry<T> entry = seg.entries.get(key);
+            entry.references--;
+            if (entry.references == 0 && !policy.retainUnpinned()) {
+                // 写回在段锁内完成，避免同 key 的并发 get 读到未写回的旧数据
+                releaseForCache(entry.obj);
+                seg.entries.remove(key);
+                policy.remove(entry.handle);
+                evicted = true;
             }
         } finally {
-            lock.unlock();
+            seg.lock.unlock();
+        }
+        if (evicted) {
+            count.decrementAndGet();
         }
     }
 
@@ -100,21 +240,28 @@ public abstract class AbstractCache<T> {
      * 关闭缓存，写回所有资源
      */
     public void close() {
-        lock.lock();
-        try {
-            // 【BugFix】: 使用迭代器或复制KeySet来避免 ConcurrentModificationException
-            List<Long> keys = new ArrayList<>(cache.keySet());
-            for (long key : keys) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
+        for (Segment<T> seg : segments) {
+            seg.lock.lock();
+            try {
+                for (CacheEntry<T> entry : seg.entries.values()) {
+                    if (entry.loading != null) {
+                        continue;
+                    }
+                    releaseForCache(entry.obj);
+                    policy.remove(entry.handle);
+                    count.decrementAndGet();
+                }
+                seg.entries.clear();
+            } finally {
+                seg.lock.unlock();
             }
-        } finally {
-            lock.unlock();
         }
     }
 
+    private Segment<T> segmentFor(long key) {
+        return segments[LongMap.mix(key) >>> 16 & segmentMask];
+    }
+
     /**
      * 当资源不在缓存时的获取行为
      */
@@ -124,4 +271,4 @@ public abstract class AbstractCache<T> {
      * 当资源被驱逐时的写回行为
      */
     protected abstract void releaseForCache(T obj);
-}
\ No newline at end of file
+}
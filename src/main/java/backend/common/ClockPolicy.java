@@ -0,0 +1,90 @@
+package backend.common;
+
+import java.util.Arrays;
+
+/**
+ * CLOCK 驱逐策略（二次机会）
+ * 引用计数归零的资源继续留在缓存中，需要腾位置时由时钟指针挑选最近未被访问的资源
+ * 命中只置位访问位，不加锁
+ */
+public class ClockPolicy implements EvictionPolicy {
+    private long[] keys;
+    private boolean[] used;
+    private byte[] refBits; // 访问位，命中时无锁置 1
+    private int[] freeSlots; // 空闲槽位栈
+    private int freeTop;
+    private int hand; // 时钟指针
+
+    public ClockPolicy(int capacity) {
+        capacity = Math.max(capacity, 16);
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        refBits = new byte[capacity];
+        freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            freeSlots[i] = capacity - 1 - i;
+        }
+        freeTop = capacity;
+    }
+
+    @Override
+    public boolean retainUnpinned() {
+        return true;
+    }
+
+    @Override
+    public synchronized int admit(long key) {
+        if (freeTop == 0) {
+            grow();
+        }
+        int slot = freeSlots[--freeTop];
+        keys[slot] = key;
+        used[slot] = true;
+        refBits[slot] = 1;
+        return slot;
+    }
+
+    @Override
+    public void touch(int handle) {
+        // 并发下偶尔丢失一次置位无伤大雅，最多让该资源早一轮被淘汰
+        refBits[handle] = 1;
+    }
+
+    @Override
+    public synchronized void remove(int handle) {
+        used[handle] = false;
+        refBits[handle] = 0;
+        freeSlots[freeTop++] = handle;
+    }
+
+    @Override
+    public synchronized long victim() {
+        int n = keys.length;
+        // 最多转两圈：第一圈清访问位，第二圈一定能找到（只要还有资源）
+        for (int i = 0; i < 2 * n; i++) {
+            int slot = hand;
+            hand = (hand + 1) % n;
+            if (!used[slot]) {
+                continue;
+            }
+            if (refBits[slot] != 0) {
+                refBits[slot] = 0;
+                continue;
+            }
+            return keys[slot];
+        }
+        return NO_VICTIM;
+    }
+
+    private void grow() {
+        int oldCap = keys.length;
+        int newCap = oldCap << 1;
+        keys = Arrays.copyOf(keys, newCap);
+        used = Arrays.copyOf(used, newCap);
+        refBits = Arrays.copyOf(refBits, newCap);
+        freeSlots = Arrays.copyOf(freeSlots, newCap);
+        for (int i = newCap - 1; i >= oldCap; i--) {
+            freeSlots[freeTop++] = i;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package backend.common;
+
+/**
+ * 缓存驱逐策略
+ * AbstractCache 在资源进入、命中、离开缓存时回调，策略据此决定驱逐谁
+ */
+public interface EvictionPolicy {
+    // victim() 没有候选时的返回值
+    long NO_VICTIM = Long.MIN_VALUE;
+
+    // 引用计数归零后是否继续把资源留在缓存中
+    boolean retainUnpinned();
+
+    // 资源进入缓存，返回策略内部的句柄，之后的回调都使用该句柄
+    int admit(long key);
+
+    // 资源被命中
+    void touch(int handle);
+
+    // 资源离开缓存
+    void remove(int handle);
+
+    // 选出一个候选驱逐对象的 key；候选可能仍被引用，由缓存再次确认
+    long victim();
+}
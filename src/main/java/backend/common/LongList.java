@@ -0,0 +1,46 @@
+package backend.common;
+
+import java.util.Arrays;
+
+/**
+ * 原始 long 的变长数组，避免 List<Long> 对每个元素装箱
+ * 非线程安全
+ */
+public class LongList {
+    private long[] values;
+    private int size;
+
+    public LongList() {
+        this(64);
+    }
+
+    public LongList(int capacity) {
+        values = new long[Math.max(capacity, 4)];
+    }
+
+    public void add(long v) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size << 1);
+        }
+        values[size++] = v;
+    }
+
+    /**
+     * 追加 src[off, off + len)
+     */
+    public void addAll(long[] src, int off, int len) {
+        if (size + len > values.length) {
+            values = Arrays.copyOf(values, Math.max(size << 1, size + len));
+        }
+        System.arraycopy(src, off, values, size, len);
+        size += len;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,147 @@
+package backend.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以原始 long 为键的开放寻址哈希表
+ * 线性探测 + 删除时向后移位，避免 HashMap 对键的装箱
+ * 非线程安全，由调用方加锁
+ */
+public class LongMap<V> {
+    private long[] keys;
+    private Object[] values; // null 表示空槽
+    private int size;
+    private int mask;
+
+    public LongMap() {
+        this(16);
+    }
+
+    public LongMap(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(capacity, 4) - 1) << 1;
+        keys = new long[cap];
+        values = new Object[cap];
+        mask = cap - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int idx = slot(key);
+        while (values[idx] != null) {
+            if (keys[idx] == key) {
+                return (V) values[idx];
+            }
+            idx = (idx + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if ((size + 1) * 4 > values.length * 3) {
+            resize(values.length << 1);
+        }
+        int idx = slot(key);
+        while (values[idx] != null) {
+            if (keys[idx] == key) {
+                V old = (V) values[idx];
+                values[idx] = value;
+                return old;
+            }
+            idx = (idx + 1) & mask;
+        }
+        keys[idx] = key;
+        values[idx] = value;
+        size++;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int idx = slot(key);
+        while (values[idx] != null) {
+            if (keys[idx] == key) {
+                V old = (V) values[idx];
+                shiftBack(idx);
+                size--;
+                return old;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> res = new ArrayList<>(size);
+        for (Object v : values) {
+            if (v != null) {
+                res.add((V) v);
+            }
+        }
+        return res;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * 删除 gap 处的元素后，把探测链上后续的元素往前挪，保证查找不会提前遇到空槽
+     */
+    private void shiftBack(int gap) {
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+            int home = slot(keys[i]);
+            // home 不在 (gap, i] 区间内时，元素可以挪到 gap
+            boolean movable = gap <= i ? (home <= gap || home > i) : (home <= gap && home > i);
+            if (movable) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void resize(int newCap) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[newCap];
+        values = new Object[newCap];
+        mask = newCap - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int idx = slot(oldKeys[i]);
+                while (values[idx] != null) {
+                    idx = (idx + 1) & mask;
+                }
+                keys[idx] = oldKeys[i];
+                values[idx] = oldValues[i];
+            }
+        }
+    }
+
+    private int slot(long key) {
+        return mix(key) & mask;
+    }
+
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
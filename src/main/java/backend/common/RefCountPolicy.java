@@ -0,0 +1,32 @@
+package backend.common;
+
+/**
+ * 纯引用计数策略：引用计数归零立刻驱逐
+ * 适用于 DataItem、Entry 这类持有下层资源引用的缓存，保留它们会一直占着下层的页面
+ */
+public class RefCountPolicy implements EvictionPolicy {
+    public static final RefCountPolicy INSTANCE = new RefCountPolicy();
+
+    @Override
+    public boolean retainUnpinned() {
+        return false;
+    }
+
+    @Override
+    public int admit(long key) {
+        return 0;
+    }
+
+    @Override
+    public void touch(int handle) {
+    }
+
+    @Override
+    public void remove(int handle) {
+    }
+
+    @Override
+    public long victim() {
+        return NO_VICTIM;
+    }
+}
@@ -0,0 +1,65 @@
+package backend.common;
+
+import java.util.Arrays;
+
+/**
+ * 一批按位置存放的字节串，批量读取 (DataManager.readMany / VersionManager.readMany) 的结果
+ * 第 i 项对应请求中的第 i 个 uid，不存在或不可见的项为空
+ * 所有项拷在同一块缓冲区中，reset 后复用，不为每一项分配数组；get 返回的 SubArray 在下一次 reset 前有效
+ */
+public class RowBatch {
+    private byte[] buf = new byte[8192];
+    private int used;
+    private int[] starts = new int[64]; // -1 表示空
+    private int[] ends = new int[64];
+    private int size;
+
+    /**
+     * 清空，准备放 n 项
+     */
+    public void reset(int n) {
+        if (n > starts.length) {
+            starts = new int[n];
+            ends = new int[n];
+        }
+        Arrays.fill(starts, 0, n, -1);
+        size = n;
+        used = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 第 i 项，为空时返回 null
+     */
+    public SubArray get(int i) {
+        return starts[i] < 0 ? null : new SubArray(buf, starts[i], ends[i]);
+    }
+
+    /**
+     * 把 src[from, to) 拷为第 i 项
+     */
+    public void put(int i, byte[] src, int from, int to) {
+        int len = to - from;
+        if (used + len > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, used + len));
+        }
+        System.arraycopy(src, from, buf, used, len);
+        starts[i] = used;
+        ends[i] = used + len;
+        used += len;
+    }
+
+    /**
+     * 去掉第 i 项开头的 n 个字节
+     */
+    public void skip(int i, int n) {
+        starts[i] += n;
+    }
+
+    public void clear(int i) {
+        starts[i] = -1;
+    }
+}
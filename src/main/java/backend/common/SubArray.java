@@ -1,5 +1,11 @@
 package backend.common;
 
+import backend.utils.Parser;
+
+/**
+ * 共享底层数组的一段视图 [start, end)
+ * get/put 的偏移相对 start，直接读写底层数组，不拷贝
+ */
 public class SubArray {
     public byte[] raw;
     public int start;
@@ -10,4 +16,28 @@ public class SubArray {
         this.start = start;
         this.end = end;
     }
-}
\ No newline at end of file
+
+    public long getLong(int off) {
+        return Parser.getLong(raw, start + off);
+    }
+
+    public void putLong(int off, long value) {
+        Parser.putLong(raw, start + off, value);
+    }
+
+    public int getInt(int off) {
+        return Parser.getInt(raw, start + off);
+    }
+
+    public void putInt(int off, int value) {
+        Parser.putInt(raw, start + off, value);
+    }
+
+    public short getShort(int off) {
+        return Parser.getShort(raw, start + off);
+    }
+
+    public void putShort(int off, short value) {
+        Parser.putShort(raw, start + off, value);
+    }
+}
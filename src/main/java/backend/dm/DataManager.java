@@ -1,5 +1,6 @@
 package backend.dm;
 
+import backend.common.RowBatch;
 import backend.dm.dataItem.DataItem;
 import backend.tm.TransactionManager;
 
@@ -8,6 +9,22 @@ public interface DataManager {
 
     long insert(long xid, byte[] data) throws Exception;
 
+    // 插入属于 owner 的数据项，之后可以用 scan(owner) 顺序扫描出来
+    long insert(long xid, byte[] data, long owner) throws Exception;
+
+    // 批量读取 uids[from, to) 的数据 (不含所属对象)，第 i 项放在 batch 的第 i 个位置，无效的为空
+    // 按页分组，每页只取一次，在页面上直接拷贝，不经过数据项缓存
+    void readMany(long[] uids, int from, int to, RowBatch batch) throws Exception;
+
+    // 按页序扫描属于 owner 的所有有效数据项
+    ItemScan scan(long owner);
+
+    // 事务提交前调用，等待该事务写下的日志落盘
+    void flushLog(long xid);
+
+    // 当前数据文件的页数
+    int getPageNumber();
+
     void close();
 
     public static DataManager create(String path, long mem, TransactionManager tm) {
@@ -1,6 +1,7 @@
 package backend.dm;
 
 import backend.common.AbstractCache;
+import backend.common.RowBatch;
 import backend.common.SubArray;
 import backend.dm.dataItem.DataItem;
 import backend.dm.dataItem.DataItemImpl;
@@ -13,23 +14,47 @@ import backend.dm.pageCache.PageCacheImpl;
 import backend.dm.pageIndex.PageIndex;
 import backend.dm.pageIndex.PageInfo;
 import backend.tm.TransactionManager;
+import backend.tm.TransactionManagerImpl;
 import backend.utils.Error;
 import backend.utils.Panic;
 import backend.utils.Parser;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 public class DataManagerImpl extends AbstractCache<DataItem> implements DataManager {
+    private static final long CHECKPOINT_INTERVAL_MS = 30 * 1000; // 检查点周期
+    private static final int READ_MANY_BLOCK = 1 << 16; // readMany 一次排序的 uid 数，位置要放进排序键的低 16 位
+
     TransactionManager tm;
     PageCache pc;
     Logger logger;
     PageIndex pIndex;
     Page pageOne;
 
+    // 插入时先写日志再改页面，检查点取 redo 位置时不能夹在两者之间
+    private ReadWriteLock ckptLock;
+    // 事务写下的第一条日志的位置下界，检查点据此计算 undo 起点
+    private Map<Long, Long> xidFirstLsn;
+    private ScheduledExecutorService checkpointer;
+
     public DataManagerImpl(PageCache pc, Logger logger, TransactionManager tm) {
         super(0);
         this.pc = pc;
         this.logger = logger;
         this.tm = tm;
-        this.pIndex = new PageIndex();
+        this.ckptLock = new ReentrantReadWriteLock();
+        this.xidFirstLsn = new ConcurrentHashMap<>();
+        pc.setLogger(logger);
     }
 
     @Override
@@ -44,55 +69,257 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
 
     @Override
     public long insert(long xid, byte[] data) throws Exception {
-        byte[] raw = DataItem.wrapDataItemRaw(data);
-        if (raw.length > PageX.MAX_FREE_SPACE) {
-            throw Error.DataTooLargeException;
+        return insertRaw(xid, DataItem.wrapDataItemRaw(data));
+    }
+
+    @Override
+    public long insert(long xid, byte[] data, long owner) throws Exception {
+        return insertRaw(xid, DataItem.wrapDataItemRaw(data, owner));
+    }
+
+    /**
+     * 每页先乐观地直接拷贝页上所有要读的数据项 (见 Page.tryOptimisticRead)，
+     * 期间页上有数据项在修改时，这一页改为逐项在数据项的读锁下拷贝
+     */
+    @Override
+    public void readMany(long[] uids, int from, int to, RowBatch batch) throws Exception {
+        batch.reset(to - from);
+        for (int base = from; base < to; base += READ_MANY_BLOCK) {
+            int n = Math.min(READ_MANY_BLOCK, to - base);
+            // 排序键：[Pgno(32)][Offset(16)][请求中的位置(16)]，排序后同一页的在一起，页内按偏移
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                long uid = uids[base + i];
+                keys[i] = (uid & 0xFFFFFFFF00000000L) | ((uid & 0xFFFF) << 16) | i;
+            }
+            Arrays.sort(keys);
+            int first = 0;
+            while (first < n) {
+                int pgno = (int) (keys[first] >>> 32);
+                int last = first + 1;
+                while (last < n && (int) (keys[last] >>> 32) == pgno) {
+                    last++;
+                }
+                Page pg = pc.getPage(pgno);
+                try {
+                    long stamp = pg.tryOptimisticRead();
+                    if (stamp != 0) {
+                        copyItems(pg.getData(), keys, first, last, base - from, batch);
+                    }
+                    if (!pg.validate(stamp)) {
+                        for (int i = first; i < last; i++) {
+                            copyItemLocked(pgno, keys[i], base - from, batch);
+                        }
+                    }
+                } finally {
+                    pg.release();
+                }
+                first = last;
+            }
         }
-        PageInfo pi = null;
-        for (int i = 0; i < 5; i++) {
-            pi = pIndex.select(raw.length);
-            if (pi != null) {
-                break;
-            } else {
-                int newPgno = pc.newPage(PageX.initRaw());
-                pIndex.add(newPgno, PageX.MAX_FREE_SPACE);
+    }
+
+    // 从页面数据中拷贝 keys[first, last) 对应的数据项
+    private static void copyItems(byte[] raw, long[] keys, int first, int last, int base, RowBatch batch) {
+        for (int i = first; i < last; i++) {
+            int off = (int) ((keys[i] >>> 16) & 0xFFFF);
+            int pos = base + (int) (keys[i] & 0xFFFF);
+            int end = off + 3 + (Parser.getShort(raw, off + 1) & 0xFFFF);
+            byte flags = raw[off];
+            if ((flags & DataItem.FLAG_INVALID) != 0 || end > raw.length) {
+                batch.clear(pos);
+                continue;
             }
+            int start = (flags & DataItem.FLAG_OWNED) != 0 ? off + 3 + 8 : off + 3;
+            batch.put(pos, raw, start, end);
+        }
+    }
+
+    private void copyItemLocked(int pgno, long key, int base, RowBatch batch) throws Exception {
+        int pos = base + (int) (key & 0xFFFF);
+        DataItem di = read(((long) pgno << 32) | ((key >>> 16) & 0xFFFF));
+        if (di == null) {
+            batch.clear(pos);
+            return;
         }
-        if (pi == null) {
-            throw Error.DatabaseBusyException;
+        di.rLock();
+        try {
+            SubArray data = di.data();
+            batch.put(pos, data.raw, data.start, data.end);
+        } finally {
+            di.rUnlock();
+            di.release();
         }
-        Page pg = null;
-        int freeSpace = 0;
+    }
+
+    @Override
+    public ItemScan scan(long owner) {
+        return new ItemScan(pc, owner);
+    }
+
+    private long insertRaw(long xid, byte[] raw) throws Exception {
+        if (raw.length > PageX.MAX_FREE_SPACE) {
+            throw Error.DataTooLargeException;
+        }
+        // 实际空间不够的页面先放在一边，插入完成后再放回索引，避免反复选中同一页
+        List<PageInfo> skipped = null;
         try {
-            pg = pc.getPage(pi.pgno);
-            byte[] log = Recover.insertLog(xid, pg, raw);
-            logger.log(log);
-            short offset = PageX.insert(pg, raw);
-            pg.release();
-            return ((long) pi.pgno << 32) | (offset & 0xFFFF);
+            while (true) {
+                PageInfo pi = selectPage(raw.length);
+                Page pg = null;
+                try {
+                    pg = pc.getPage(pi.pgno);
+                    int freeSpace = PageX.getFreeSpace(pg);
+                    if (freeSpace < raw.length) {
+                        // 索引中的空闲空间只是提示 (来自崩溃前的 .fsm，或同一区间内空间略小的页面)，以页面实际的为准，换一页重试
+                        pg.release();
+                        pg = null;
+                        if (skipped == null) {
+                            skipped = new ArrayList<>();
+                        }
+                        skipped.add(new PageInfo(pi.pgno, freeSpace));
+                        continue;
+                    }
+                    short offset;
+                    ckptLock.readLock().lock();
+                    try {
+                        byte[] log = Recover.insertLog(xid, pg, raw);
+                        writeLog(xid, log);
+                        // 顺序扫描在页面锁内拷贝页面，看到的 FSO 之前都是写完整的数据项
+                        pg.lock();
+                        try {
+                            offset = PageX.insert(pg, raw);
+                        } finally {
+                            pg.unlock();
+                        }
+                    } finally {
+                        ckptLock.readLock().unlock();
+                    }
+                    pg.release();
+                    return ((long) pi.pgno << 32) | (offset & 0xFFFF);
+                } finally {
+                    // 将取出的 pg 重新插入 pIndex
+                    if (pg != null) {
+                        pIndex.add(pi.pgno, PageX.getFreeSpace(pg));
+                    }
+                }
+            }
         } finally {
-            // 将取出的 pg 重新插入 pIndex
-            if (pg != null) {
-                pIndex.add(pi.pgno, PageX.getFreeSpace(pg));
+            if (skipped != null) {
+                for (PageInfo pi : skipped) {
+                    pIndex.add(pi.pgno, pi.freeSpace);
+                }
             }
         }
     }
 
+    // 从 pIndex 中取出一个空闲空间足够的页面，没有就新建
+    private PageInfo selectPage(int size) throws Exception {
+        for (int i = 0; i < 5; i++) {
+            PageInfo pi = pIndex.select(size);
+            if (pi != null) {
+                return pi;
+            }
+            int newPgno = pc.newPage(PageX.initRaw());
+            pIndex.add(newPgno, PageX.MAX_FREE_SPACE);
+        }
+        throw Error.DatabaseBusyException;
+    }
+
     @Override
     public void close() {
+        checkpointer.shutdown();
+        try {
+            checkpointer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
         super.close();
+        checkpoint();
         logger.close();
+        pIndex.close();
         PageOne.setVcClose(pageOne);
         pageOne.release();
         pc.close();
     }
 
+    @Override
+    public int getPageNumber() {
+        return pc.getPageNumber();
+    }
+
     // 为 DataItemImpl 提供的日志方法
     public void logDataItem(long xid, DataItem di) {
         byte[] log = Recover.updateLog(xid, di);
+        writeLog(xid, log);
+    }
+
+    /**
+     * 等待事务的日志落盘
+     * 没写过日志的事务直接返回；否则等到当前日志尾部，事务期间以 SUPER_XID 写下的索引日志也一并落盘
+     */
+    @Override
+    public void flushLog(long xid) {
+        if (!xidFirstLsn.containsKey(xid)) {
+            return;
+        }
+        logger.flush(logger.getTailLsn());
+    }
+
+    /**
+     * 写日志，并在事务第一次写日志时记下它的起点
+     * 起点取写日志之前的日志尾部，保证检查点看到这条日志时一定也能看到这个起点
+     */
+    private void writeLog(long xid, byte[] log) {
+        if (xid != TransactionManagerImpl.SUPER_XID && !xidFirstLsn.containsKey(xid)) {
+            xidFirstLsn.putIfAbsent(xid, logger.getTailLsn());
+        }
         logger.log(log);
     }
 
+    /**
+     * 检查点
+     * 1. 在没有插入进行到一半时取日志尾部作为 redo 起点，此前的修改都已反映在脏页中
+     * 2. 以仍活跃事务的最早日志作为 undo 起点
+     * 3. 保存空闲空间提示，写回全部脏页并刷盘，最后把检查点写入第一页，回收不再需要的日志段
+     */
+    void checkpoint() {
+        long redoLsn;
+        ckptLock.writeLock().lock();
+        try {
+            redoLsn = logger.getTailLsn();
+        } finally {
+            ckptLock.writeLock().unlock();
+        }
+        long undoLsn = redoLsn;
+        Iterator<Map.Entry<Long, Long>> it = xidFirstLsn.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Long> e = it.next();
+            if (!tm.isActive(e.getKey())) {
+                it.remove();
+            } else {
+                undoLsn = Math.min(undoLsn, e.getValue());
+            }
+        }
+        int pageNumber = pc.getPageNumber();
+        pIndex.persist(pageNumber);
+        pc.flushAll();
+        PageOne.setCheckpoint(pageOne, redoLsn, undoLsn, pageNumber);
+        pc.flushPage(pageOne);
+        // 检查点已落盘，恢复不会再读它之前的日志
+        logger.recycle(Math.min(redoLsn, undoLsn));
+    }
+
+    private void startCheckpointer() {
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "checkpointer");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpointer.scheduleWithFixedDelay(this::checkpoint, CHECKPOINT_INTERVAL_MS, CHECKPOINT_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
     public void releaseDataItem(DataItem di) {
         super.release(di.getUid());
     }
@@ -113,7 +340,7 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     // 从页面解析 DataItem
     private DataItem parseDataItem(Page pg, short offset, DataManagerImpl dm) {
         byte[] raw = pg.getData();
-        short size = Parser.parseShort(java.util.Arrays.copyOfRange(raw, offset + 1, offset + 3));
+        short size = Parser.getShort(raw, offset + 1);
         short length = (short) (1 + 2 + size);
         long uid = ((long) pg.getPageNumber() << 32) | (offset & 0xFFFF);
         return new DataItemImpl(new SubArray(raw, offset, offset + length), new byte[length], pg, uid, dm);
@@ -131,6 +358,9 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         } catch (Exception e) {
             Panic.panic(e);
         }
+        // 新建的库同样要写入启动校验字节，否则第一次运行就崩溃时全 0 的两段校验字节相等，会跳过恢复
+        PageOne.setVcOpen(pageOne);
+        PageOne.setFormatVersion(pageOne);
         pc.flushPage(pageOne);
     }
 
@@ -144,10 +374,26 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         return PageOne.checkVc(pageOne);
     }
 
-    // 初始化 PageIndex
+    // 检查数据文件的格式版本，格式不同的文件 (连同其日志) 不能按现在的布局解析，也不能拿来恢复，直接拒绝
+    private static void checkFormat(PageCache pc) {
+        Page pg = null;
+        try {
+            pg = pc.getPage(1);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        int version = PageOne.getFormatVersion(pg);
+        pg.release();
+        if (version != PageOne.FORMAT_VERSION) {
+            Panic.panic(Error.BadDataFileFormatException);
+        }
+    }
+
+    // 初始化 PageIndex：先用 .fsm 中的提示，只读取 .fsm 没有覆盖到的页面
     void fillPageIndex() {
         int pageNumber = pc.getPageNumber();
-        for (int i = 2; i <= pageNumber; i++) {
+        int loaded = pIndex.load(pageNumber);
+        for (int i = Math.max(loaded + 1, 2); i <= pageNumber; i++) {
             Page pg = null;
             try {
                 pg = pc.getPage(i);
@@ -163,20 +409,31 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         PageCache pc = PageCacheImpl.create(path, mem);
         Logger lg = Logger.create(path);
         DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        dm.pIndex = PageIndex.create(path);
         dm.initPageOne();
+        dm.startCheckpointer();
         return dm;
     }
 
     public static DataManager open(String path, long mem, TransactionManager tm) {
         PageCache pc = PageCacheImpl.open(path, mem);
+        checkFormat(pc);
         Logger lg = Logger.open(path);
         DataManagerImpl dm = new DataManagerImpl(pc, lg, tm);
+        dm.pIndex = PageIndex.open(path);
+        boolean recovered = false;
         if (!dm.loadCheckPageOne()) {
-            Recover.recover(tm, lg, pc);
+            Recover.recover(tm, lg, pc, dm.pageOne);
+            recovered = true;
         }
         dm.fillPageIndex();
+        if (recovered) {
+            // 恢复的结果只在缓存里，立即做一次检查点，下次崩溃不必再从旧检查点重放
+            dm.checkpoint();
+        }
         PageOne.setVcOpen(dm.pageOne);
         dm.pc.flushPage(dm.pageOne);
+        dm.startCheckpointer();
         return dm;
     }
 }
\ No newline at end of file
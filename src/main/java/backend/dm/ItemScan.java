@@ -0,0 +1,105 @@
+package backend.dm;
+
+import backend.common.SubArray;
+import backend.dm.dataItem.DataItem;
+import backend.dm.pageCache.PageCache;
+import backend.utils.Parser;
+
+/**
+ * 顺序扫描：按页号逐页给出属于 owner 的有效数据项
+ *
+ * 每次预读 READAHEAD 页 (见 PageCache.readPages)，页面不放进页面缓存，一次全表扫描不会把热页挤出去
+ * 数据项在读出的页面副本上就地解析，data() 直接指向副本，下一次 next 之后失效
+ * 副本来自缓存中的活页时 (cached() 为 true)，其中的数据项可能正被修改，可见性要经 DataManager.read 确认
+ */
+public class ItemScan {
+    private static final int READAHEAD = 32;
+    private static final int FIRST_PAGE = 2; // 第 1 页是 PageOne
+
+    private PageCache pc;
+    private long owner;
+    private byte[] buf = new byte[READAHEAD * PageCache.PAGE_SIZE];
+    private boolean[] cached = new boolean[READAHEAD];
+    private int firstPgno = FIRST_PAGE; // buf 中第一页的页号
+    private int pages; // buf 中的页数
+    private int page; // 当前页在 buf 中的序号
+    private int pos; // 当前页中下一个数据项的偏移
+    private int fso; // 当前页的空闲空间偏移
+
+    private long uid;
+    private SubArray data;
+
+    ItemScan(PageCache pc, long owner) {
+        this.pc = pc;
+        this.owner = owner;
+        this.page = -1;
+    }
+
+    /**
+     * 移到下一个属于 owner 的有效数据项，没有了返回 false
+     */
+    public boolean next() {
+        while (true) {
+            if (page < 0 || pos >= fso) {
+                if (!nextPage()) {
+                    return false;
+                }
+                continue;
+            }
+            int base = page * PageCache.PAGE_SIZE;
+            int off = pos;
+            byte flags = buf[base + off];
+            int size = Parser.getShort(buf, base + off + 1);
+            if (size < 0 || off + 3 + size > fso) {
+                // 不应出现：页面副本不完整，跳过本页剩下的部分
+                pos = fso;
+                continue;
+            }
+            pos = off + 3 + size;
+            if ((flags & DataItem.FLAG_INVALID) != 0 || (flags & DataItem.FLAG_OWNED) == 0
+                    || Parser.getLong(buf, base + off + 3) != owner) {
+                continue;
+            }
+            int pgno = firstPgno + page;
+            uid = ((long) pgno << 32) | off;
+            data = new SubArray(buf, base + off + 3 + 8, base + pos);
+            return true;
+        }
+    }
+
+    // 移到下一页，必要时预读下一段
+    private boolean nextPage() {
+        page++;
+        if (page >= pages) {
+            firstPgno += pages;
+            pages = pc.readPages(firstPgno, buf, cached);
+            page = 0;
+            if (pages == 0) {
+                page = -1;
+                return false;
+            }
+        }
+        int base = page * PageCache.PAGE_SIZE;
+        fso = Math.min(Parser.getShort(buf, base) & 0xFFFF, PageCache.PAGE_SIZE);
+        pos = 2;
+        return true;
+    }
+
+    public long uid() {
+        return uid;
+    }
+
+    /**
+     * 当前数据项的数据 (不含所属对象)
+     */
+    public SubArray data() {
+        return data;
+    }
+
+    /**
+     * 当前数据项所在的页副本是否来自缓存中的活页
+     */
+    public boolean cached() {
+        return cached[page];
+    }
+}
@@ -4,6 +4,7 @@ import backend.common.SubArray;
 import backend.dm.dataItem.DataItem;
 import backend.dm.logger.Logger;
 import backend.dm.page.Page;
+import backend.dm.page.PageOne;
 import backend.dm.page.PageX;
 import backend.dm.pageCache.PageCache;
 import backend.tm.TransactionManager;
@@ -32,22 +33,22 @@ public class Recover {
         byte[] newRaw;
     }
 
-    public static void recover(TransactionManager tm, Logger lg, PageCache pc) {
+    /**
+     * 从 pageOne 中记录的检查点开始恢复
+     * redo 只需重放检查点之后的日志；undo 从检查点时仍活跃的事务的第一条日志开始
+     */
+    public static void recover(TransactionManager tm, Logger lg, PageCache pc, Page pageOne) {
         System.out.println("Recovering...");
-        lg.rewind();
-        int maxPgno = 0;
+        long redoLsn = PageOne.getRedoLsn(pageOne);
+        long undoLsn = PageOne.getUndoLsn(pageOne);
+        lg.rewind(Math.min(redoLsn, undoLsn));
+        // 检查点时已有的页面都已落盘，不能截掉
+        int maxPgno = PageOne.getCheckpointPageNumber(pageOne);
         while (true) {
             byte[] log = lg.next();
             if (log == null)
                 break;
-            int pgno;
-            if (isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                pgno = li.pgno;
-            } else {
-                UpdateLogInfo li = parseUpdateLog(log);
-                pgno = li.pgno;
-            }
+            int pgno = getLogPgno(log);
             if (pgno > maxPgno) {
                 maxPgno = pgno;
             }
@@ -56,60 +57,40 @@ public class Recover {
             maxPgno = 1;
         pc.truncateByBgno(maxPgno);
         System.out.println("Truncate to page no: " + maxPgno);
-        redoTranscations(tm, lg, pc);
+        redoTranscations(tm, lg, pc, redoLsn);
         System.out.println("Redo Transactions Over.");
-        undoTranscations(tm, lg, pc);
+        undoTranscations(tm, lg, pc, undoLsn);
         System.out.println("Undo Transactions Over.");
         System.out.println("Recovery Over.");
     }
 
-    private static void redoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
-        lg.rewind();
+    private static void redoTranscations(TransactionManager tm, Logger lg, PageCache pc, long redoLsn) {
+        lg.rewind(redoLsn);
         while (true) {
             byte[] log = lg.next();
             if (log == null)
                 break;
+            if (tm.isActive(getLogXid(log))) {
+                continue;
+            }
             if (isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if (!tm.isActive(xid)) {
-                    doInsertLog(pc, log, REDO);
-                }
+                doInsertLog(pc, log, REDO);
             } else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if (!tm.isActive(xid)) {
-                    doUpdateLog(pc, log, REDO);
-                }
+                doUpdateLog(pc, log, REDO);
             }
         }
     }
 
-    private static void undoTranscations(TransactionManager tm, Logger lg, PageCache pc) {
+    private static void undoTranscations(TransactionManager tm, Logger lg, PageCache pc, long undoLsn) {
         Map<Long, List<byte[]>> logCache = new HashMap<>();
-        lg.rewind();
+        lg.rewind(undoLsn);
         while (true) {
             byte[] log = lg.next();
             if (log == null)
                 break;
-            if (isInsertLog(log)) {
-                InsertLogInfo li = parseInsertLog(log);
-                long xid = li.xid;
-                if (tm.isActive(xid)) {
-                    if (!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
-                }
-            } else {
-                UpdateLogInfo xi = parseUpdateLog(log);
-                long xid = xi.xid;
-                if (tm.isActive(xid)) {
-                    if (!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
-                    }
-                    logCache.get(xid).add(log);
-                }
+            long xid = getLogXid(log);
+            if (tm.isActive(xid)) {
+                logCache.computeIfAbsent(xid, k -> new ArrayList<>()).add(log);
             }
         }
         for (Map.Entry<Long, List<byte[]>> entry : logCache.entrySet()) {
@@ -138,23 +119,36 @@ public class Recover {
     private static final int OF_INSERT_RAW = OF_INSERT_OFFSET + 2;
 
     public static byte[] insertLog(long xid, Page pg, byte[] raw) {
-        byte[] logTypeRaw = { LOG_TYPE_INSERT };
-        byte[] xidRaw = Parser.long2Byte(xid);
-        byte[] pgnoRaw = Parser.int2Byte(pg.getPageNumber());
-        short offset = PageX.getFSO(pg);
-        byte[] offsetRaw = Parser.short2Byte(offset);
-        return concat(logTypeRaw, xidRaw, pgnoRaw, offsetRaw, raw);
+        byte[] log = new byte[OF_INSERT_RAW + raw.length];
+        log[OF_TYPE] = LOG_TYPE_INSERT;
+        Parser.putLong(log, OF_XID, xid);
+        Parser.putInt(log, OF_INSERT_PGNO, pg.getPageNumber());
+        Parser.putShort(log, OF_INSERT_OFFSET, PageX.getFSO(pg));
+        System.arraycopy(raw, 0, log, OF_INSERT_RAW, raw.length);
+        return log;
     }
 
     private static InsertLogInfo parseInsertLog(byte[] log) {
         InsertLogInfo li = new InsertLogInfo();
-        li.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_INSERT_PGNO));
-        li.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_OFFSET));
-        li.offset = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_OFFSET, OF_INSERT_RAW));
+        li.xid = Parser.getLong(log, OF_XID);
+        li.pgno = Parser.getInt(log, OF_INSERT_PGNO);
+        li.offset = Parser.getShort(log, OF_INSERT_OFFSET);
         li.raw = Arrays.copyOfRange(log, OF_INSERT_RAW, log.length);
         return li;
     }
 
+    // 两种日志的 XID 位置相同，扫描时不必解析整条日志
+    private static long getLogXid(byte[] log) {
+        return Parser.getLong(log, OF_XID);
+    }
+
+    private static int getLogPgno(byte[] log) {
+        if (isInsertLog(log)) {
+            return Parser.getInt(log, OF_INSERT_PGNO);
+        }
+        return (int) (Parser.getLong(log, OF_UPDATE_UID) >> 32);
+    }
+
     private static void doInsertLog(PageCache pc, byte[] log, int flag) {
         InsertLogInfo li = parseInsertLog(log);
         Page pg = null;
@@ -180,26 +174,28 @@ public class Recover {
     private static final int OF_UPDATE_RAW = OF_UPDATE_UID + 8;
 
     public static byte[] updateLog(long xid, DataItem di) {
-        byte[] logTypeRaw = { LOG_TYPE_UPDATE };
-        byte[] xidRaw = Parser.long2Byte(xid);
-        byte[] uidRaw = Parser.long2Byte(di.getUid()); // 【Corrected】 long -> byte[]
         byte[] oldRaw = di.getOldRaw();
         SubArray raw = di.getRaw();
-        byte[] newRaw = Arrays.copyOfRange(raw.raw, raw.start, raw.end);
-        return concat(logTypeRaw, xidRaw, uidRaw, oldRaw, newRaw);
+        int newLen = raw.end - raw.start;
+        byte[] log = new byte[OF_UPDATE_RAW + oldRaw.length + newLen];
+        log[OF_TYPE] = LOG_TYPE_UPDATE;
+        Parser.putLong(log, OF_XID, xid);
+        Parser.putLong(log, OF_UPDATE_UID, di.getUid());
+        System.arraycopy(oldRaw, 0, log, OF_UPDATE_RAW, oldRaw.length);
+        System.arraycopy(raw.raw, raw.start, log, OF_UPDATE_RAW + oldRaw.length, newLen);
+        return log;
     }
 
     private static UpdateLogInfo parseUpdateLog(byte[] log) {
         UpdateLogInfo xi = new UpdateLogInfo();
-        xi.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_UPDATE_UID));
-        long uid = Parser.parseLong(Arrays.copyOfRange(log, OF_UPDATE_UID, OF_UPDATE_RAW));
+        xi.xid = Parser.getLong(log, OF_XID);
+        long uid = Parser.getLong(log, OF_UPDATE_UID);
         xi.offset = (short) (uid & 0xFFFF);
         xi.pgno = (int) (uid >> 32);
 
-        byte[] raw = Arrays.copyOfRange(log, OF_UPDATE_RAW, log.length);
-        int len = raw.length / 2;
-        xi.oldRaw = Arrays.copyOfRange(raw, 0, len);
-        xi.newRaw = Arrays.copyOfRange(raw, len, len * 2);
+        int len = (log.length - OF_UPDATE_RAW) / 2;
+        xi.oldRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW, OF_UPDATE_RAW + len);
+        xi.newRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW + len, OF_UPDATE_RAW + len * 2);
         return xi;
     }
 
@@ -230,18 +226,4 @@ public class Recover {
             pg.release();
         }
     }
-
-    private static byte[] concat(byte[]... arrays) {
-        int length = 0;
-        for (byte[] array : arrays) {
-            length += array.length;
-        }
-        byte[] result = new byte[length];
-        int pos = 0;
-        for (byte[] array : arrays) {
-            System.arraycopy(array, 0, result, pos, array.length);
-            pos += array.length;
-        }
-        return result;
-    }
 }
\ No newline at end of file
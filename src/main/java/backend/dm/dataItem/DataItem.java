@@ -4,6 +4,10 @@ import backend.common.SubArray;
 import backend.dm.page.Page;
 
 public interface DataItem {
+    // 标志字节：第 0 位为 1 表示无效 (插入被回滚)，第 1 位为 1 表示数据前带 8 字节的所属对象 uid
+    byte FLAG_INVALID = 1;
+    byte FLAG_OWNED = 2;
+
     SubArray data();
 
     void before();
@@ -22,6 +26,14 @@ public interface DataItem {
 
     void rUnlock();
 
+    /**
+     * 乐观读：返回当前版本号，数据正在被修改时返回 0
+     * 不加锁读取数据后用 validate 校验，期间没有修改才能使用读到的结果
+     */
+    long tryOptimisticRead();
+
+    boolean validate(long stamp);
+
     Page page();
 
     long getUid();
@@ -31,12 +43,22 @@ public interface DataItem {
     SubArray getRaw();
 
     public static byte[] wrapDataItemRaw(byte[] raw) {
-        byte[] valid = new byte[1];
-        byte[] size = backend.utils.Parser.short2Byte((short) raw.length);
+        // valid 位初始为 0
         byte[] dest = new byte[1 + 2 + raw.length];
-        System.arraycopy(valid, 0, dest, 0, 1);
-        System.arraycopy(size, 0, dest, 1, 2);
+        backend.utils.Parser.putShort(dest, 1, (short) raw.length);
         System.arraycopy(raw, 0, dest, 3, raw.length);
         return dest;
     }
+
+    /**
+     * 属于 owner 的数据项：[Flags(1)][DataSize(2)][Owner(8)][Data]，DataSize 包含 Owner
+     */
+    public static byte[] wrapDataItemRaw(byte[] raw, long owner) {
+        byte[] dest = new byte[1 + 2 + 8 + raw.length];
+        dest[0] = FLAG_OWNED;
+        backend.utils.Parser.putShort(dest, 1, (short) (8 + raw.length));
+        backend.utils.Parser.putLong(dest, 3, owner);
+        System.arraycopy(raw, 0, dest, 11, raw.length);
+        return dest;
+    }
 }
\ No newline at end of file
@@ -3,21 +3,31 @@ package backend.dm.dataItem;
 import backend.common.SubArray;
 import backend.dm.DataManagerImpl;
 import backend.dm.page.Page;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * DataItem 结构: [Flags(1)][DataSize(2)][Data]
+ * Flags 带 FLAG_OWNED 时 Data 前还有 8 字节的所属对象 uid (如表的记录属于哪张表)，DataSize 把它算在内
+ *
+ * 写者持有写锁修改数据，读者可以加读锁，也可以乐观读 (seqlock)：
+ * 版本号在修改开始和结束时各加一，奇数表示正在修改；读者读前读后版本号相同且为偶数，读到的就是一致的数据
+ */
 public class DataItemImpl implements DataItem {
 
-    static final int OF_VALID = 0;
+    static final int OF_FLAGS = 0;
     static final int OF_SIZE = 1;
     static final int OF_DATA = 3;
+    static final int OWNER_SIZE = 8;
     private SubArray raw; // 引用 Page 中的原生数据
     private byte[] oldRaw; // 修改前的旧数据备份
     private DataManagerImpl dm;
     private long uid;
     private Page pg;
 
-    private ReadWriteLock lock;
+    private ReentrantReadWriteLock lock;
+    private final AtomicLong version = new AtomicLong(2);
 
     public DataItemImpl(SubArray raw, byte[] oldRaw, Page pg, long uid, DataManagerImpl dm) {
         this.raw = raw;
@@ -29,39 +39,56 @@ public class DataItemImpl implements DataItem {
     }
 
     public boolean isValid() {
-        return raw.raw[raw.start + OF_VALID] == (byte) 0;
+        return (raw.raw[raw.start + OF_FLAGS] & FLAG_INVALID) == 0;
     }
 
     @Override
     public SubArray data() {
-        return new SubArray(raw.raw, raw.start + OF_DATA, raw.end);
+        int off = OF_DATA;
+        if ((raw.raw[raw.start + OF_FLAGS] & FLAG_OWNED) != 0) {
+            off += OWNER_SIZE;
+        }
+        return new SubArray(raw.raw, raw.start + off, raw.end);
     }
 
     public void before() {
-        lock.writeLock().lock();
-        pg.setDirty(true);
+        lock();
         System.arraycopy(raw.raw, raw.start, oldRaw, 0, oldRaw.length);
     }
 
     public void unBefore() {
         System.arraycopy(oldRaw, 0, raw.raw, raw.start, oldRaw.length);
-        lock.writeLock().unlock();
+        pg.setDirty(true);
+        unlock();
     }
 
+    // 修改完成后先标脏再写日志：检查点看到这条日志时，页面一定已在脏页表中
+    // 解锁之前页面都算作修改进行中，后台写回不会拍下还没写进日志的修改 (见 PageCacheImpl.snapshot)
     public void after(long xid) {
+        pg.setDirty(true);
         dm.logDataItem(xid, this);
-        lock.writeLock().unlock();
+        unlock();
     }
 
     public void release() {
         dm.releaseDataItem(this);
     }
 
+    // 写锁可重入，只有最外层的加锁/解锁改变版本号，同时告知所在的页 (见 Page.tryOptimisticRead)
     public void lock() {
         lock.writeLock().lock();
+        if (lock.getWriteHoldCount() == 1) {
+            pg.beginWrite();
+            version.incrementAndGet();
+            VarHandle.storeStoreFence(); // 版本号先于数据的修改可见
+        }
     }
 
     public void unlock() {
+        if (lock.getWriteHoldCount() == 1) {
+            version.incrementAndGet();
+            pg.endWrite();
+        }
         lock.writeLock().unlock();
     }
 
@@ -73,6 +100,18 @@ public class DataItemImpl implements DataItem {
         lock.readLock().unlock();
     }
 
+    @Override
+    public long tryOptimisticRead() {
+        long v = version.get();
+        return (v & 1) == 0 ? v : 0;
+    }
+
+    @Override
+    public boolean validate(long stamp) {
+        VarHandle.acquireFence(); // 之前对数据的读不能重排到版本号的读之后
+        return stamp != 0 && version.get() == stamp;
+    }
+
     public Page page() {
         return pg;
     }
@@ -3,20 +3,30 @@ package backend.dm.logger;
 /**
  * 日志接口
  * 提供日志写入 (log) 和迭代读取 (next) 功能
+ * LSN 即日志在日志中的逻辑位置，单调递增
  */
 public interface Logger {
-    // 写入一条日志
-    void log(byte[] data);
+    // 写入一条日志，返回它的 LSN
+    long log(byte[] data);
 
-    // 截断日志文件到指定位置 (用于移除 BadTail)
-    void truncate(long x) throws Exception;
+    // 日志尾部位置，即下一条日志的 LSN
+    long getTailLsn();
 
-    // 获取下一条日志数据 (迭代器模式)
+    // 阻塞直到 lsn 之前的日志都已落盘
+    void flush(long lsn);
+
+    // 获取下一条日志数据 (迭代器模式，只读取已写入文件的日志)
     byte[] next();
 
     // 重置迭代器位置
     void rewind();
 
+    // 将迭代器定位到 lsn 处 (lsn 必须是某条日志的起始位置，0 表示从头开始)
+    void rewind(long lsn);
+
+    // 回收 lsn 之前的日志，之后不能再从这之前的位置读取
+    void recycle(long lsn);
+
     // 关闭日志文件
     void close();
 
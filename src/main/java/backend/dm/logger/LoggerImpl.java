@@ -3,219 +3,449 @@ package backend.dm.logger;
 import backend.utils.Error;
 import backend.utils.Panic;
 import backend.utils.Parser;
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
 
 /**
- * 简单的日志实现
- * 日志文件结构: [XChecksum(4B)] [Log1] [Log2] ... [LogN] [BadTail]
+ * 分段日志实现
+ * 日志由若干固定大小的段文件组成: path.log.0, path.log.1, ...
+ * LSN = 段号 * SEG_SIZE + 段内偏移，单条日志不会跨段，段尾放不下时用 0 填充并转到下一段
  * 单条日志结构: [Size(4B)] [Checksum(4B)] [Data]
+ * Checksum 为 CRC32C(LSN + Size + Data)：算入 LSN 后，回收复用的段文件中残留的旧日志一定校验失败
+ *
+ * 打开时只需扫描最后一个有日志的段；检查点之后，恢复用不到的段通过 recycle 回收复用
+ *
+ * 组提交：log 只把日志追加到内存缓冲区，flush(lsn) 时由一个领头线程把整个缓冲区写入文件并 force，
+ * 同时等待的其他线程共享这一次 force
  */
 public class LoggerImpl implements Logger {
 
-    private static final int SEED = 13331; // 校验和计算种子
+    public static final long SEG_SIZE = 1 << 24; // 段大小 16MB
+    private static final int MAX_SPARE_SEGMENTS = 2; // 最多保留的备用段文件数
     private static final int OF_SIZE = 0;
     private static final int OF_CHECKSUM = OF_SIZE + 4;
     private static final int OF_DATA = OF_CHECKSUM + 4;
-    public static final String LOG_SUFFIX = ".log"; // 日志文件后缀
-    private RandomAccessFile file;
-    private FileChannel fc;
+    private static final int BUFFER_LIMIT = 1 << 20; // 缓冲区超过该大小时由写日志的线程顺带刷盘
+    public static final String LOG_SUFFIX = ".log"; // 日志文件后缀，段文件名为 path.log.段号
+
+    private String path;
     private Lock lock;
 
+    // 段号 -> 段文件，受 segLock 保护
+    private TreeMap<Long, RandomAccessFile> segments;
+    private Lock segLock;
+
     private long position; // 当前读取位置 (用于 next 迭代)
-    private long fileSize; // 文件大小
-    private int xChecksum; // 全局校验和
+    private long tailLsn; // 日志尾部位置，含缓冲区中尚未写入文件的部分
+
+    private byte[] buffer; // 尚未写入文件的日志
+    private int bufferSize;
+    private long bufferStart; // 缓冲区第一个字节的 LSN
+
+    // 组提交：同一时刻只有一个领头线程在写盘，其余线程等待 durableLsn 推进
+    private Lock flushLock;
+    private Condition flushed;
+    private boolean flushing;
+    private volatile long durableLsn; // 此位置之前的日志都已落盘
 
-    LoggerImpl(RandomAccessFile raf, FileChannel fc) {
-        this.file = raf;
-        this.fc = fc;
+    LoggerImpl(String path, TreeMap<Long, RandomAccessFile> segments) {
+        this.path = path;
+        this.segments = segments;
         lock = new ReentrantLock();
+        segLock = new ReentrantLock();
+        buffer = new byte[4096];
+        flushLock = new ReentrantLock();
+        flushed = flushLock.newCondition();
     }
 
-    // 初始化：检查并移除 BadTail
+    /**
+     * 初始化：找到日志尾部
+     * 从最大的段号往前找第一个以有效日志开头的段，只扫描这一段；
+     * 更大段号的段是回收来的备用段或者尚未写入就崩溃的段
+     */
     void init() {
-        long size = 0;
+        long tail = segments.firstKey() * SEG_SIZE;
+        for (long segNo : segments.descendingKeySet()) {
+            long start = segNo * SEG_SIZE;
+            if (readRecord(start) != null) {
+                tail = start;
+                byte[] log;
+                while ((log = readRecord(tail)) != null) {
+                    tail += log.length;
+                }
+                break;
+            }
+        }
+        // 清掉尾部之后的残留，避免之后新写的日志恰好与残留的旧日志首尾相接
+        long segNo = tail / SEG_SIZE;
+        RandomAccessFile raf = segments.get(segNo);
+        if (raf != null) {
+            try {
+                raf.setLength(tail % SEG_SIZE);
+                raf.setLength(SEG_SIZE);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+        }
+        tailLsn = tail;
+        bufferStart = tail;
+        durableLsn = tail;
+        rewind();
+    }
+
+    // 计算校验和
+    private static int calChecksum(long lsn, byte[] log, int off, int len) {
+        CRC32C crc = new CRC32C();
+        crc.update(Parser.long2Byte(lsn));
+        crc.update(log, off, OF_CHECKSUM);
+        crc.update(log, off + OF_DATA, len - OF_DATA);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public long log(byte[] data) {
+        int size = OF_DATA + data.length;
+        if (size > SEG_SIZE) {
+            Panic.panic(Error.DataTooLargeException);
+        }
+        long lsn;
+        boolean full;
+        lock.lock();
         try {
-            size = file.length();
-        } catch (IOException e) {
-            Panic.panic(e);
+            lsn = tailLsn;
+            long remain = SEG_SIZE - lsn % SEG_SIZE;
+            if (remain < size) {
+                // 本段放不下，段尾补 0 转到下一段
+                ensureBuffer((int) remain);
+                Arrays.fill(buffer, bufferSize, bufferSize + (int) remain, (byte) 0);
+                bufferSize += remain;
+                lsn += remain;
+            }
+            ensureBuffer(size);
+            wrapLog(lsn, data, buffer, bufferSize);
+            bufferSize += size;
+            tailLsn = lsn + size;
+            full = bufferSize >= BUFFER_LIMIT;
+        } finally {
+            lock.unlock();
         }
-        if (size < 4) { // 文件太小，说明肯定没数据，panic
-            Panic.panic(Error.BadLogFileException);
+        if (full) {
+            flush(lsn + size);
         }
+        return lsn;
+    }
 
-        // 读取全局校验和
-        ByteBuffer raw = ByteBuffer.allocate(4);
+    private void ensureBuffer(int n) {
+        if (bufferSize + n > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, bufferSize + n));
+        }
+    }
+
+    @Override
+    public long getTailLsn() {
+        lock.lock();
         try {
-            fc.position(0);
-            fc.read(raw);
-        } catch (IOException e) {
-            Panic.panic(e);
+            return tailLsn;
+        } finally {
+            lock.unlock();
         }
-        int xChecksum = Parser.parseInt(raw.array());
-        this.fileSize = size;
-        this.xChecksum = xChecksum;
-        checkAndRemoveTail();
     }
 
     /**
-     * 检查并移除文件尾部可能存在的损坏日志
+     * 等待 lsn 之前的日志全部落盘
+     * 没有线程在写盘时，当前线程成为领头线程，把缓冲区中的所有日志一次写盘；
+     * 否则等待正在进行的写盘结束，若仍未覆盖 lsn 再竞争下一轮领头
      */
-    private void checkAndRemoveTail() {
-        rewind();
-        int xCheck = 0;
-        while (true) {
-            byte[] log = internNext();
-            if (log == null)
-                break;
-            xCheck = calChecksum(xCheck, log);
-        }
-        if (xCheck != xChecksum) {
-            Panic.panic(Error.BadLogFileException);
+    @Override
+    public void flush(long lsn) {
+        if (durableLsn >= lsn) {
+            return;
         }
+        flushLock.lock();
         try {
-            truncate(position); // 截断到最后一个有效日志的末尾
-        } catch (Exception e) {
-            Panic.panic(e);
+            while (durableLsn < lsn && flushing) {
+                flushed.awaitUninterruptibly();
+            }
+            if (durableLsn >= lsn) {
+                return;
+            }
+            flushing = true;
+        } finally {
+            flushLock.unlock();
         }
 
+        long end = durableLsn;
         try {
-            file.seek(position); // 移动文件指针准备追加写入
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        rewind();
-    }
-
-    // 计算校验和
-    private int calChecksum(int xCheck, byte[] log) {
-        for (byte b : log) {
-            xCheck = xCheck * SEED + b;
+            end = writeBuffer();
+        } finally {
+            flushLock.lock();
+            try {
+                durableLsn = Math.max(durableLsn, end);
+                flushing = false;
+                flushed.signalAll();
+            } finally {
+                flushLock.unlock();
+            }
         }
-        return xCheck;
     }
 
-    @Override
-    public void log(byte[] data) {
-        byte[] log = wrapLog(data);
-        ByteBuffer buf = ByteBuffer.wrap(log);
+    // 取走缓冲区按段写入文件并 force，返回落盘后的日志尾部
+    private long writeBuffer() {
+        byte[] data;
+        int size;
+        long start;
         lock.lock();
         try {
-            fc.position(fc.size());
-            fc.write(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
+            data = buffer;
+            size = bufferSize;
+            start = bufferStart;
+            buffer = new byte[Math.max(4096, Math.min(data.length, BUFFER_LIMIT))];
+            bufferSize = 0;
+            bufferStart = tailLsn;
         } finally {
             lock.unlock();
         }
-        updateXChecksum(log);
-    }
-
-    // 更新全局校验和并写回文件头
-    private void updateXChecksum(byte[] log) {
-        this.xChecksum = calChecksum(this.xChecksum, log);
         try {
-            fc.position(0);
-            fc.write(ByteBuffer.wrap(Parser.int2Byte(xChecksum)));
-            fc.force(false);
+            List<FileChannel> written = new ArrayList<>(2);
+            int off = 0;
+            while (off < size) {
+                long lsn = start + off;
+                int len = (int) Math.min(size - off, SEG_SIZE - lsn % SEG_SIZE);
+                FileChannel fc = segment(lsn / SEG_SIZE).getChannel();
+                ByteBuffer buf = ByteBuffer.wrap(data, off, len);
+                long pos = lsn % SEG_SIZE;
+                while (buf.hasRemaining()) {
+                    pos += fc.write(buf, pos);
+                }
+                written.add(fc);
+                off += len;
+            }
+            for (FileChannel fc : written) {
+                fc.force(false);
+            }
         } catch (IOException e) {
             Panic.panic(e);
         }
+        return start + size;
     }
 
-    // 将 Data 包装成 Log 格式
-    private byte[] wrapLog(byte[] data) {
-        byte[] checksum = Parser.int2Byte(calChecksum(0, data));
-        byte[] size = Parser.int2Byte(data.length);
-        long packetSize = size.length + checksum.length + data.length;
-        byte[] packet = new byte[(int) packetSize];
-        System.arraycopy(size, 0, packet, 0, 4);
-        System.arraycopy(checksum, 0, packet, 4, 4);
-        System.arraycopy(data, 0, packet, 8, data.length);
-        return packet;
+    // 将 Data 包装成 Log 格式，写入 dst 的 off 处
+    private static void wrapLog(long lsn, byte[] data, byte[] dst, int off) {
+        Parser.putInt(dst, off + OF_SIZE, data.length);
+        System.arraycopy(data, 0, dst, off + OF_DATA, data.length);
+        int checksum = calChecksum(lsn, dst, off, OF_DATA + data.length);
+        Parser.putInt(dst, off + OF_CHECKSUM, checksum);
     }
 
     @Override
     public byte[] next() {
         lock.lock();
         try {
-            byte[] log = internNext();
-            if (log == null)
-                return null;
-            return Arrays.copyOfRange(log, OF_DATA, log.length);
+            while (position < durableLsn) {
+                byte[] log = readRecord(position);
+                if (log == null) {
+                    // 段尾的填充，转到下一段
+                    position = (position / SEG_SIZE + 1) * SEG_SIZE;
+                    continue;
+                }
+                position += log.length;
+                return Arrays.copyOfRange(log, OF_DATA, log.length);
+            }
+            return null;
         } finally {
             lock.unlock();
         }
     }
 
-    // 内部迭代方法：读取下一个完整的日志包
-    private byte[] internNext() {
-        if (position + OF_DATA >= fileSize) {
+    /**
+     * 读取 lsn 处的一条完整日志，不存在或校验失败返回 null
+     */
+    private byte[] readRecord(long lsn) {
+        RandomAccessFile raf = findSegment(lsn / SEG_SIZE);
+        long off = lsn % SEG_SIZE;
+        if (raf == null || off + OF_DATA > SEG_SIZE) {
             return null;
         }
-        // 读取 size
+        FileChannel fc = raf.getChannel();
         ByteBuffer tmp = ByteBuffer.allocate(4);
         try {
-            fc.position(position);
-            fc.read(tmp);
+            fc.read(tmp, off + OF_SIZE);
         } catch (IOException e) {
             Panic.panic(e);
         }
         int size = Parser.parseInt(tmp.array());
-        if (position + size + OF_DATA > fileSize) {
+        if (size <= 0 || off + OF_DATA + size > SEG_SIZE) {
             return null;
         }
-        // 读取 checksum + data
         ByteBuffer buf = ByteBuffer.allocate(OF_DATA + size);
         try {
-            fc.position(position);
-            fc.read(buf);
+            while (buf.hasRemaining()) {
+                if (fc.read(buf, off + buf.position()) < 0) {
+                    return null;
+                }
+            }
         } catch (IOException e) {
             Panic.panic(e);
         }
         byte[] log = buf.array();
-        // 校验 checksum (验证本条日志是否损坏)
-        int checkSum1 = calChecksum(0, Arrays.copyOfRange(log, OF_DATA, log.length));
-        int checkSum2 = Parser.parseInt(Arrays.copyOfRange(log, OF_CHECKSUM, OF_DATA));
+        int checkSum1 = calChecksum(lsn, log, 0, log.length);
+        int checkSum2 = Parser.getInt(log, OF_CHECKSUM);
         if (checkSum1 != checkSum2) {
             return null;
         }
-        position += log.length;
         return log;
     }
 
+    /**
+     * 回收 lsn 之前的整段：检查点已保证恢复不会再读到它们
+     * 回收的段文件改名为新的段号留作备用，下次换段时直接复用，不必重新分配文件
+     */
     @Override
-    public void truncate(long x) throws Exception {
-        lock.lock();
+    public void recycle(long lsn) {
+        long tailSegNo = getTailLsn() / SEG_SIZE;
+        segLock.lock();
+        try {
+            while (segments.size() > 1 && (segments.firstKey() + 1) * SEG_SIZE <= lsn) {
+                Map.Entry<Long, RandomAccessFile> e = segments.pollFirstEntry();
+                e.getValue().close();
+                File f = segmentFile(path, e.getKey());
+                long spares = segments.tailMap(tailSegNo, false).size();
+                if (spares < MAX_SPARE_SEGMENTS) {
+                    long segNo = segments.lastKey() + 1;
+                    if (f.renameTo(segmentFile(path, segNo))) {
+                        segments.put(segNo, new RandomAccessFile(segmentFile(path, segNo), "rw"));
+                        continue;
+                    }
+                }
+                f.delete();
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            segLock.unlock();
+        }
+    }
+
+    private RandomAccessFile findSegment(long segNo) {
+        segLock.lock();
         try {
-            fc.truncate(x);
+            return segments.get(segNo);
         } finally {
-            lock.unlock();
+            segLock.unlock();
+        }
+    }
+
+    // 获取段文件，不存在则新建
+    private RandomAccessFile segment(long segNo) {
+        segLock.lock();
+        try {
+            RandomAccessFile raf = segments.get(segNo);
+            if (raf == null) {
+                raf = new RandomAccessFile(segmentFile(path, segNo), "rw");
+                raf.setLength(SEG_SIZE);
+                segments.put(segNo, raf);
+            }
+            return raf;
+        } catch (IOException e) {
+            Panic.panic(e);
+            return null;
+        } finally {
+            segLock.unlock();
         }
     }
 
     @Override
     public void rewind() {
-        position = 4; // 跳过文件头 XChecksum
+        position = findFirstLsn();
+    }
+
+    @Override
+    public void rewind(long lsn) {
+        position = Math.max(lsn, findFirstLsn());
+    }
+
+    private long findFirstLsn() {
+        segLock.lock();
+        try {
+            return segments.firstKey() * SEG_SIZE;
+        } finally {
+            segLock.unlock();
+        }
     }
 
     @Override
     public void close() {
+        flush(getTailLsn());
+        segLock.lock();
         try {
-            fc.close();
-            file.close();
+            for (RandomAccessFile raf : segments.values()) {
+                raf.close();
+            }
         } catch (IOException e) {
             Panic.panic(e);
+        } finally {
+            segLock.unlock();
+        }
+    }
+
+    static File segmentFile(String path, long segNo) {
+        return new File(path + LOG_SUFFIX + "." + segNo);
+    }
+
+    /**
+     * 列出已有的段文件
+     */
+    static TreeMap<Long, File> listSegments(String path) {
+        File base = new File(path + LOG_SUFFIX).getAbsoluteFile();
+        String prefix = base.getName() + ".";
+        TreeMap<Long, File> files = new TreeMap<>();
+        File[] candidates = base.getParentFile().listFiles((dir, name) -> name.startsWith(prefix));
+        if (candidates == null) {
+            return files;
+        }
+        for (File f : candidates) {
+            try {
+                files.put(Long.parseLong(f.getName().substring(prefix.length())), f);
+            } catch (NumberFormatException e) {
+                // 不是段文件
+            }
         }
+        return files;
+    }
+
+    private static TreeMap<Long, RandomAccessFile> openSegments(TreeMap<Long, File> files) {
+        TreeMap<Long, RandomAccessFile> segments = new TreeMap<>();
+        for (Map.Entry<Long, File> e : files.entrySet()) {
+            File f = e.getValue();
+            if (!f.canRead() || !f.canWrite()) {
+                Panic.panic(Error.FileCannotRWException);
+            }
+            try {
+                segments.put(e.getKey(), new RandomAccessFile(f, "rw"));
+            } catch (IOException ex) {
+                Panic.panic(ex);
+            }
+        }
+        return segments;
     }
 
     public static Logger create(String path) {
-        java.io.File f = new java.io.File(path + LOG_SUFFIX);
+        if (!listSegments(path).isEmpty()) {
+            Panic.panic(Error.FileExistsException);
+        }
+        File f = segmentFile(path, 0);
         try {
             if (!f.createNewFile()) {
                 Panic.panic(Error.FileExistsException);
@@ -227,49 +457,27 @@ public class LoggerImpl implements Logger {
             Panic.panic(Error.FileCannotRWException);
         }
 
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-
-        // 写初始 XChecksum = 0
-        ByteBuffer buf = ByteBuffer.wrap(Parser.int2Byte(0));
+        TreeMap<Long, File> files = new TreeMap<>();
+        files.put(0L, f);
+        TreeMap<Long, RandomAccessFile> segments = openSegments(files);
         try {
-            fc.position(0);
-            fc.write(buf);
-            fc.force(false);
+            segments.get(0L).setLength(SEG_SIZE);
         } catch (IOException e) {
             Panic.panic(e);
         }
 
-        LoggerImpl lg = new LoggerImpl(raf, fc);
+        LoggerImpl lg = new LoggerImpl(path, segments);
         lg.init();
         return lg;
     }
 
     public static Logger open(String path) {
-        java.io.File f = new java.io.File(path + LOG_SUFFIX);
-        if (!f.exists()) {
+        TreeMap<Long, File> files = listSegments(path);
+        if (files.isEmpty()) {
             Panic.panic(Error.FileNotExistsException);
         }
-        if (!f.canRead() || !f.canWrite()) {
-            Panic.panic(Error.FileCannotRWException);
-        }
-
-        FileChannel fc = null;
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        LoggerImpl lg = new LoggerImpl(raf, fc);
+        LoggerImpl lg = new LoggerImpl(path, openSegments(files));
         lg.init();
         return lg;
     }
-}
\ No newline at end of file
+}
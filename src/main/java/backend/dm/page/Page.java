@@ -26,4 +26,14 @@ public interface Page {
 
     // 获取页面实际包含的字节数据
     byte[] getData();
+
+    // 页上的数据项开始/结束一次修改 (由 DataItem 的写锁调用)
+    void beginWrite();
+
+    void endWrite();
+
+    // 乐观读整页：没有进行中的修改时返回非 0 的戳，读完后用 validate 确认期间没有新的修改
+    long tryOptimisticRead();
+
+    boolean validate(long stamp);
 }
\ No newline at end of file
@@ -1,23 +1,32 @@
 package backend.dm.page;
 
 import backend.dm.pageCache.PageCache;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Page 接口的具体实现类
+ *
+ * 页上可能同时有多个数据项在修改，乐观读用两个计数：开始的修改数和结束的修改数
+ * 两者相等说明没有进行中的修改；读完后开始的修改数不变，说明读的期间也没有新的修改
  */
 public class PageImpl implements Page {
     private int pageNumber; // 页号
     private byte[] data; // 实际数据 (8KB)
-    private boolean dirty; // 脏标志
+    private AtomicBoolean dirty; // 脏标志
     private Lock lock; // 页面锁
     private PageCache pc; // 对应的缓存引用，用于快速释放
+    private final AtomicLong writesBegun = new AtomicLong();
+    private final AtomicLong writesEnded = new AtomicLong();
 
     public PageImpl(int pageNumber, byte[] data, PageCache pc) {
         this.pageNumber = pageNumber;
         this.data = data;
         this.pc = pc;
+        this.dirty = new AtomicBoolean();
         lock = new ReentrantLock();
     }
 
@@ -29,6 +38,26 @@ public class PageImpl implements Page {
         lock.unlock();
     }
 
+    public void beginWrite() {
+        writesBegun.incrementAndGet();
+        VarHandle.storeStoreFence(); // 计数先于数据的修改可见
+    }
+
+    public void endWrite() {
+        writesEnded.incrementAndGet();
+    }
+
+    public long tryOptimisticRead() {
+        long ended = writesEnded.get();
+        long begun = writesBegun.get();
+        return begun == ended ? begun + 1 : 0;
+    }
+
+    public boolean validate(long stamp) {
+        VarHandle.acquireFence(); // 之前对数据的读不能重排到计数的读之后
+        return stamp != 0 && writesBegun.get() == stamp - 1;
+    }
+
     /**
      * 释放当前页面的引用。
      * 实际是调用 PageCache 的 release 方法。
@@ -37,12 +66,20 @@ public class PageImpl implements Page {
         pc.release(this);
     }
 
+    /**
+     * 设置脏标志。调用方应在修改完页面数据之后再标脏：
+     * 后台写回先清标志再拷贝数据，这样拷贝之后的修改一定会让页面重新进入脏页表。
+     * 用 getAndSet 保证清标志的一方能看到标脏之前的全部修改
+     */
     public void setDirty(boolean dirty) {
-        this.dirty = dirty;
+        boolean old = this.dirty.getAndSet(dirty);
+        if (dirty && !old && pc != null) {
+            pc.markDirty(this);
+        }
     }
 
     public boolean isDirty() {
-        return dirty;
+        return dirty.get();
     }
 
     public int getPageNumber() {
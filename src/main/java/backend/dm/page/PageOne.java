@@ -1,22 +1,34 @@
 package backend.dm.page;
 
+import backend.utils.Parser;
 import backend.utils.RandomUtil;
 import java.util.Arrays;
 
 /**
  * 特殊管理第一页
- * 主要用于 Valid Check (启动校验)
+ * 主要用于 Valid Check (启动校验)，同时记录最近一次检查点和数据文件的格式版本
+ * 检查点结构: [RedoLsn(8B)] [UndoLsn(8B)] [PageNumber(4B)]，之后是 [FormatVersion(4B)]
  */
 public class PageOne {
     private static final int OF_VC = 100; // 校验字节起始偏移量
     private static final int LEN_VC = 8; // 校验字节长度
+    private static final int OF_REDO_LSN = OF_VC + 2 * LEN_VC; // 检查点信息紧跟在校验字节之后
+    private static final int OF_UNDO_LSN = OF_REDO_LSN + 8;
+    private static final int OF_CKPT_PGNO = OF_UNDO_LSN + 8;
+    private static final int OF_FORMAT = OF_CKPT_PGNO + 4;
+
+    /**
+     * 数据文件的格式版本：页面、数据项 (所属对象标记) 或 B+ 树节点的布局变化时加一
+     * 没有写入版本的旧文件读出为 0
+     */
+    public static final int FORMAT_VERSION = 2;
 
     /**
      * 启动时设置初始校验字节
      */
     public static void setVcOpen(Page pg) {
-        pg.setDirty(true);
         setVcOpen(pg.getData());
+        pg.setDirty(true);
     }
 
     private static void setVcOpen(byte[] raw) {
@@ -29,8 +41,8 @@ public class PageOne {
      * 将 [100, 108) 的内容拷贝到 [108, 116)
      */
     public static void setVcClose(Page pg) {
-        pg.setDirty(true);
         setVcClose(pg.getData());
+        pg.setDirty(true);
     }
 
     private static void setVcClose(byte[] raw) {
@@ -45,7 +57,43 @@ public class PageOne {
     }
 
     private static boolean checkVc(byte[] raw) {
-        return Arrays.equals(Arrays.copyOfRange(raw, OF_VC, OF_VC + LEN_VC),
-                Arrays.copyOfRange(raw, OF_VC + LEN_VC, OF_VC + 2 * LEN_VC));
+        return Arrays.equals(raw, OF_VC, OF_VC + LEN_VC, raw, OF_VC + LEN_VC, OF_VC + 2 * LEN_VC);
+    }
+
+    /**
+     * 记录检查点
+     * redoLsn 之前的修改都已落盘；undoLsn 是检查点时仍活跃的事务写下的最早日志
+     * pageNumber 是检查点时的总页数，恢复时不能把这些页面截掉
+     */
+    public static void setCheckpoint(Page pg, long redoLsn, long undoLsn, int pageNumber) {
+        byte[] raw = pg.getData();
+        Parser.putLong(raw, OF_REDO_LSN, redoLsn);
+        Parser.putLong(raw, OF_UNDO_LSN, undoLsn);
+        Parser.putInt(raw, OF_CKPT_PGNO, pageNumber);
+        pg.setDirty(true);
+    }
+
+    /**
+     * 建库时写入格式版本
+     */
+    public static void setFormatVersion(Page pg) {
+        Parser.putInt(pg.getData(), OF_FORMAT, FORMAT_VERSION);
+        pg.setDirty(true);
+    }
+
+    public static int getFormatVersion(Page pg) {
+        return Parser.getInt(pg.getData(), OF_FORMAT);
+    }
+
+    public static long getRedoLsn(Page pg) {
+        return Parser.getLong(pg.getData(), OF_REDO_LSN);
+    }
+
+    public static long getUndoLsn(Page pg) {
+        return Parser.getLong(pg.getData(), OF_UNDO_LSN);
+    }
+
+    public static int getCheckpointPageNumber(Page pg) {
+        return Parser.getInt(pg.getData(), OF_CKPT_PGNO);
     }
-}
\ No newline at end of file
+}
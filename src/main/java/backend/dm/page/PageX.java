@@ -2,7 +2,6 @@ package backend.dm.page;
 
 import backend.dm.pageCache.PageCache;
 import backend.utils.Parser;
-import java.util.Arrays;
 
 /**
  * 普通页面管理逻辑
@@ -27,7 +26,7 @@ public class PageX {
 
     // 设置 FSO 值
     private static void setFSO(byte[] raw, short ofData) {
-        System.arraycopy(Parser.short2Byte(ofData), 0, raw, OF_FREE, OF_DATA);
+        Parser.putShort(raw, OF_FREE, ofData);
     }
 
     // 获取 FSO 值
@@ -36,7 +35,7 @@ public class PageX {
     }
 
     private static short getFSO(byte[] raw) {
-        return Parser.parseShort(Arrays.copyOfRange(raw, 0, 2));
+        return Parser.getShort(raw, OF_FREE);
     }
 
     /**
@@ -46,10 +45,10 @@ public class PageX {
      * 3. 更新 FSO
      */
     public static short insert(Page pg, byte[] raw) {
-        pg.setDirty(true);
         short offset = getFSO(pg.getData());
         System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
         setFSO(pg.getData(), (short) (offset + raw.length));
+        pg.setDirty(true);
         return offset;
     }
 
@@ -65,13 +64,13 @@ public class PageX {
      * 将 raw 插入 pg 中的 offset 位置，并将 pg 的 offset 更新为较大值
      */
     public static void recoverInsert(Page pg, byte[] raw, short offset) {
-        pg.setDirty(true);
         System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
         short rawFSO = getFSO(pg.getData());
         // 恢复时，如果现在的 FSO 比恢复后的位置小，说明 FSO 没来得及更新，需要补上
         if (rawFSO < offset + raw.length) {
             setFSO(pg.getData(), (short) (offset + raw.length));
         }
+        pg.setDirty(true);
     }
 
     /**
@@ -79,7 +78,7 @@ public class PageX {
      * 仅将 raw 插入 pg 中的 offset 位置，不更新 FSO
      */
     public static void recoverUpdate(Page pg, byte[] raw, short offset) {
-        pg.setDirty(true);
         System.arraycopy(raw, 0, pg.getData(), offset, raw.length);
+        pg.setDirty(true);
     }
 }
\ No newline at end of file
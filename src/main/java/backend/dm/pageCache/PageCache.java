@@ -1,5 +1,6 @@
 package backend.dm.pageCache;
 
+import backend.dm.logger.Logger;
 import backend.dm.page.Page;
 
 /**
@@ -16,6 +17,10 @@ public interface PageCache {
     // 获取第 pgno 页
     Page getPage(int pgno) throws Exception;
 
+    // 顺序扫描用：从 pgno 开始读出最多 buf.length / PAGE_SIZE 页，返回读到的页数
+    // 不经过缓存，也不把页面放进缓存；正在缓存中的页用内存中的版本，cached 中对应位置为 true
+    int readPages(int pgno, byte[] buf, boolean[] cached);
+
     // 关闭缓存，释放所有资源
     void close();
 
@@ -30,4 +35,13 @@ public interface PageCache {
 
     // 强制将页面写回磁盘
     void flushPage(Page page);
+
+    // 页面由干净变脏时调用，加入脏页表等待后台写回
+    void markDirty(Page page);
+
+    // 写回所有脏页并刷盘 (用于检查点)
+    void flushAll();
+
+    // 设置日志，此后写回页面前先保证日志落盘 (WAL)
+    void setLogger(Logger logger);
 }
\ No newline at end of file
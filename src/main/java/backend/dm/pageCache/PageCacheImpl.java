@@ -1,6 +1,8 @@
 package backend.dm.pageCache;
 
 import backend.common.AbstractCache;
+import backend.common.ClockPolicy;
+import backend.dm.logger.Logger;
 import backend.dm.page.Page;
 import backend.dm.page.PageImpl;
 import backend.utils.Error;
@@ -11,6 +13,14 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -18,10 +28,13 @@ import java.util.concurrent.locks.ReentrantLock;
 /**
  * 页面缓存具体实现
  * 继承自 AbstractCache，管理 Page 对象
+ * 引用计数归零的页面继续驻留，缓存满时按 CLOCK 策略淘汰；被淘汰的脏页交给后台线程异步写回
+ * 后台线程还会周期性地按页号顺序批量写回脏页，每批只 force 一次；数据的持久性由日志保证
  */
 public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
 
     private static final int MEM_MIN_LIM = 10; // 最小内存页限制
+    private static final long FLUSH_INTERVAL_MS = 1000; // 后台刷脏页的周期
     public static final String DB_SUFFIX = ".db"; // 数据库文件后缀
     // public static final int PAGE_SIZE = 1 << 13; // 页面大小 8192 字节 (8KB)
 
@@ -32,8 +45,30 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     // 记录总页数，AtomicInteger 保证线程安全
     private AtomicInteger pageNumbers;
 
+    // 后台写线程：异步写回被淘汰的脏页、周期性刷脏页、为检查点刷盘，所有写盘操作都在这一个线程上串行执行
+    private ScheduledExecutorService writer;
+    // 脏页表，按页号排序，保证批量写回时顺序写文件
+    private ConcurrentSkipListMap<Integer, Page> dirtyPages;
+    // 正在等待写回的页面：写回完成前再次读取该页，直接复用内存中的页面而不是读磁盘上的旧数据
+    // 每页只登记最新的一份快照，被更新的快照取代的写回不再执行，避免旧快照覆盖新数据
+    private ConcurrentHashMap<Integer, Writeback> writingBack;
+    // 写回页面前要先刷的日志，为 null 时不检查 (恢复前)
+    private volatile Logger logger;
+
+    /**
+     * 一次待完成的写回
+     */
+    private static class Writeback {
+        Page pg;
+        byte[] data; // 登记之后在页面锁内拷贝的快照
+
+        Writeback(Page pg) {
+            this.pg = pg;
+        }
+    }
+
     PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource) {
-        super(maxResource);
+        super(maxResource, new ClockPolicy(maxResource));
         if (maxResource < MEM_MIN_LIM) {
             Panic.panic(Error.MemTooSmallException);
         }
@@ -46,6 +81,15 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         this.file = file;
         this.fc = fileChannel;
         this.fileLock = new ReentrantLock();
+        this.writingBack = new ConcurrentHashMap<>();
+        this.dirtyPages = new ConcurrentSkipListMap<>();
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "page-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        writer.scheduleWithFixedDelay(() -> flushDirtyPages(false), FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
 
         // 简单粗暴：文件大小 / 页大小 = 总页数
         this.pageNumbers = new AtomicInteger((int) (length / PAGE_SIZE));
@@ -55,7 +99,7 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
      * 新建页面-
      * 1. 页号 +1
      * 2. 创建 Page 对象
-     * 3. 立刻刷入磁盘 (flush)
+     * 3. 立刻写入文件 (flush)，由后续的批量 force 或检查点刷盘
      */
     public int newPage(byte[] initData) {
         int pgno = pageNumbers.incrementAndGet();
@@ -68,6 +112,63 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         return get(pgno);
     }
 
+    /**
+     * 先确定哪些页在内存中 (缓存中的、或淘汰后还没写回的)，再一次读出整段文件：
+     * 此刻不在内存中的页，文件中的版本至少和此刻一样新；读文件时持有 fileLock，不会读到写了一半的页
+     * 缓存中的页和写回中的页都在页面锁内拷贝，拷贝时数据项仍可能被就地修改，由调用方确认
+     */
+    public int readPages(int pgno, byte[] buf, boolean[] cached) {
+        int n = Math.min(buf.length / PAGE_SIZE, getPageNumber() - pgno + 1);
+        if (n <= 0) {
+            return 0;
+        }
+        byte[][] inMemory = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            Page pg = getIfCached(pgno + i);
+            cached[i] = pg != null;
+            if (pg != null) {
+                pg.lock();
+                try {
+                    inMemory[i] = pg.getData().clone();
+                } finally {
+                    pg.unlock();
+                }
+                release(pg);
+                continue;
+            }
+            Writeback wb = writingBack.get(pgno + i);
+            if (wb != null) {
+                wb.pg.lock();
+                try {
+                    inMemory[i] = wb.pg.getData().clone();
+                } finally {
+                    wb.pg.unlock();
+                }
+            }
+        }
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, n * PAGE_SIZE);
+        fileLock.lock();
+        try {
+            fc.position(pageOffset(pgno));
+            int read;
+            do {
+                read = fc.read(bb);
+            } while (read > 0 && bb.hasRemaining());
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            fileLock.unlock();
+        }
+        // 文件比页数短时 (新页还没写到文件里) 补 0，当作空页
+        Arrays.fill(buf, bb.position(), n * PAGE_SIZE, (byte) 0);
+        for (int i = 0; i < n; i++) {
+            if (inMemory[i] != null) {
+                System.arraycopy(inMemory[i], 0, buf, i * PAGE_SIZE, PAGE_SIZE);
+            }
+        }
+        return n;
+    }
+
     /**
      * 从数据源（文件）读取数据，用来填充缓存
      * 这是 AbstractCache 要求的抽象方法
@@ -75,6 +176,10 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     @Override
     protected Page getForCache(long key) throws Exception {
         int pgno = (int) key;
+        Writeback wb = writingBack.get(pgno);
+        if (wb != null) {
+            return wb.pg;
+        }
         long offset = pageOffset(pgno);
         ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
 
@@ -94,12 +199,26 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     /**
      * 当页面被驱逐出缓存时，如果是脏页，需要写回磁盘
      * 这是 AbstractCache 要求的抽象方法
+     * 写回在后台线程完成，调用方（通常是正在等待空闲页框的读者）不必等待磁盘 IO
+     * 在页面锁内确认脏标志，和后台批量写回对同一页的快照互斥
      */
     @Override
     protected void releaseForCache(Page pg) {
-        if (pg.isDirty()) {
-            flush(pg);
-            pg.setDirty(false);
+        Writeback wb = null;
+        pg.lock();
+        try {
+            if (pg.isDirty()) {
+                wb = snapshot(pg, false);
+            }
+        } finally {
+            pg.unlock();
+        }
+        if (wb != null) {
+            Writeback w = wb;
+            writer.execute(() -> {
+                flushLog();
+                writeBack(w);
+            });
         }
     }
 
@@ -107,23 +226,161 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         release((long) page.getPageNumber());
     }
 
+    public void markDirty(Page pg) {
+        dirtyPages.put(pg.getPageNumber(), pg);
+    }
+
+    /**
+     * 同步写回单个页面并刷盘
+     * 也在写线程上执行，避免与后台批量写回交错，把磁盘上的页面覆盖成旧版本
+     */
     public void flushPage(Page pg) {
-        flush(pg);
+        runOnWriter(() -> {
+            Writeback wb = snapshot(pg, false);
+            flushLog();
+            writeBack(wb);
+            force();
+        });
+    }
+
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * 写回所有脏页并刷盘，返回时调用前产生的修改都已落盘（检查点使用）
+     * 有修改进行到一半的页面等修改完成再拍快照：它之前的修改的日志可能已在检查点的 redo 起点之前
+     * 批量写回期间被淘汰的页面取代了批中的快照，它的写回排在这一批之后，所以最后再 force 一次
+     */
+    public void flushAll() {
+        runOnWriter(() -> flushDirtyPages(true));
+        runOnWriter(this::force);
+    }
+
+    /**
+     * 按页号顺序写回当前的脏页，整批只 force 一次
+     * 有修改进行到一半的页面留到下一批 (wait 为 true 时等它完成)；拷贝完整批快照后再刷一次日志
+     * 刷日志期间快照都登记在 writingBack 中：页面被淘汰后再读取仍复用内存中的页面，
+     * 这期间再次淘汰登记的更新快照会取代批中的旧快照，不会被它覆盖
+     */
+    private void flushDirtyPages(boolean wait) {
+        List<Writeback> batch = new ArrayList<>();
+        for (Page pg : dirtyPages.values()) {
+            Writeback wb = snapshotIfDirty(pg);
+            while (wb == null && wait && pg.isDirty()) {
+                Thread.yield();
+                wb = snapshotIfDirty(pg);
+            }
+            if (wb != null) {
+                batch.add(wb);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        flushLog();
+        for (Writeback wb : batch) {
+            writeBack(wb);
+        }
+        force();
+    }
+
+    private Writeback snapshotIfDirty(Page pg) {
+        pg.lock();
+        try {
+            return pg.isDirty() ? snapshot(pg, true) : null;
+        } finally {
+            pg.unlock();
+        }
+    }
+
+    /**
+     * 在页面锁内拍快照并登记到 writingBack，调用方持有页面锁
+     * 先登记、再清脏标志、最后拷贝：页面在写回前被淘汰时不会因为看起来是干净的而从文件读回旧数据，
+     * 拷贝之后的修改会重新把页面标脏，留给下一次写回
+     * optimistic 为 true 时页上可能有数据项在修改 (见 Page.tryOptimisticRead)：
+     * DataItem 先标脏后写日志，修改进行到一半的页面可能带着还没写进日志的修改，这时放弃快照、页面保持脏，返回 null
+     */
+    private Writeback snapshot(Page pg, boolean optimistic) {
+        long stamp = 0;
+        if (optimistic) {
+            stamp = pg.tryOptimisticRead();
+            if (stamp == 0) {
+                return null;
+            }
+        }
+        int pgno = pg.getPageNumber();
+        Writeback wb = new Writeback(pg);
+        Writeback prev = writingBack.put(pgno, wb);
+        dirtyPages.remove(pgno, pg);
+        pg.setDirty(false);
+        byte[] data = pg.getData().clone();
+        if (optimistic && !pg.validate(stamp)) {
+            // 拷贝期间开始了新的修改：恢复原来的登记，原来的写回仍然有效
+            if (prev != null) {
+                writingBack.put(pgno, prev);
+            } else {
+                writingBack.remove(pgno);
+            }
+            pg.setDirty(true);
+            return null;
+        }
+        wb.data = data;
+        return wb;
+    }
+
+    /**
+     * 在写线程上写回一份快照
+     * 这一页已经登记了更新的快照时跳过：更新的快照的写回排在后面，旧快照不能覆盖它
+     * 写完之后才撤销登记，此前再读这一页都复用内存中的页面
+     */
+    private void writeBack(Writeback wb) {
+        int pgno = wb.pg.getPageNumber();
+        if (writingBack.get(pgno) == wb) {
+            flush(pgno, wb.data);
+        }
+        writingBack.remove(pgno, wb);
+    }
+
+    // WAL：页面写回磁盘之前，它的修改对应的日志必须先落盘
+    private void flushLog() {
+        Logger lg = logger;
+        if (lg != null) {
+            lg.flush(lg.getTailLsn());
+        }
+    }
+
+    private void runOnWriter(Runnable task) {
+        try {
+            writer.submit(task).get();
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+    }
+
+    private void force() {
+        try {
+            fc.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
     }
 
     /**
      * 核心写回方法：将 Page 的 data 写回到文件对应的 offset 位置
      */
     private void flush(Page pg) {
-        int pgno = pg.getPageNumber();
+        flush(pg.getPageNumber(), pg.getData());
+    }
+
+    private void flush(int pgno, byte[] data) {
         long offset = pageOffset(pgno);
 
         fileLock.lock();
         try {
-            ByteBuffer buf = ByteBuffer.wrap(pg.getData());
+            ByteBuffer buf = ByteBuffer.wrap(data);
             fc.position(offset);
             fc.write(buf);
-            fc.force(false); // 强制刷盘
         } catch (IOException e) {
             Panic.panic(e);
         } finally {
@@ -131,6 +388,21 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         }
     }
 
+    /**
+     * 关闭缓存：写回所有脏页，并等待后台写回全部完成
+     */
+    @Override
+    public void close() {
+        super.close();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        force();
+    }
+
     public void truncateByBgno(int maxPgno) {
         long size = pageOffset(maxPgno + 1);
         try {
@@ -1,59 +1,152 @@
 package backend.dm.pageIndex;
 
 import backend.dm.pageCache.PageCache;
+import backend.utils.Panic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
+/**
+ * 空闲空间索引
+ * 按空闲空间把页面分到 41 个区间，每个区间是一个无锁栈，add/select 互不阻塞
+ *
+ * 每页的区间号另存在 .fsm 文件中 (每页 1 字节，偏移 pgno - 1)，检查点和关闭时写回，
+ * 打开时据此重建索引，不必读取所有页面。崩溃后的提示可能偏大 (之后的插入只会让页面变满)，
+ * 所以使用者取到页面后要以页面中实际的空闲空间为准
+ */
 public class PageIndex {
     // 将一页划成 40 个区间
     private static final int INTERVALS_NO = 40;
     private static final int THRESHOLD = PageCache.PAGE_SIZE / INTERVALS_NO;
-    private Lock lock;
-    private List<PageInfo>[] lists;
+    public static final String FSM_SUFFIX = ".fsm";
+
+    private List<ConcurrentLinkedDeque<PageInfo>> lists;
+
+    private RandomAccessFile file;
+    private volatile byte[] hints; // hints[pgno - 1] 为该页最近一次加入索引时的区间号
 
-    @SuppressWarnings("unchecked")
     public PageIndex() {
-        lock = new ReentrantLock();
-        lists = new ArrayList[INTERVALS_NO + 1];
+        lists = new ArrayList<>(INTERVALS_NO + 1);
         for (int i = 0; i < INTERVALS_NO + 1; i++) {
-            lists[i] = new ArrayList<>();
+            lists.add(new ConcurrentLinkedDeque<>());
         }
+        hints = new byte[64];
     }
 
     /**
      * 将页面加入索引
      */
     public void add(int pgno, int freeSpace) {
-        lock.lock();
-        try {
-            int number = freeSpace / THRESHOLD;
-            lists[number].add(new PageInfo(pgno, freeSpace));
-        } finally {
-            lock.unlock();
-        }
+        int number = freeSpace / THRESHOLD;
+        setHint(pgno, number);
+        lists.get(number).push(new PageInfo(pgno, freeSpace));
     }
 
     /**
      * 获取一个空闲空间 >= spaceSize 的页面
      */
     public PageInfo select(int spaceSize) {
-        lock.lock();
+        int number = spaceSize / THRESHOLD;
+        if (number < INTERVALS_NO)
+            number++;
+        while (number <= INTERVALS_NO) {
+            PageInfo pi = lists.get(number).poll(); // 取出并移除，使用完后再 add 回去
+            if (pi != null) {
+                return pi;
+            }
+            number++;
+        }
+        return null;
+    }
+
+    private void setHint(int pgno, int number) {
+        byte[] h = hints;
+        if (pgno > h.length) {
+            h = growHints(pgno);
+        }
+        h[pgno - 1] = (byte) number;
+    }
+
+    private synchronized byte[] growHints(int pgno) {
+        byte[] h = hints;
+        if (pgno > h.length) {
+            h = Arrays.copyOf(h, Math.max(pgno, h.length << 1));
+            hints = h;
+        }
+        return h;
+    }
+
+    /**
+     * 从 .fsm 文件中恢复前 pageNumber 页的索引，返回已恢复到的页号，之后的页面需要调用方读取页面补齐
+     */
+    public int load(int pageNumber) {
+        byte[] raw = null;
         try {
-            int number = spaceSize / THRESHOLD;
-            if (number < INTERVALS_NO)
-                number++;
-            while (number <= INTERVALS_NO) {
-                if (lists[number].size() == 0) {
-                    number++;
-                    continue;
-                }
-                return lists[number].remove(0); // 取出并移除，使用完后再 add 回去
+            int len = (int) Math.min(file.length(), pageNumber);
+            raw = new byte[len];
+            file.getChannel().read(ByteBuffer.wrap(raw), 0);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        // 第一页不存数据
+        for (int pgno = 2; pgno <= raw.length; pgno++) {
+            int number = raw[pgno - 1];
+            if (number < 0 || number > INTERVALS_NO) {
+                number = 0;
             }
-            return null;
-        } finally {
-            lock.unlock();
+            add(pgno, number * THRESHOLD);
+        }
+        return Math.max(raw.length, 1);
+    }
+
+    /**
+     * 把前 pageNumber 页的区间号写入 .fsm 文件
+     */
+    public void persist(int pageNumber) {
+        byte[] h = hints;
+        int len = Math.min(h.length, pageNumber);
+        try {
+            file.getChannel().write(ByteBuffer.wrap(h, 0, len), 0);
+            file.setLength(len);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    public static PageIndex create(String path) {
+        PageIndex pIndex = open(path);
+        try {
+            pIndex.file.setLength(0);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return pIndex;
+    }
+
+    /**
+     * 打开 .fsm 文件；文件不存在时 (例如旧版本建的库) 新建一个空的，由调用方读取页面填充
+     */
+    public static PageIndex open(String path) {
+        PageIndex pIndex = new PageIndex();
+        try {
+            pIndex.file = new RandomAccessFile(new File(path + FSM_SUFFIX), "rw");
+        } catch (IOException e) {
+            Panic.panic(e);
         }
+        return pIndex;
     }
-}
\ No newline at end of file
+}
@@ -6,21 +6,83 @@ import backend.dm.dataItem.DataItem;
 import backend.tm.TransactionManagerImpl;
 import backend.utils.Parser;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * B+ 树索引
+ * 启动项 (boot) 结构: [RootUid(8)][NodeSize(4)]，根节点变化时只改 RootUid，节点大小在创建时确定
+ *
+ * 并发协议 (B-link，见 Node)：
+ * - 查找从根向下，每个节点乐观读一次，键超出节点范围时沿右兄弟指针右移，全程不加锁
+ * - 插入向下时记录每层到达的节点，只锁要修改的那一个节点；分裂后释放它，再从记录的上层节点
+ *   开始 (必要时右移) 插入分隔键，任何时刻一个线程最多持有一个节点的锁
+ * - 删除只修改叶子，不合并节点，所以节点一旦出现在树中就一直有效
+ * - 根的 uid 缓存在 volatile 字段中；只有换根时加 bootLock，并确认分裂的确实是当前的根
+ *
+ * 超过 maxKeySize 的键插入和删除时都截断为前 maxKeySize 字节 (Keys.truncate)，同一个键总是落在同一项上；
+ * 查找的范围由调用方按同样的规则截断，并用完整的值重新判断取出的项
+ */
 public class BPlusTree {
+    // 整页节点对应的扇出，传给 create 即得到每页一个节点的树
+    public static final int PAGE_FANOUT = Integer.MAX_VALUE;
+
+    private static final int BOOT_ROOT_OFFSET = 0;
+    private static final int BOOT_NODE_SIZE_OFFSET = BOOT_ROOT_OFFSET + 8;
+    private static final int BOOT_SIZE = BOOT_NODE_SIZE_OFFSET + 4;
+    // 插入时记录路径的层数，更高的层临时从根查找
+    private static final int PATH_LENGTH = 16;
+
     DataManager dm;
     long bootUid;
     DataItem bootDataItem;
     Lock bootLock;
+    volatile long rootUid; // boot 中 RootUid 的缓存，换根时在 bootLock 内更新
+    int nodeSize;
+    int maxKeySize;
 
     public static long create(DataManager dm) throws Exception {
-        byte[] rawRoot = Node.newNilRootRaw();
+        return createWithNodeSize(dm, Node.DEFAULT_NODE_SIZE);
+    }
+
+    /**
+     * 创建一棵节点能放下约 fanout 个 8 字节键的树，节点最大为一整页
+     */
+    public static long create(DataManager dm, int fanout) throws Exception {
+        return createWithNodeSize(dm, Node.nodeSize(fanout));
+    }
+
+    private static long createWithNodeSize(DataManager dm, int nodeSize) throws Exception {
+        byte[] rawRoot = Node.newNilRootRaw(nodeSize);
         long rootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rawRoot);
-        return dm.insert(TransactionManagerImpl.SUPER_XID, Parser.long2Byte(rootUid));
+        byte[] boot = new byte[BOOT_SIZE];
+        Parser.putLong(boot, BOOT_ROOT_OFFSET, rootUid);
+        Parser.putInt(boot, BOOT_NODE_SIZE_OFFSET, nodeSize);
+        return dm.insert(TransactionManagerImpl.SUPER_XID, boot);
+    }
+
+    /**
+     * 在本树上批量构建，本树应当是空树
+     */
+    public BulkLoader bulkLoader() {
+        return new BulkLoader(this);
+    }
+
+    public boolean isEmpty() throws Exception {
+        Node root = Node.loadNode(this, rootUid);
+        try {
+            return root.isEmpty();
+        } finally {
+            root.release();
+        }
+    }
+
+    /**
+     * 树中键的最大长度，更长的键只存前这么多字节
+     */
+    public int maxKeySize() {
+        return maxKeySize;
     }
 
     public static BPlusTree load(long bootUid, DataManager dm) throws Exception {
@@ -31,53 +93,94 @@ public class BPlusTree {
         t.dm = dm;
         t.bootDataItem = bootDataItem;
         t.bootLock = new ReentrantLock();
+        t.nodeSize = bootDataItem.data().getInt(BOOT_NODE_SIZE_OFFSET);
+        t.maxKeySize = Node.maxKeySize(t.nodeSize);
+        t.rootUid = bootDataItem.data().getLong(BOOT_ROOT_OFFSET);
         return t;
     }
 
-    private long rootUid() {
-        bootLock.lock();
-        try {
-            SubArray sa = bootDataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start, sa.start + 8));
-        } finally {
-            bootLock.unlock();
+    /**
+     * 节点 left (第 level 层) 分裂出了 right：left 仍是根时换上新根并返回 true
+     * left 不是根说明上面还有一层，返回 false；若别的线程刚分裂了根、新根还没装上，等它装好
+     */
+    private boolean updateRootUid(long left, long right, byte[] rightKey, int level) throws Exception {
+        while (true) {
+            bootLock.lock();
+            try {
+                if (rootUid == left) {
+                    byte[] rootRaw = Node.newRootRaw(nodeSize, level + 1, left, right, rightKey);
+                    long newRootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rootRaw);
+                    bootDataItem.before();
+                    SubArray diRaw = bootDataItem.data();
+                    diRaw.putLong(BOOT_ROOT_OFFSET, newRootUid);
+                    bootDataItem.after(TransactionManagerImpl.SUPER_XID);
+                    rootUid = newRootUid;
+                    return true;
+                }
+                if (levelOf(rootUid) > level) {
+                    return false;
+                }
+            } finally {
+                bootLock.unlock();
+            }
+            Thread.yield();
         }
     }
 
-    private void updateRootUid(long left, long right, long rightKey) throws Exception {
+    /**
+     * 换上批量构建出的新根：旧的空根先指向新树最左边的叶子，拿着旧根的读写者会走进新树
+     * 旧根已经不空 (期间有别的插入) 时返回 false
+     */
+    boolean installRoot(long newRootUid, long leftmostLeaf) throws Exception {
         bootLock.lock();
         try {
-            byte[] rootRaw = Node.newRootRaw(left, right, rightKey);
-            long newRootUid = dm.insert(TransactionManagerImpl.SUPER_XID, rootRaw);
+            Node root = Node.loadNode(this, rootUid);
+            try {
+                if (!root.linkIfEmpty(leftmostLeaf)) {
+                    return false;
+                }
+            } finally {
+                root.release();
+            }
             bootDataItem.before();
-            SubArray diRaw = bootDataItem.data();
-            System.arraycopy(Parser.long2Byte(newRootUid), 0, diRaw.raw, diRaw.start, 8);
+            bootDataItem.data().putLong(BOOT_ROOT_OFFSET, newRootUid);
             bootDataItem.after(TransactionManagerImpl.SUPER_XID);
+            rootUid = newRootUid;
+            return true;
         } finally {
             bootLock.unlock();
         }
     }
 
-    private long searchLeaf(long nodeUid, long key) throws Exception {
+    private int levelOf(long nodeUid) throws Exception {
         Node node = Node.loadNode(this, nodeUid);
-        boolean isLeaf = node.isLeaf();
-        node.release();
-        if (isLeaf) {
-            return nodeUid;
-        } else {
-            long next = searchNext(nodeUid, key);
-            return searchLeaf(next, key);
+        try {
+            return node.getLevel();
+        } finally {
+            node.release();
         }
     }
 
-    private long searchNext(long nodeUid, long key) throws Exception {
+    /**
+     * 从 nodeUid 向下 (必要时向右) 走到第 level 层中可能包含 key 的节点
+     * path 不为空时记下每层最后到达的节点，插入时从这里开始找分裂后的父节点
+     */
+    private long searchLevel(long nodeUid, byte[] key, int level, long[] path) throws Exception {
         while (true) {
             Node node = Node.loadNode(this, nodeUid);
-            SearchNextRes res = node.searchNext(key);
-            node.release();
-            if (res.uid != 0)
-                return res.uid;
-            nodeUid = res.siblingUid;
+            try {
+                int l = node.getLevel();
+                if (path != null && l < path.length) {
+                    path[l] = nodeUid;
+                }
+                if (l == level) {
+                    return nodeUid;
+                }
+                SearchNextRes res = node.searchNext(key);
+                nodeUid = res.uid != 0 ? res.uid : res.siblingUid;
+            } finally {
+                node.release();
+            }
         }
     }
 
@@ -86,60 +189,109 @@ public class BPlusTree {
     }
 
     public List<Long> searchRange(long leftKey, long rightKey) throws Exception {
-        long rootUid = rootUid();
-        long leafUid = searchLeaf(rootUid, leftKey);
+        return searchRange(Keys.encodeLong(leftKey), Keys.encodeLong(rightKey));
+    }
+
+    public List<Long> searchRange(byte[] leftKey, byte[] rightKey) throws Exception {
+        RangeCursor cursor = cursor(leftKey, rightKey);
         List<Long> uids = new ArrayList<>();
-        while (true) {
-            Node leaf = Node.loadNode(this, leafUid);
-            LeafSearchRangeRes res = leaf.leafSearchRange(leftKey, rightKey);
-            leaf.release();
-            uids.addAll(res.uids);
-            if (res.siblingUid == 0) {
-                break;
-            } else {
-                leafUid = res.siblingUid;
-            }
+        while (cursor.hasNext()) {
+            uids.add(cursor.next());
         }
         return uids;
     }
 
+    public RangeCursor cursor(long leftKey, long rightKey) throws Exception {
+        return cursor(Keys.encodeLong(leftKey), Keys.encodeLong(rightKey));
+    }
+
+    /**
+     * 按键序逐个返回 [leftKey, rightKey] 内 uid 的游标，叶子在遍历到时才读
+     */
+    public RangeCursor cursor(byte[] leftKey, byte[] rightKey) throws Exception {
+        return cursor(leftKey, rightKey, true);
+    }
+
+    /**
+     * 从 leftKey (含) 到 rightKey 的游标，rightKey 为 null 表示没有上界，rightInclusive 表示是否包含 rightKey
+     */
+    public RangeCursor cursor(byte[] leftKey, byte[] rightKey, boolean rightInclusive) throws Exception {
+        return cursor(leftKey, rightKey, rightInclusive, false);
+    }
+
+    /**
+     * 同上，withKeys 为 true 时游标还能取出每项的键 (RangeCursor.key)
+     */
+    public RangeCursor cursor(byte[] leftKey, byte[] rightKey, boolean rightInclusive, boolean withKeys)
+            throws Exception {
+        long leafUid = searchLevel(rootUid, leftKey, 0, null);
+        return new RangeCursor(this, leftKey, rightKey, rightInclusive, leafUid, withKeys);
+    }
+
     public void insert(long key, long uid) throws Exception {
-        long rootUid = rootUid();
-        InsertRes res = insert(rootUid, uid, key);
-        assert res != null;
-        if (res.newNode != 0) {
-            updateRootUid(rootUid, res.newNode, res.newKey);
+        insert(Keys.encodeLong(key), uid);
+    }
+
+    public void insert(byte[] key, long uid) throws Exception {
+        key = Keys.truncate(key, maxKeySize);
+        long[] path = new long[PATH_LENGTH];
+        long leafUid = searchLevel(rootUid, key, 0, path);
+        InsertRes res = insertAndSplit(leafUid, uid, key, 0);
+        int level = 0;
+        while (res.newNode != 0) {
+            // res.node 分裂出了 res.newNode，把分隔键插入上一层
+            if (updateRootUid(res.node, res.newNode, res.newKey, level)) {
+                return;
+            }
+            long parentUid = level + 1 < path.length ? path[level + 1] : 0;
+            if (parentUid == 0) {
+                // 下降时这一层还不存在 (根在此期间分裂过)，或树太高没有记下
+                parentUid = searchLevel(rootUid, res.newKey, level + 1, null);
+            }
+            res = insertAndSplit(parentUid, res.newNode, res.newKey, res.node);
+            level++;
         }
     }
 
-    private InsertRes insert(long nodeUid, long uid, long key) throws Exception {
-        Node node = Node.loadNode(this, nodeUid);
-        boolean isLeaf = node.isLeaf();
-        node.release();
-        InsertRes res = null;
-        if (isLeaf) {
-            res = insertAndSplit(nodeUid, uid, key);
-        } else {
-            long next = searchNext(nodeUid, key);
-            InsertRes ir = insert(next, uid, key);
-            if (ir.newNode != 0) {
-                res = insertAndSplit(nodeUid, ir.newNode, ir.newKey);
-            } else {
-                res = new InsertRes();
+    public boolean delete(long key, long uid) throws Exception {
+        return delete(Keys.encodeLong(key), uid);
+    }
+
+    /**
+     * 删除 (key, uid)，不存在时返回 false
+     */
+    public boolean delete(byte[] key, long uid) throws Exception {
+        key = Keys.truncate(key, maxKeySize);
+        long leafUid = searchLevel(rootUid, key, 0, null);
+        while (leafUid != 0) {
+            Node leaf = Node.loadNode(this, leafUid);
+            LeafDeleteRes res;
+            try {
+                res = leaf.leafDelete(key, uid);
+            } finally {
+                leaf.release();
+            }
+            if (res.deleted) {
+                return true;
             }
+            leafUid = res.siblingUid;
         }
-        return res;
+        return false;
     }
 
-    private InsertRes insertAndSplit(long nodeUid, long uid, long key) throws Exception {
+    /**
+     * 从 nodeUid 开始向右找到 key 所属的节点并插入
+     */
+    private InsertRes insertAndSplit(long nodeUid, long uid, byte[] key, long childUid) throws Exception {
         while (true) {
             Node node = Node.loadNode(this, nodeUid);
-            InsertAndSplitRes iasr = node.insertAndSplit(uid, key);
+            InsertAndSplitRes iasr = node.insertAndSplit(uid, key, childUid);
             node.release();
             if (iasr.siblingUid != 0) {
                 nodeUid = iasr.siblingUid;
             } else {
                 InsertRes res = new InsertRes();
+                res.node = nodeUid;
                 res.newNode = iasr.newSon;
                 res.newKey = iasr.newKey;
                 return res;
@@ -153,6 +305,7 @@ public class BPlusTree {
 }
 
 class InsertRes {
+    long node; // 实际插入的节点
     long newNode;
-    long newKey;
+    byte[] newKey;
 }
\ No newline at end of file
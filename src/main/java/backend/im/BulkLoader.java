@@ -0,0 +1,214 @@
+package backend.im;
+
+import backend.common.SubArray;
+import backend.dm.dataItem.DataItem;
+import backend.tm.TransactionManagerImpl;
+import backend.utils.Error;
+import backend.utils.Parser;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * B+ 树的批量构建：按键有序输入 (key, uid)，自底向上逐层写出填满的节点
+ *
+ * 每个节点只写一条插入日志，不像逐条插入那样每次修改都记下节点修改前后的镜像。
+ * 同一层的节点攒够 BATCH 个后从右往左写入，写每个节点时已知它右兄弟的 uid，
+ * 只有每批最右边的节点要在下一批写入后补一次右兄弟指针。
+ *
+ * 构建完成后挂到原来的空树上：旧的空根指向新树最左边的叶子，再换根，
+ * 并发的读写者即使拿着旧根，也会沿右兄弟指针走进新树
+ */
+public class BulkLoader {
+    // 每层攒够这么多节点写一批
+    private static final int BATCH = 32;
+
+    private BPlusTree tree;
+    private List<LevelBuilder> levels;
+    private byte[] lastKey;
+    private long leftmostLeaf;
+
+    BulkLoader(BPlusTree tree) {
+        this.tree = tree;
+        this.levels = new ArrayList<>();
+    }
+
+    public void add(long key, long uid) throws Exception {
+        add(Keys.encodeLong(key), uid);
+    }
+
+    /**
+     * 追加一项，键必须不小于上一项的键；过长的键同 BPlusTree.insert 一样截断
+     */
+    public void add(byte[] key, long uid) throws Exception {
+        key = Keys.truncate(key, tree.maxKeySize);
+        if (lastKey != null && Arrays.compareUnsigned(lastKey, key) > 0) {
+            throw Error.KeyOutOfOrderException;
+        }
+        lastKey = key;
+        level(0).add(key, uid);
+    }
+
+    /**
+     * 写出剩余的节点并换根
+     * 树在构建期间被别人插入过数据时放弃新树并返回 false，调用方应改为逐条插入
+     */
+    public boolean finish() throws Exception {
+        if (levels.isEmpty()) {
+            return true;
+        }
+        long rootUid;
+        for (int l = 0;; l++) {
+            LevelBuilder b = levels.get(l);
+            if (b.isSingleNode()) {
+                rootUid = b.writeRoot();
+                break;
+            }
+            b.finish();
+        }
+        return tree.installRoot(rootUid, leftmostLeaf);
+    }
+
+    private LevelBuilder level(int level) {
+        while (levels.size() <= level) {
+            levels.add(new LevelBuilder(levels.size()));
+        }
+        return levels.get(level);
+    }
+
+    /**
+     * 一层节点的构建状态
+     */
+    private class LevelBuilder {
+        final int level;
+
+        // 正在填充的节点
+        byte[][] keys = new byte[64][];
+        long[] sons = new long[64];
+        int count;
+        int finite; // 其中有限键的个数
+        long keyBytes;
+        int prefixLen;
+
+        // 已填满、等待写入的节点，及它们在上一层中的键
+        List<byte[]> pending = new ArrayList<>();
+        List<byte[]> pendingKeys = new ArrayList<>();
+        long tailUid; // 上一批最右边的节点，等待补右兄弟指针
+        int written;
+
+        LevelBuilder(int level) {
+            this.level = level;
+        }
+
+        void add(byte[] key, long son) throws Exception {
+            boolean inf = key == Node.INF_KEY;
+            if (count > 0) {
+                int p = prefixLen;
+                if (!inf) {
+                    p = finite == 0 ? key.length : commonPrefix(keys[0], key);
+                }
+                // 封好时最后一个键就是节点的上界
+                long size = Node.encodedSize(count + 1, finite + (inf ? 0 : 1),
+                        keyBytes + (inf ? 0 : key.length), p, inf ? 0 : key.length);
+                if (size > tree.nodeSize) {
+                    seal(keys[count - 1]);
+                } else {
+                    prefixLen = p;
+                }
+            }
+            if (count == 0) {
+                prefixLen = inf ? 0 : key.length;
+            }
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count << 1);
+                sons = Arrays.copyOf(sons, count << 1);
+            }
+            keys[count] = key;
+            sons[count] = son;
+            count++;
+            if (!inf) {
+                finite++;
+                keyBytes += key.length;
+            }
+        }
+
+        private int commonPrefix(byte[] a, byte[] b) {
+            int m = Arrays.mismatch(a, b);
+            return m < 0 ? a.length : Math.min(m, prefixLen);
+        }
+
+        // 封好正在填充的节点，它在上一层中的键为 upperKey，也是它的上界 (+∞ 即没有上界)
+        private void seal(byte[] upperKey) throws Exception {
+            byte[] raw = new byte[tree.nodeSize];
+            byte[] highKey = upperKey == Node.INF_KEY ? null : upperKey;
+            boolean ok = Node.encode(new SubArray(raw, 0, raw.length), level, 0, highKey, keys, sons, 0, count);
+            assert ok;
+            pending.add(raw);
+            pendingKeys.add(upperKey);
+            Arrays.fill(keys, 0, count, null);
+            count = 0;
+            finite = 0;
+            keyBytes = 0;
+            if (pending.size() == BATCH) {
+                flush();
+            }
+        }
+
+        // 从右往左写出等待的节点，再把它们的键交给上一层
+        private void flush() throws Exception {
+            int n = pending.size();
+            if (n == 0) {
+                return;
+            }
+            long[] uids = new long[n];
+            long next = 0;
+            for (int i = n - 1; i >= 0; i--) {
+                byte[] raw = pending.get(i);
+                Parser.putLong(raw, Node.SIBLING_OFFSET, next);
+                next = tree.dm.insert(TransactionManagerImpl.SUPER_XID, raw);
+                uids[i] = next;
+            }
+            if (tailUid != 0) {
+                setSibling(tailUid, uids[0]);
+            } else if (level == 0) {
+                leftmostLeaf = uids[0];
+            }
+            tailUid = uids[n - 1];
+            written += n;
+            for (int i = 0; i < n; i++) {
+                level(level + 1).add(pendingKeys.get(i), uids[i]);
+            }
+            pending.clear();
+            pendingKeys.clear();
+        }
+
+        private void setSibling(long uid, long sibling) throws Exception {
+            DataItem di = tree.dm.read(uid);
+            di.before();
+            di.data().putLong(Node.SIBLING_OFFSET, sibling);
+            di.after(TransactionManagerImpl.SUPER_XID);
+            di.release();
+        }
+
+        // 本层只有正在填充的这一个节点
+        boolean isSingleNode() {
+            return written == 0 && pending.isEmpty();
+        }
+
+        // 写出本层所有节点，最右边的节点在上一层中的键为 +∞
+        void finish() throws Exception {
+            seal(Node.INF_KEY);
+            flush();
+        }
+
+        long writeRoot() throws Exception {
+            byte[] raw = new byte[tree.nodeSize];
+            Node.encode(new SubArray(raw, 0, raw.length), level, 0, null, keys, sons, 0, count);
+            long uid = tree.dm.insert(TransactionManagerImpl.SUPER_XID, raw);
+            if (level == 0) {
+                leftmostLeaf = uid;
+            }
+            return uid;
+        }
+    }
+}
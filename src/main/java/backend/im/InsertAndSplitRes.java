@@ -3,5 +3,5 @@ package backend.im;
 public class InsertAndSplitRes {
     long siblingUid;
     long newSon;
-    long newKey;
+    byte[] newKey;
 }
\ No newline at end of file
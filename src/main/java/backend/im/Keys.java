@@ -0,0 +1,123 @@
+package backend.im;
+
+import backend.utils.Parser;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 索引键的编码
+ * B+ 树中的键是按无符号字节序比较的字节串，各类型的值编码成保持原有顺序的字节串后再交给树
+ */
+public class Keys {
+    /**
+     * long 编码为 8 字节大端序，并翻转符号位，使负数排在正数之前
+     */
+    public static byte[] encodeLong(long v) {
+        byte[] key = new byte[8];
+        Parser.putLong(key, 0, v ^ Long.MIN_VALUE);
+        return key;
+    }
+
+    public static long decodeLong(byte[] key) {
+        return decodeLong(key, 0);
+    }
+
+    public static long decodeLong(byte[] key, int off) {
+        return Parser.getLong(key, off) ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * 字符串编码为 UTF-8 字节串，按无符号字节比较与按码点比较的顺序相同
+     */
+    public static byte[] encodeString(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String decodeString(byte[] key) {
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 组合键中的一段字符串：0 字节转义为 0x00 0xFF，末尾加 0x00 0x00 结束
+     * 结束符小于任何转义后的字节，较短的串排在以它开头的较长的串之前，各段拼接后仍按列逐个比较
+     * terminated 为 false 时不加结束符，得到的是所有以 s 开头的串的公共前缀 (用于前缀匹配)
+     */
+    public static byte[] encodeStringSegment(String s, boolean terminated) {
+        byte[] raw = encodeString(s);
+        int zeros = 0;
+        for (byte b : raw) {
+            if (b == 0) {
+                zeros++;
+            }
+        }
+        byte[] seg = new byte[raw.length + zeros + (terminated ? 2 : 0)];
+        int j = 0;
+        for (byte b : raw) {
+            seg[j++] = b;
+            if (b == 0) {
+                seg[j++] = (byte) 0xFF;
+            }
+        }
+        return seg; // 结束符的两个 0 字节即数组末尾的默认值
+    }
+
+    /**
+     * 从 key 的 off 处解码一段带结束符的字符串 (encodeStringSegment(s, true))
+     */
+    public static String decodeStringSegment(byte[] key, int off) {
+        int end = stringSegmentEnd(key, off) - 2;
+        byte[] raw = new byte[end - off];
+        int n = 0;
+        for (int i = off; i < end; i++) {
+            raw[n++] = key[i];
+            if (key[i] == 0) {
+                i++; // 跳过转义的 0xFF
+            }
+        }
+        return new String(raw, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 从 off 处开始的一段字符串之后的位置 (结束符之后)
+     */
+    public static int stringSegmentEnd(byte[] key, int off) {
+        int i = off;
+        while (key[i] != 0 || key[i + 1] != 0) {
+            i += key[i] == 0 ? 2 : 1;
+        }
+        return i + 2;
+    }
+
+    /**
+     * 索引中实际存放的键：超过 max 字节的只保留前 max 字节
+     * 截断不改变键的先后 (a <= b 时 truncate(a) <= truncate(b))，但不同的长键可能截断成同一个键，
+     * 长度达到 max 的键不能再当作完整的值使用
+     */
+    public static byte[] truncate(byte[] key, int max) {
+        return key.length <= max ? key : Arrays.copyOf(key, max);
+    }
+
+    /**
+     * 大于 key 的最小的键：key 后接一个 0 字节
+     */
+    public static byte[] successor(byte[] key) {
+        return Arrays.copyOf(key, key.length + 1);
+    }
+
+    /**
+     * 以 prefix 开头的键都小于返回的键，且不以 prefix 开头的更大的键都不小于它：
+     * 去掉末尾的 0xFF 后把最后一个字节加一。prefix 为空或全是 0xFF 时没有这样的键，返回 null
+     */
+    public static byte[] prefixUpperBound(byte[] prefix) {
+        int n = prefix.length;
+        while (n > 0 && prefix[n - 1] == (byte) 0xFF) {
+            n--;
+        }
+        if (n == 0) {
+            return null;
+        }
+        byte[] bound = Arrays.copyOf(prefix, n);
+        bound[n - 1]++;
+        return bound;
+    }
+}
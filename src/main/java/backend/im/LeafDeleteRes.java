@@ -0,0 +1,6 @@
+package backend.im;
+
+public class LeafDeleteRes {
+    boolean deleted;
+    long siblingUid; // 没删到且应到右兄弟中继续找时不为 0
+}
@@ -1,8 +1,8 @@
 package backend.im;
 
-import java.util.List;
-
 public class LeafSearchRangeRes {
-    List<Long> uids;
+    long[] uids; // 前 count 个有效
+    byte[][] keys; // 要求带键时与 uids 一一对应，否则为 null
+    int count;
     long siblingUid;
-}
\ No newline at end of file
+}
@@ -2,96 +2,295 @@ package backend.im;
 
 import backend.common.SubArray;
 import backend.dm.dataItem.DataItem;
+import backend.dm.page.PageX;
 import backend.tm.TransactionManagerImpl;
-import backend.utils.Parser;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 /**
- * B+ 树节点
- * 结构: [LeafFlag][KeyNumber][SiblingUid][Son0][Key0]...[SonN][KeyN]
+ * B+ 树节点，定长，存放在一个 DataItem 中
+ * 结构: [Level][KeyNumber][SiblingUid][PrefixLen][HeapStart][HighKeyLen][Prefix][Slot0]...[SlotN] [空闲] [Entry]... [HighKey]
+ * Slot 为 2 字节，是第 k 项 Entry 在节点内的偏移，按键有序；Entry 从 HighKey 之前向前分配
+ * Entry: [SuffixLen][Son][Suffix]，完整的键 = 节点内所有键的公共前缀 Prefix + Suffix
+ * SuffixLen 为 0xFFFF 表示 +∞，只作为最右侧内部节点的最后一项
+ * HighKey 是节点的上界 (含)，完整存放在节点末尾，分裂时确定，之后不随删除变化；
+ * HighKeyLen 为 0xFFFF 表示没有上界：最右侧的节点，或批量构建后接到新树上的旧空根 (它不再接收任何键)
+ *
+ * 键按无符号字节序比较；内部节点第 k 项的键是第 k 个儿子中所有键的上界 (含)，叶子节点的 Son 为数据的 uid
+ * 节点大小由所在的树决定 (即 DataItem 的长度)，最大时一个节点独占一页
+ * 查找直接在原始字节上二分，不解码键；插入在公共前缀不变且空间足够时原地进行，否则重建或分裂节点
+ * Level 为节点所在的层，叶子为 0，节点的层创建后不再改变
+ *
+ * 并发 (B-link)：每个节点都有指向右兄弟的指针，分裂时先写好新的右节点，再在本节点的写锁内
+ * 缩小本节点并指向它，所以读者在任何时刻看到的都是一棵正确的树，键超出本节点时向右走即可。
+ * 读者不加锁，用 DataItem 的版本号做乐观读，读到修改中的节点就重读；写者每次只锁一个节点
  */
 public class Node {
-    static final int IS_LEAF_OFFSET = 0;
-    static final int NO_KEYS_OFFSET = IS_LEAF_OFFSET + 1;
+    static final int LEVEL_OFFSET = 0;
+    static final int NO_KEYS_OFFSET = LEVEL_OFFSET + 1;
     static final int SIBLING_OFFSET = NO_KEYS_OFFSET + 2;
-    static final int NODE_HEADER_SIZE = SIBLING_OFFSET + 8;
-    static final int BALANCE_NUMBER = 32;
-    static final int NODE_SIZE = NODE_HEADER_SIZE + (2 * 8) * (BALANCE_NUMBER * 2 + 2);
+    static final int PREFIX_LEN_OFFSET = SIBLING_OFFSET + 8;
+    static final int HEAP_START_OFFSET = PREFIX_LEN_OFFSET + 2;
+    static final int HIGH_KEY_LEN_OFFSET = HEAP_START_OFFSET + 2;
+    static final int NODE_HEADER_SIZE = HIGH_KEY_LEN_OFFSET + 2;
+    static final int DEFAULT_NODE_SIZE = 1024;
+    static final int MIN_NODE_SIZE = 256;
+    // 整页的节点：页头之外只放这一个 DataItem，DataItem 头为 [ValidFlag 1][DataSize 2]
+    static final int MAX_NODE_SIZE = PageX.MAX_FREE_SPACE - 3;
+
+    private static final int SLOT_SIZE = 2;
+    private static final int ENTRY_SON_OFFSET = 2;
+    private static final int ENTRY_SUFFIX_OFFSET = ENTRY_SON_OFFSET + 8;
+    private static final int INF_LEN = 0xFFFF;
+    private static final int NO_HIGH_KEY = 0xFFFF;
+    private static final int LONG_ENTRY_SIZE = SLOT_SIZE + ENTRY_SUFFIX_OFFSET + 8;
+    // 乐观读连续冲突这么多次后改为加读锁
+    private static final int OPTIMISTIC_RETRIES = 8;
+
+    // +∞ 键，按引用区分
+    static final byte[] INF_KEY = new byte[0];
+
     BPlusTree tree;
     DataItem dataItem;
     SubArray raw;
     long uid;
 
+    /**
+     * 按 8 字节键不压缩时每个节点能放 fanout 个键计算节点大小；有公共前缀时实际的扇出更大
+     */
+    static int nodeSize(int fanout) {
+        long size = NODE_HEADER_SIZE + (long) fanout * LONG_ENTRY_SIZE;
+        return (int) Math.max(MIN_NODE_SIZE, Math.min(MAX_NODE_SIZE, size));
+    }
+
+    /**
+     * 键的最大长度，保证节点至少能放下 4 个最长的键和同样长的上界，分裂后两半都放得下
+     */
+    static int maxKeySize(int nodeSize) {
+        return Math.min(255, (nodeSize - NODE_HEADER_SIZE - 4 * (SLOT_SIZE + ENTRY_SUFFIX_OFFSET)) / 5);
+    }
+
     // ================= 静态方法：设置/获取节点数据 =================
-    static void setRawIsLeaf(SubArray raw, boolean isLeaf) {
-        raw.raw[raw.start + IS_LEAF_OFFSET] = isLeaf ? (byte) 1 : (byte) 0;
+    private static int getRawSize(SubArray raw) {
+        return raw.end - raw.start;
     }
 
-    static boolean getRawIsLeaf(SubArray raw) {
-        return raw.raw[raw.start + IS_LEAF_OFFSET] == (byte) 1;
+    static int getRawLevel(SubArray raw) {
+        return raw.raw[raw.start + LEVEL_OFFSET] & 0xFF;
     }
 
-    static void setRawNoKeys(SubArray raw, int noKeys) {
-        System.arraycopy(Parser.short2Byte((short) noKeys), 0, raw.raw, raw.start + NO_KEYS_OFFSET, 2);
+    static boolean getRawIsLeaf(SubArray raw) {
+        return getRawLevel(raw) == 0;
     }
 
     static int getRawNoKeys(SubArray raw) {
-        return Parser
-                .parseShort(Arrays.copyOfRange(raw.raw, raw.start + NO_KEYS_OFFSET, raw.start + NO_KEYS_OFFSET + 2));
+        return raw.getShort(NO_KEYS_OFFSET) & 0xFFFF;
     }
 
-    static void setRawSibling(SubArray raw, long sibling) {
-        System.arraycopy(Parser.long2Byte(sibling), 0, raw.raw, raw.start + SIBLING_OFFSET, 8);
+    static long getRawSibling(SubArray raw) {
+        return raw.getLong(SIBLING_OFFSET);
     }
 
-    static long getRawSibling(SubArray raw) {
-        return Parser
-                .parseLong(Arrays.copyOfRange(raw.raw, raw.start + SIBLING_OFFSET, raw.start + SIBLING_OFFSET + 8));
+    private static int getRawPrefixLen(SubArray raw) {
+        return raw.getShort(PREFIX_LEN_OFFSET) & 0xFFFF;
+    }
+
+    private static int getRawHeapStart(SubArray raw) {
+        return raw.getShort(HEAP_START_OFFSET) & 0xFFFF;
+    }
+
+    // 节点的上界，没有时返回 null
+    static byte[] getRawHighKey(SubArray raw) {
+        int len = raw.getShort(HIGH_KEY_LEN_OFFSET) & 0xFFFF;
+        if (len == NO_HIGH_KEY) {
+            return null;
+        }
+        return Arrays.copyOfRange(raw.raw, raw.end - len, raw.end);
+    }
+
+    /**
+     * key 是否超出了本节点的范围，kth 为 key 在本节点中的 lowerBound
+     * 没有上界的节点以当前最大的键为界 (最右侧的节点不会走到这里)
+     */
+    private static boolean beyondHighKey(SubArray raw, byte[] key, int kth) {
+        int len = raw.getShort(HIGH_KEY_LEN_OFFSET) & 0xFFFF;
+        if (len == NO_HIGH_KEY) {
+            return kth == getRawNoKeys(raw);
+        }
+        return Arrays.compareUnsigned(key, 0, key.length, raw.raw, raw.end - len, raw.end) > 0;
     }
 
-    static void setRawKthSon(SubArray raw, long uid, int kth) {
-        int offset = raw.start + NODE_HEADER_SIZE + kth * (8 * 2);
-        System.arraycopy(Parser.long2Byte(uid), 0, raw.raw, offset, 8);
+    private static int slotOffset(int prefixLen, int kth) {
+        return NODE_HEADER_SIZE + prefixLen + kth * SLOT_SIZE;
+    }
+
+    // 第 kth 项 Entry 在节点内的偏移
+    private static int entryOffset(SubArray raw, int prefixLen, int kth) {
+        return raw.getShort(slotOffset(prefixLen, kth)) & 0xFFFF;
     }
 
     static long getRawKthSon(SubArray raw, int kth) {
-        int offset = raw.start + NODE_HEADER_SIZE + kth * (8 * 2);
-        return Parser.parseLong(Arrays.copyOfRange(raw.raw, offset, offset + 8));
+        return raw.getLong(entryOffset(raw, getRawPrefixLen(raw), kth) + ENTRY_SON_OFFSET);
     }
 
-    static void setRawKthKey(SubArray raw, long key, int kth) {
-        int offset = raw.start + NODE_HEADER_SIZE + kth * (8 * 2) + 8;
-        System.arraycopy(Parser.long2Byte(key), 0, raw.raw, offset, 8);
+    static void setRawKthSon(SubArray raw, long son, int kth) {
+        raw.putLong(entryOffset(raw, getRawPrefixLen(raw), kth) + ENTRY_SON_OFFSET, son);
     }
 
-    static long getRawKthKey(SubArray raw, int kth) {
-        int offset = raw.start + NODE_HEADER_SIZE + kth * (8 * 2) + 8;
-        return Parser.parseLong(Arrays.copyOfRange(raw.raw, offset, offset + 8));
+    // 解码出第 kth 项的完整键
+    static byte[] getRawKthKey(SubArray raw, int kth) {
+        int p = getRawPrefixLen(raw);
+        int e = entryOffset(raw, p, kth);
+        int len = raw.getShort(e) & 0xFFFF;
+        if (len == INF_LEN) {
+            return INF_KEY;
+        }
+        byte[] key = new byte[p + len];
+        System.arraycopy(raw.raw, raw.start + NODE_HEADER_SIZE, key, 0, p);
+        System.arraycopy(raw.raw, raw.start + e + ENTRY_SUFFIX_OFFSET, key, p, len);
+        return key;
+    }
+
+    // ================= 比较 =================
+    /**
+     * key 与节点公共前缀比较：小于 (或是前缀的真前缀) 返回负数，不以前缀开头且更大返回正数，以前缀开头返回 0
+     */
+    private static int comparePrefix(SubArray raw, int prefixLen, byte[] key) {
+        int s = raw.start + NODE_HEADER_SIZE;
+        int n = Math.min(prefixLen, key.length);
+        int c = Arrays.compareUnsigned(key, 0, n, raw.raw, s, s + n);
+        if (c != 0) {
+            return c;
+        }
+        return key.length < prefixLen ? -1 : 0;
+    }
+
+    /**
+     * key 与第 kth 项的键比较，prefixCmp 为 comparePrefix 的结果
+     * 不以公共前缀开头的 key 与节点内所有有限键的大小关系都相同，不必再看后缀
+     */
+    private static int compareKth(SubArray raw, int prefixLen, int kth, byte[] key, int prefixCmp) {
+        int e = raw.start + entryOffset(raw, prefixLen, kth);
+        int len = ((raw.raw[e] & 0xFF) << 8) | (raw.raw[e + 1] & 0xFF);
+        if (len == INF_LEN) {
+            return -1;
+        }
+        if (prefixCmp != 0) {
+            return prefixCmp;
+        }
+        int s = e + ENTRY_SUFFIX_OFFSET;
+        return Arrays.compareUnsigned(key, prefixLen, key.length, raw.raw, s, s + len);
+    }
+
+    // 第一个 >= key 的键的位置
+    private static int lowerBound(SubArray raw, byte[] key) {
+        int p = getRawPrefixLen(raw);
+        int pc = comparePrefix(raw, p, key);
+        int lo = 0, hi = getRawNoKeys(raw);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKth(raw, p, mid, key, pc) > 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
     }
 
     // ================= 创建节点数据 =================
-    static byte[] newRootRaw(long left, long right, long key) {
-        SubArray raw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
-        setRawIsLeaf(raw, false);
-        setRawNoKeys(raw, 2);
-        setRawSibling(raw, 0);
-        setRawKthSon(raw, left, 0);
-        setRawKthKey(raw, key, 0);
-        setRawKthSon(raw, right, 1);
-        setRawKthKey(raw, Long.MAX_VALUE, 1);
+    static byte[] newRootRaw(int nodeSize, int level, long left, long right, byte[] key) {
+        SubArray raw = new SubArray(new byte[nodeSize], 0, nodeSize);
+        encode(raw, level, 0, null, new byte[][] { key, INF_KEY }, new long[] { left, right }, 0, 2);
         return raw.raw;
     }
 
-    static byte[] newNilRootRaw() {
-        SubArray raw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
-        setRawIsLeaf(raw, true);
-        setRawNoKeys(raw, 0);
-        setRawSibling(raw, 0);
+    static byte[] newNilRootRaw(int nodeSize) {
+        SubArray raw = new SubArray(new byte[nodeSize], 0, nodeSize);
+        encode(raw, 0, 0, null, new byte[0][], new long[0], 0, 0);
         return raw.raw;
     }
 
+    /**
+     * 把 keys/sons 中 [from, to) 的项写成一个完整的节点，上界为 highKey (null 表示没有)
+     * 放不下时返回 false 且不修改 raw
+     */
+    static boolean encode(SubArray raw, int level, long sibling, byte[] highKey, byte[][] keys, long[] sons,
+            int from, int to) {
+        int nodeSize = getRawSize(raw);
+        if (encodedSize(keys, from, to, highKey) > nodeSize) {
+            return false;
+        }
+        int p = commonPrefix(keys, from, to);
+        Arrays.fill(raw.raw, raw.start, raw.end, (byte) 0);
+        raw.raw[raw.start + LEVEL_OFFSET] = (byte) level;
+        raw.putShort(NO_KEYS_OFFSET, (short) (to - from));
+        raw.putLong(SIBLING_OFFSET, sibling);
+        raw.putShort(PREFIX_LEN_OFFSET, (short) p);
+        if (p > 0) {
+            System.arraycopy(keys[from], 0, raw.raw, raw.start + NODE_HEADER_SIZE, p);
+        }
+        int heap = nodeSize;
+        if (highKey == null) {
+            raw.putShort(HIGH_KEY_LEN_OFFSET, (short) NO_HIGH_KEY);
+        } else {
+            heap -= highKey.length;
+            System.arraycopy(highKey, 0, raw.raw, raw.start + heap, highKey.length);
+            raw.putShort(HIGH_KEY_LEN_OFFSET, (short) highKey.length);
+        }
+        for (int i = from; i < to; i++) {
+            heap = writeEntry(raw, heap, keys[i], p, sons[i]);
+            raw.putShort(slotOffset(p, i - from), (short) heap);
+        }
+        raw.putShort(HEAP_START_OFFSET, (short) heap);
+        return true;
+    }
+
+    // 在 heap 之前写一个 Entry，返回它的偏移
+    private static int writeEntry(SubArray raw, int heap, byte[] key, int prefixLen, long son) {
+        if (key == INF_KEY) {
+            heap -= ENTRY_SUFFIX_OFFSET;
+            raw.putShort(heap, (short) INF_LEN);
+            raw.putLong(heap + ENTRY_SON_OFFSET, son);
+            return heap;
+        }
+        int len = key.length - prefixLen;
+        heap -= ENTRY_SUFFIX_OFFSET + len;
+        raw.putShort(heap, (short) len);
+        raw.putLong(heap + ENTRY_SON_OFFSET, son);
+        System.arraycopy(key, prefixLen, raw.raw, raw.start + heap + ENTRY_SUFFIX_OFFSET, len);
+        return heap;
+    }
+
+    // count 项 (其中 finite 项是有限键，总长 keyBytes)、公共前缀为 prefixLen、上界长 highKeyLen 的节点编码后的字节数
+    static long encodedSize(int count, int finite, long keyBytes, int prefixLen, int highKeyLen) {
+        return NODE_HEADER_SIZE + prefixLen + (long) count * (SLOT_SIZE + ENTRY_SUFFIX_OFFSET) + keyBytes
+                - (long) finite * prefixLen + highKeyLen;
+    }
+
+    // [from, to) 以 highKey 为上界编码成节点后的字节数
+    private static int encodedSize(byte[][] keys, int from, int to, byte[] highKey) {
+        int p = commonPrefix(keys, from, to);
+        int size = NODE_HEADER_SIZE + p + (highKey == null ? 0 : highKey.length);
+        for (int i = from; i < to; i++) {
+            size += SLOT_SIZE + ENTRY_SUFFIX_OFFSET + (keys[i] == INF_KEY ? 0 : keys[i].length - p);
+        }
+        return size;
+    }
+
+    // [from, to) 中所有有限键的公共前缀长度；键有序，所以就是首尾两个有限键的公共前缀
+    private static int commonPrefix(byte[][] keys, int from, int to) {
+        int last = to - 1;
+        if (last >= from && keys[last] == INF_KEY) {
+            last--;
+        }
+        if (last < from) {
+            return 0;
+        }
+        byte[] a = keys[from], b = keys[last];
+        int m = Arrays.mismatch(a, b);
+        return m < 0 ? a.length : m;
+    }
+
     // ================= 加载节点 =================
     static Node loadNode(BPlusTree bTree, long uid) throws Exception {
         DataItem di = bTree.dm.read(uid);
@@ -108,96 +307,157 @@ public class Node {
         dataItem.release();
     }
 
+    // 节点的层创建后不变，不需要加锁
+    public int getLevel() {
+        return getRawLevel(raw);
+    }
+
     public boolean isLeaf() {
+        return getLevel() == 0;
+    }
+
+    private interface RawReader<T> {
+        T read(SubArray raw);
+    }
+
+    /**
+     * 乐观读：不加锁读取节点，读完校验版本号，期间节点被修改就重读
+     * 修改中的节点可能读出越界的偏移，这类异常同样视为冲突；多次冲突后才加读锁
+     */
+    private <T> T read(RawReader<T> reader) {
+        for (int i = 0; i < OPTIMISTIC_RETRIES; i++) {
+            long stamp = dataItem.tryOptimisticRead();
+            if (stamp == 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            try {
+                T res = reader.read(raw);
+                if (dataItem.validate(stamp)) {
+                    return res;
+                }
+            } catch (RuntimeException e) {
+                // 读到了修改到一半的节点，重读
+            }
+        }
         dataItem.rLock();
         try {
-            return getRawIsLeaf(raw);
+            return reader.read(raw);
         } finally {
             dataItem.rUnlock();
         }
     }
 
     // ================= 搜索方法 =================
-    public SearchNextRes searchNext(long key) {
-        dataItem.rLock();
-        try {
+    /**
+     * 找到可能包含 key 的最左边的儿子；key 大于本节点所有键时返回右兄弟
+     * 取第一个 >= key 的项：重复键可能跨越分裂点，上界等于 key 的儿子里也可能有 key
+     */
+    public SearchNextRes searchNext(byte[] key) {
+        return read(raw -> {
             SearchNextRes res = new SearchNextRes();
-            int noKeys = getRawNoKeys(raw);
-            for (int i = 0; i < noKeys; i++) {
-                long ik = getRawKthKey(raw, i);
-                if (key < ik) {
-                    res.uid = getRawKthSon(raw, i);
-                    res.siblingUid = 0;
-                    return res;
-                }
+            int kth = lowerBound(raw, key);
+            if (kth < getRawNoKeys(raw)) {
+                res.uid = getRawKthSon(raw, kth);
+                res.siblingUid = 0;
+            } else {
+                res.uid = 0;
+                res.siblingUid = getRawSibling(raw);
             }
-            res.uid = 0;
-            res.siblingUid = getRawSibling(raw);
             return res;
-        } finally {
-            dataItem.rUnlock();
-        }
+        });
     }
 
-    public LeafSearchRangeRes leafSearchRange(long leftKey, long rightKey) {
-        dataItem.rLock();
-        try {
+    /**
+     * 取出本叶子中从 leftKey (含) 到 rightKey 的 uid，放进 buf (不够大时换一个更大的)
+     * rightKey 为 null 表示没有上界，rightInclusive 表示是否包含 rightKey
+     * 本叶子的键都在上界之内时一并返回右兄弟，范围可能在那里继续
+     */
+    public LeafSearchRangeRes leafSearchRange(byte[] leftKey, byte[] rightKey, boolean rightInclusive, long[] buf) {
+        return leafSearchRange(leftKey, rightKey, rightInclusive, buf, null);
+    }
+
+    /**
+     * 同上，keyBuf 不为 null 时同时解码出命中项的完整键
+     */
+    public LeafSearchRangeRes leafSearchRange(byte[] leftKey, byte[] rightKey, boolean rightInclusive,
+            long[] buf, byte[][] keyBuf) {
+        return read(raw -> {
             int noKeys = getRawNoKeys(raw);
-            int kth = 0;
+            int p = getRawPrefixLen(raw);
+            int pc = rightKey == null ? 0 : comparePrefix(raw, p, rightKey);
+            int kth = lowerBound(raw, leftKey);
+            long[] uids = buf.length >= noKeys ? buf : new long[noKeys];
+            byte[][] keys = keyBuf == null || keyBuf.length >= noKeys ? keyBuf : new byte[noKeys][];
+            int count = 0;
             while (kth < noKeys) {
-                long ik = getRawKthKey(raw, kth);
-                if (ik >= leftKey) {
-                    break;
+                if (rightKey != null) {
+                    int c = compareKth(raw, p, kth, rightKey, pc);
+                    if (c < 0 || (c == 0 && !rightInclusive)) {
+                        break;
+                    }
                 }
-                kth++;
-            }
-            List<Long> uids = new ArrayList<>();
-            while (kth < noKeys) {
-                long ik = getRawKthKey(raw, kth);
-                if (ik <= rightKey) {
-                    uids.add(getRawKthSon(raw, kth));
-                    kth++;
-                } else {
-                    break;
+                if (keys != null) {
+                    keys[count] = getRawKthKey(raw, kth);
                 }
-            }
-            long siblingUid = 0;
-            if (kth == noKeys) {
-                siblingUid = getRawSibling(raw);
+                uids[count++] = getRawKthSon(raw, kth);
+                kth++;
             }
             LeafSearchRangeRes res = new LeafSearchRangeRes();
             res.uids = uids;
-            res.siblingUid = siblingUid;
+            res.keys = keys;
+            res.count = count;
+            res.siblingUid = kth == noKeys ? getRawSibling(raw) : 0;
             return res;
-        } finally {
-            dataItem.rUnlock();
+        });
+    }
+
+    // 空的叶子节点：树中还没有任何键
+    public boolean isEmpty() {
+        return read(raw -> getRawIsLeaf(raw) && getRawNoKeys(raw) == 0);
+    }
+
+    /**
+     * 若本节点仍是没有右兄弟的空叶子，把右兄弟指向 sibling，返回是否成功
+     * 批量构建完成后用它把旧的空根接到新树最左边的叶子上
+     */
+    public boolean linkIfEmpty(long sibling) {
+        dataItem.before();
+        if (!getRawIsLeaf(raw) || getRawNoKeys(raw) != 0 || getRawSibling(raw) != 0) {
+            dataItem.unBefore();
+            return false;
         }
+        raw.putLong(SIBLING_OFFSET, sibling);
+        dataItem.after(TransactionManagerImpl.SUPER_XID);
+        return true;
     }
 
     // ================= 插入方法 =================
-    public InsertAndSplitRes insertAndSplit(long uid, long key) throws Exception {
+    /**
+     * 叶子节点：插入 (key, uid)
+     * 内部节点：儿子 childUid 分裂出了新儿子 uid，原儿子的上界变为 key，新儿子继承原来的上界
+     */
+    public InsertAndSplitRes insertAndSplit(long uid, byte[] key, long childUid) throws Exception {
         boolean success = false;
         Exception err = null;
         InsertAndSplitRes res = new InsertAndSplitRes();
         dataItem.before();
         try {
-            success = insert(uid, key);
-            if (!success) {
+            int kth = insertPosition(key, childUid);
+            if (kth < 0) {
                 res.siblingUid = getRawSibling(raw);
                 return res;
             }
-            if (needSplit()) {
-                try {
-                    SplitRes r = split();
+            success = true;
+            try {
+                SplitRes r = insert(kth, uid, key);
+                if (r != null) {
                     res.newSon = r.newSon;
                     res.newKey = r.newKey;
-                } catch (Exception e) {
-                    err = e;
-                    throw e;
                 }
-            } else {
-                res.newSon = 0;
-                res.newKey = 0;
+            } catch (Exception e) {
+                err = e;
+                throw e;
             }
             return res;
         } finally {
@@ -209,73 +469,194 @@ public class Node {
         }
     }
 
-    private boolean insert(long uid, long key) {
+    /**
+     * 插入位置，返回 -1 表示 key 超出本节点的范围，应该到右兄弟中插入
+     * 内部节点优先定位到 childUid 所在的项，重复的上界之间不会找错儿子
+     * 叶子按上界判断：删空或删掉了最大键的叶子仍然接收原来范围内的键。
+     * 内部节点只增不减，最后一项的键就是它的上界，超过它的 key 一定属于右兄弟
+     */
+    private int insertPosition(byte[] key, long childUid) {
         int noKeys = getRawNoKeys(raw);
-        int kth = 0;
-        while (kth < noKeys) {
-            long ik = getRawKthKey(raw, kth);
-            if (ik < key) {
-                kth++;
-            } else {
-                break;
+        int kth = lowerBound(raw, key);
+        if (!getRawIsLeaf(raw)) {
+            int p = getRawPrefixLen(raw);
+            int pc = comparePrefix(raw, p, key);
+            int k = kth;
+            while (k < noKeys && getRawKthSon(raw, k) != childUid && compareKth(raw, p, k, key, pc) == 0) {
+                k++;
+            }
+            if (k < noKeys && getRawKthSon(raw, k) == childUid) {
+                kth = k;
+            } else if (k == noKeys) {
+                // 与 key 相等的上界一直延续到节点末尾，儿子在右兄弟中
+                kth = k;
             }
         }
-        if (kth == noKeys && getRawSibling(raw) != 0)
-            return false;
-        if (getRawIsLeaf(raw)) {
-            shiftRawKth(raw, kth);
-            setRawKthKey(raw, key, kth);
-            setRawKthSon(raw, uid, kth);
-            setRawNoKeys(raw, noKeys + 1);
+        if (getRawSibling(raw) != 0) {
+            boolean beyond = getRawIsLeaf(raw) ? beyondHighKey(raw, key, kth) : kth == noKeys;
+            if (beyond) {
+                return -1;
+            }
+        }
+        return kth;
+    }
+
+    // 在 kth 处插入，节点放不下时分裂并返回分裂结果
+    private SplitRes insert(int kth, long uid, byte[] key) throws Exception {
+        int level = getRawLevel(raw);
+        boolean isLeaf = level == 0;
+        if (isLeaf) {
+            if (insertInPlace(kth, key, uid)) {
+                return null;
+            }
         } else {
-            long kk = getRawKthKey(raw, kth);
-            setRawKthKey(raw, key, kth);
-            shiftRawKth(raw, kth + 1);
-            setRawKthKey(raw, kk, kth + 1);
-            setRawKthSon(raw, uid, kth + 1);
-            setRawNoKeys(raw, noKeys + 1);
+            // 原儿子带着新的上界插到 kth，原来的项 (现在的 kth + 1) 换成新儿子
+            long oldSon = getRawKthSon(raw, kth);
+            if (insertInPlace(kth, key, oldSon)) {
+                setRawKthSon(raw, uid, kth + 1);
+                return null;
+            }
         }
+
+        // 公共前缀变了或空间不够：解码所有项，重建节点，还放不下就分裂
+        int noKeys = getRawNoKeys(raw);
+        byte[][] keys = new byte[noKeys + 1][];
+        long[] sons = new long[noKeys + 1];
+        for (int i = 0, j = 0; i < noKeys; i++, j++) {
+            if (i == kth) {
+                j++;
+            }
+            keys[j] = getRawKthKey(raw, i);
+            sons[j] = getRawKthSon(raw, i);
+        }
+        keys[kth] = key;
+        if (isLeaf) {
+            sons[kth] = uid;
+        } else {
+            sons[kth] = sons[kth + 1];
+            sons[kth + 1] = uid;
+        }
+        if (encode(raw, level, getRawSibling(raw), getRawHighKey(raw), keys, sons, 0, noKeys + 1)) {
+            return null;
+        }
+        return split(level, keys, sons, noKeys + 1);
+    }
+
+    // 公共前缀不变且空间足够时，直接追加 Entry 并移动 Slot
+    private boolean insertInPlace(int kth, byte[] key, long son) {
+        int p = getRawPrefixLen(raw);
+        if (comparePrefix(raw, p, key) != 0) {
+            return false;
+        }
+        int noKeys = getRawNoKeys(raw);
+        int slotsEnd = slotOffset(p, noKeys);
+        int heap = getRawHeapStart(raw);
+        if (heap - slotsEnd < SLOT_SIZE + ENTRY_SUFFIX_OFFSET + key.length - p) {
+            return false;
+        }
+        heap = writeEntry(raw, heap, key, p, son);
+        int s = raw.start + slotOffset(p, kth);
+        System.arraycopy(raw.raw, s, raw.raw, s + SLOT_SIZE, (noKeys - kth) * SLOT_SIZE);
+        raw.putShort(slotOffset(p, kth), (short) heap);
+        raw.putShort(HEAP_START_OFFSET, (short) heap);
+        raw.putShort(NO_KEYS_OFFSET, (short) (noKeys + 1));
         return true;
     }
 
-    private boolean needSplit() {
-        return BALANCE_NUMBER * 2 == getRawNoKeys(raw);
+    // ================= 删除方法 =================
+    /**
+     * 从叶子中删除 (key, uid)。本节点的键都不大于 key 且没找到时返回右兄弟，重复的键可能延续到那里
+     * 删除不合并节点：B-link 的读者可能正拿着任何一个节点，节点一旦创建就不会消失。
+     * 删掉的 Entry 在节点内留下空洞，下次原地插入放不下时重建节点会回收。
+     * 叶子的上界不随删除变化，删空的叶子以后仍然接收它范围内的键 (见 insertPosition)
+     */
+    public LeafDeleteRes leafDelete(byte[] key, long uid) {
+        LeafDeleteRes res = new LeafDeleteRes();
+        dataItem.before();
+        int noKeys = getRawNoKeys(raw);
+        int p = getRawPrefixLen(raw);
+        int pc = comparePrefix(raw, p, key);
+        int kth = lowerBound(raw, key);
+        while (kth < noKeys && getRawKthSon(raw, kth) != uid && compareKth(raw, p, kth, key, pc) == 0) {
+            kth++;
+        }
+        if (kth < noKeys && getRawKthSon(raw, kth) == uid && compareKth(raw, p, kth, key, pc) == 0) {
+            if (noKeys == 1) {
+                encode(raw, 0, getRawSibling(raw), getRawHighKey(raw), new byte[0][], new long[0], 0, 0);
+            } else {
+                int s = raw.start + slotOffset(p, kth);
+                System.arraycopy(raw.raw, s + SLOT_SIZE, raw.raw, s, (noKeys - kth - 1) * SLOT_SIZE);
+                raw.putShort(NO_KEYS_OFFSET, (short) (noKeys - 1));
+            }
+            res.deleted = true;
+            dataItem.after(TransactionManagerImpl.SUPER_XID);
+            return res;
+        }
+        if (kth == noKeys) {
+            res.siblingUid = getRawSibling(raw);
+        }
+        dataItem.unBefore();
+        return res;
     }
 
-    private SplitRes split() throws Exception {
-        SubArray nodeRaw = new SubArray(new byte[NODE_SIZE], 0, NODE_SIZE);
-        setRawIsLeaf(nodeRaw, getRawIsLeaf(raw));
-        setRawNoKeys(nodeRaw, BALANCE_NUMBER);
-        setRawSibling(nodeRaw, getRawSibling(raw));
-        copyRawFromKth(raw, nodeRaw, BALANCE_NUMBER);
+    /**
+     * 分裂：右半部分写入新节点，左半部分留在本节点
+     * 从按字节数对半的位置开始向两边找第一个两半都放得下的分裂点。新键破坏了公共前缀时，
+     * 它一定在所有键的一端，按字节对半可能放不下，这时会分成新键单独一边
+     * 左半部分以自己最后一个键为上界，右半部分继承原来的上界
+     */
+    private SplitRes split(int level, byte[][] keys, long[] sons, int n) throws Exception {
+        int nodeSize = getRawSize(raw);
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            total += entrySize(keys[i]);
+        }
+        int mid = 0;
+        for (int acc = 0; mid < n && acc < total / 2; mid++) {
+            acc += entrySize(keys[mid]);
+        }
+        byte[] highKey = getRawHighKey(raw);
+        int m = -1;
+        for (int d = 0; m < 0 && d < n; d++) {
+            if (canSplitAt(keys, n, mid - d, nodeSize, highKey)) {
+                m = mid - d;
+            } else if (canSplitAt(keys, n, mid + d, nodeSize, highKey)) {
+                m = mid + d;
+            }
+        }
+        assert m > 0;
+        SubArray nodeRaw = new SubArray(new byte[nodeSize], 0, nodeSize);
+        encode(nodeRaw, level, getRawSibling(raw), highKey, keys, sons, m, n);
         long son = tree.dm.insert(TransactionManagerImpl.SUPER_XID, nodeRaw.raw);
-        setRawNoKeys(raw, BALANCE_NUMBER);
-        setRawSibling(raw, son);
+        encode(raw, level, son, keys[m - 1], keys, sons, 0, m);
         SplitRes res = new SplitRes();
         res.newSon = son;
-        res.newKey = getRawKthKey(nodeRaw, 0);
+        res.newKey = keys[m];
         return res;
     }
 
-    private void shiftRawKth(SubArray raw, int kth) {
-        int begin = raw.start + NODE_HEADER_SIZE + (kth + 1) * (8 * 2);
-        int end = raw.start + NODE_SIZE - 1;
-        for (int i = end; i >= begin; i--) {
-            raw.raw[i] = raw.raw[i - (8 * 2)];
+    // 左右至少各一项，右半部分的第一个键是有限的 (它会成为父节点中的分隔键)，且两半都放得下
+    private static boolean canSplitAt(byte[][] keys, int n, int m, int nodeSize, byte[] highKey) {
+        if (m < 1 || m >= n || keys[m] == INF_KEY) {
+            return false;
         }
+        return encodedSize(keys, 0, m, keys[m - 1]) <= nodeSize && encodedSize(keys, m, n, highKey) <= nodeSize;
     }
 
-    private void copyRawFromKth(SubArray from, SubArray to, int kth) {
-        int offset = from.start + NODE_HEADER_SIZE + kth * (8 * 2);
-        System.arraycopy(from.raw, offset, to.raw, to.start + NODE_HEADER_SIZE, from.end - offset);
+    private static int entrySize(byte[] key) {
+        return SLOT_SIZE + ENTRY_SUFFIX_OFFSET + (key == INF_KEY ? 0 : key.length);
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append("Is leaf: ").append(getRawIsLeaf(raw));
+        sb.append("Level: ").append(getRawLevel(raw));
         sb.append(", Keys count: ").append(getRawNoKeys(raw));
+        sb.append(", Size: ").append(getRawSize(raw));
+        sb.append(", Prefix length: ").append(getRawPrefixLen(raw));
         sb.append(", Sibling: ").append(getRawSibling(raw));
+        byte[] highKey = getRawHighKey(raw);
+        sb.append(", High key length: ").append(highKey == null ? "none" : String.valueOf(highKey.length));
         return sb.toString();
     }
-}
\ No newline at end of file
+}
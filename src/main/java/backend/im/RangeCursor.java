@@ -0,0 +1,78 @@
+package backend.im;
+
+import backend.common.LongList;
+import java.util.NoSuchElementException;
+
+/**
+ * 范围扫描游标：按键序逐个返回从 leftKey (含) 到 rightKey 的 uid，rightKey 为 null 表示没有上界
+ *
+ * 每次只读一个叶子，把命中的 uid 拷进复用的缓冲区，用完后才沿右兄弟指针读下一个叶子；
+ * 两次读之间不持有节点，调用方可以随时停下 (LIMIT)，后面的叶子不会被读到
+ * 带键的游标同时拷出每项的完整键，覆盖索引扫描直接从键中取列值
+ */
+public class RangeCursor {
+    private BPlusTree tree;
+    private byte[] leftKey;
+    private byte[] rightKey;
+    private boolean rightInclusive;
+    private long[] buf = new long[64];
+    private byte[][] keyBuf; // 不带键时为 null
+    private int count;
+    private int pos;
+    private long nextLeaf; // 下一个要读的叶子，0 表示没有了
+
+    RangeCursor(BPlusTree tree, byte[] leftKey, byte[] rightKey, boolean rightInclusive, long leafUid,
+            boolean withKeys) {
+        this.tree = tree;
+        this.keyBuf = withKeys ? new byte[64][] : null;
+        this.leftKey = leftKey;
+        this.rightKey = rightKey;
+        this.rightInclusive = rightInclusive;
+        this.nextLeaf = leafUid;
+    }
+
+    public boolean hasNext() throws Exception {
+        while (pos == count) {
+            if (nextLeaf == 0) {
+                return false;
+            }
+            Node leaf = Node.loadNode(tree, nextLeaf);
+            LeafSearchRangeRes res;
+            try {
+                res = leaf.leafSearchRange(leftKey, rightKey, rightInclusive, buf, keyBuf);
+            } finally {
+                leaf.release();
+            }
+            buf = res.uids;
+            keyBuf = res.keys;
+            count = res.count;
+            pos = 0;
+            nextLeaf = res.siblingUid;
+        }
+        return true;
+    }
+
+    public long next() throws Exception {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return buf[pos++];
+    }
+
+    /**
+     * 把剩下的 uid 全部追加到 list，每个叶子整块拷贝
+     */
+    public void drainTo(LongList list) throws Exception {
+        while (hasNext()) {
+            list.addAll(buf, pos, count - pos);
+            pos = count;
+        }
+    }
+
+    /**
+     * 上一次 next 返回的 uid 对应的键，只用于带键的游标
+     */
+    public byte[] key() {
+        return keyBuf[pos - 1];
+    }
+}
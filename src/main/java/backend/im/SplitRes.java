@@ -2,5 +2,5 @@ package backend.im;
 
 class SplitRes {
     long newSon;
-    long newKey;
+    byte[] newKey;
 }
\ No newline at end of file
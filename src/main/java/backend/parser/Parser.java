@@ -2,6 +2,9 @@ package backend.parser;
 
 import backend.utils.Error;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Parser {
     public static Object Parse(byte[] statement) throws Exception {
         Tokenizer tokenizer = new Tokenizer(statement);
@@ -112,7 +115,7 @@ public class Parser {
 
     /**
      * 解析 CREATE TABLE 语句
-     * 格式: create table <tableName> (<fieldName> <fieldType> [index], ...)
+     * 格式: create table <tableName> (<fieldName> <fieldType> [index], ... [, index (<fieldName>, ...)] ...)
      */
     private static statement.Create parseCreate(Tokenizer t) throws Exception {
         // create table <tableName>
@@ -130,24 +133,35 @@ public class Parser {
         }
         t.pop();
 
-        java.util.List<String> fieldNames = new java.util.ArrayList<>();
-        java.util.List<String> fieldTypes = new java.util.ArrayList<>();
-        java.util.List<String> indexes = new java.util.ArrayList<>();
+        List<String> fieldNames = new ArrayList<>();
+        List<String> fieldTypes = new ArrayList<>();
+        List<String> indexes = new ArrayList<>();
+        List<String[]> compositeIndexes = new ArrayList<>();
 
         while (true) {
             String fieldName = t.peek();
+            if ("".equals(fieldName)) {
+                // 语句在字段列表中间结束
+                throw Error.InvalidCommandException;
+            }
             t.pop();
-            String fieldType = t.peek();
-            t.pop();
+            String next;
+            if ("index".equals(fieldName)) {
+                compositeIndexes.add(parseIndexColumns(t));
+                next = t.peek();
+            } else {
+                String fieldType = t.peek();
+                t.pop();
 
-            fieldNames.add(fieldName);
-            fieldTypes.add(fieldType);
+                fieldNames.add(fieldName);
+                fieldTypes.add(fieldType);
 
-            String next = t.peek();
-            if ("index".equals(next)) {
-                indexes.add(fieldName);
-                t.pop();
                 next = t.peek();
+                if ("index".equals(next)) {
+                    indexes.add(fieldName);
+                    t.pop();
+                    next = t.peek();
+                }
             }
             if (")".equals(next)) {
                 t.pop();
@@ -165,17 +179,44 @@ public class Parser {
         create.fieldName = fieldNames.toArray(new String[0]);
         create.fieldType = fieldTypes.toArray(new String[0]);
         create.index = indexes.toArray(new String[0]);
+        create.compositeIndex = compositeIndexes.toArray(new String[0][]);
         return create;
     }
 
+    // 组合索引的字段列表: (<fieldName>, ...)
+    private static String[] parseIndexColumns(Tokenizer t) throws Exception {
+        if (!"(".equals(t.peek())) {
+            throw Error.InvalidCommandException;
+        }
+        t.pop();
+        List<String> columns = new ArrayList<>();
+        while (true) {
+            String column = t.peek();
+            if ("".equals(column) || ",".equals(column) || ")".equals(column)) {
+                throw Error.InvalidCommandException;
+            }
+            columns.add(column);
+            t.pop();
+            String next = t.peek();
+            t.pop();
+            if (")".equals(next)) {
+                break;
+            }
+            if (!",".equals(next)) {
+                throw Error.InvalidCommandException;
+            }
+        }
+        return columns.toArray(new String[0]);
+    }
+
     /**
      * 解析 SELECT 语句
-     * 格式: select <fields> from <tableName> [where <condition>]
+     * 格式: select <fields> from <tableName> [where <condition>] [limit <n>]
      */
     private static statement.Select parseSelect(Tokenizer t) throws Exception {
         statement.Select select = new statement.Select();
 
-        java.util.List<String> fields = new java.util.ArrayList<>();
+        List<String> fields = new ArrayList<>();
         String field = t.peek();
         while (!"from".equals(field) && !"".equals(field)) {
             if (!",".equals(field)) {
@@ -194,22 +235,36 @@ public class Parser {
         select.tableName = t.peek();
         t.pop();
 
-        String next = t.peek();
-        if ("".equals(next)) {
-            select.where = null;
-            return select;
+        if ("where".equals(t.peek())) {
+            t.pop();
+            select.where = parseWhere(t);
         }
-        if (!"where".equals(next)) {
+        if ("limit".equals(t.peek())) {
+            t.pop();
+            select.limit = parseLimit(t.peek());
+            t.pop();
+        }
+        if (!"".equals(t.peek())) {
             throw Error.InvalidCommandException;
         }
-        t.pop();
-        select.where = parseWhere(t);
         return select;
     }
 
+    private static int parseLimit(String s) throws Exception {
+        try {
+            int limit = Integer.parseInt(s);
+            if (limit >= 0) {
+                return limit;
+            }
+        } catch (NumberFormatException e) {
+        }
+        throw Error.InvalidCommandException;
+    }
+
     /**
      * 解析 INSERT 语句
-     * 格式: insert into <tableName> values <value1> <value2> ...
+     * 格式: insert into <tableName> values <value1> <value2> ... [, <value1> <value2> ...] ...
+     * 逗号分隔多行，引号括起来的 ',' 是值而不是分隔符
      */
     private static statement.Insert parseInsert(Tokenizer t) throws Exception {
         statement.Insert insert = new statement.Insert();
@@ -227,12 +282,27 @@ public class Parser {
         }
         t.pop();
 
-        java.util.List<String> values = new java.util.ArrayList<>();
-        while (!"".equals(t.peek())) {
-            values.add(t.peek());
+        List<String[]> rows = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        while (true) {
+            String value = t.peek();
+            boolean end = "".equals(value) && !t.isQuoted();
+            if (end || (",".equals(value) && !t.isQuoted())) {
+                if (values.isEmpty()) {
+                    throw Error.InvalidCommandException;
+                }
+                rows.add(values.toArray(new String[0]));
+                values.clear();
+                if (end) {
+                    break;
+                }
+            } else {
+                values.add(value);
+            }
             t.pop();
         }
-        insert.values = values.toArray(new String[0]);
+        insert.rows = rows.toArray(new String[0][]);
+        insert.values = insert.rows[0];
         return insert;
     }
 
@@ -257,6 +327,9 @@ public class Parser {
         t.pop();
 
         delete.where = parseWhere(t);
+        if (!"".equals(t.peek())) {
+            throw Error.InvalidCommandException;
+        }
         return delete;
     }
 
@@ -292,6 +365,9 @@ public class Parser {
         t.pop();
 
         update.where = parseWhere(t);
+        if (!"".equals(t.peek())) {
+            throw Error.InvalidCommandException;
+        }
         return update;
     }
 
@@ -305,7 +381,7 @@ public class Parser {
         where.singleExp1 = parseSingleExp(t);
 
         String logicOp = t.peek();
-        if ("".equals(logicOp)) {
+        if ("".equals(logicOp) || "limit".equals(logicOp)) {
             where.logicOp = null;
             where.singleExp2 = null;
             return where;
@@ -317,10 +393,6 @@ public class Parser {
         t.pop();
 
         where.singleExp2 = parseSingleExp(t);
-
-        if (!"".equals(t.peek())) {
-            throw Error.InvalidCommandException;
-        }
         return where;
     }
 
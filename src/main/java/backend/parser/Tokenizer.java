@@ -2,10 +2,14 @@ package backend.parser;
 
 import backend.utils.Error;
 
+import java.nio.charset.StandardCharsets;
+
 public class Tokenizer {
     private byte[] stat;
     private int pos;
     private String currentToken;
+    private boolean currentQuoted; // 当前 token 是否是引号括起来的字符串
+    private boolean quoted;
     private boolean flushToken;
     private Exception err;
 
@@ -28,11 +32,21 @@ public class Tokenizer {
                 throw e;
             }
             currentToken = token;
+            currentQuoted = quoted;
             flushToken = false;
         }
         return currentToken;
     }
 
+    /**
+     * peek 返回的 token 是否来自引号括起来的字符串
+     * 引号已被去掉，用它区分字符串 ',' 与分隔符 , 以及空字符串 '' 与语句结尾
+     */
+    public boolean isQuoted() throws Exception {
+        peek();
+        return currentQuoted;
+    }
+
     public void pop() {
         flushToken = true;
     }
@@ -60,6 +74,7 @@ public class Tokenizer {
     }
 
     private String nextMetaState() throws Exception {
+        quoted = false;
         while (true) {
             Byte b = peekByte();
             if (b == null)
@@ -97,7 +112,9 @@ public class Tokenizer {
     private String nextQuoteState() throws Exception {
         byte quote = peekByte();
         popByte();
-        StringBuilder sb = new StringBuilder();
+        quoted = true;
+        // 字符串可能含多字节字符，整段按 UTF-8 解码
+        int start = pos;
         while (true) {
             Byte b = peekByte();
             if (b == null) {
@@ -105,13 +122,13 @@ public class Tokenizer {
                 throw err;
             }
             if (b == quote) {
-                popByte();
                 break;
             }
-            sb.append(new String(new byte[] { b }));
             popByte();
         }
-        return sb.toString();
+        String str = new String(stat, start, pos - start, StandardCharsets.UTF_8);
+        popByte();
+        return str;
     }
 
     static boolean isDigit(byte b) {
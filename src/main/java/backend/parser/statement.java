@@ -23,6 +23,7 @@ public class statement {
         public String[] fieldName;
         public String[] fieldType;
         public String[] index;
+        public String[][] compositeIndex; // 组合索引，每项为按顺序覆盖的字段名
     }
 
     // Drop.java
@@ -35,12 +36,14 @@ public class statement {
         public String tableName;
         public String[] fields;
         public Where where;
+        public int limit = -1; // 最多返回的行数，-1 表示不限制
     }
 
     // Insert.java
     public static class Insert {
         public String tableName;
-        public String[] values;
+        public String[] values; // 第一行的值
+        public String[][] rows; // 所有行的值，多于一行时整批导入 (TableManager.bulkInsert)
     }
 
     // Delete.java
@@ -67,7 +70,7 @@ public class statement {
     // SingleExpression.java
     public static class SingleExpression {
         public String field;
-        public String compareOp; // ">", "<", "="
+        public String compareOp; // ">", "<", "=", "like"
         public String value;
     }
 
@@ -5,6 +5,9 @@ import backend.parser.statement;
 import backend.tbm.BeginRes;
 import backend.tbm.TableManager;
 
+import java.io.OutputStream;
+import java.util.Arrays;
+
 /**
  * Executor 执行 SQL 语句
  * 解析 SQL 后调用 TBM 对应方法
@@ -29,6 +32,13 @@ public class Executor {
      * 执行 SQL 语句
      */
     public byte[] execute(byte[] sql) throws Exception {
+        return execute(sql, null);
+    }
+
+    /**
+     * 执行 SQL 语句，rows 不为空时查询结果逐行写入 rows，返回值为空数组
+     */
+    public byte[] execute(byte[] sql, OutputStream rows) throws Exception {
         System.out.println("Execute: " + new String(sql));
         Object stat = Parser.Parse(sql);
 
@@ -57,14 +67,14 @@ public class Executor {
             xid = 0;
             return res;
         } else {
-            return execute2(stat);
+            return execute2(stat, rows);
         }
     }
 
     /**
      * 执行非事务控制语句
      */
-    private byte[] execute2(Object stat) throws Exception {
+    private byte[] execute2(Object stat, OutputStream rows) throws Exception {
         boolean tmpTransaction = false;
         Exception e = null;
         if (xid == 0) {
@@ -79,9 +89,19 @@ public class Executor {
             } else if (stat instanceof statement.Create) {
                 res = tbm.create(xid, (statement.Create) stat);
             } else if (stat instanceof statement.Select) {
-                res = tbm.read(xid, (statement.Select) stat);
+                if (rows != null) {
+                    tbm.read(xid, (statement.Select) stat, rows);
+                    res = new byte[0];
+                } else {
+                    res = tbm.read(xid, (statement.Select) stat);
+                }
             } else if (stat instanceof statement.Insert) {
-                res = tbm.insert(xid, (statement.Insert) stat);
+                statement.Insert insert = (statement.Insert) stat;
+                if (insert.rows.length > 1) {
+                    res = tbm.bulkInsert(xid, insert.tableName, Arrays.asList(insert.rows));
+                } else {
+                    res = tbm.insert(xid, insert);
+                }
             } else if (stat instanceof statement.Delete) {
                 res = tbm.delete(xid, (statement.Delete) stat);
             } else if (stat instanceof statement.Update) {
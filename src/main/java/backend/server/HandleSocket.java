@@ -1,12 +1,15 @@
 package backend.server;
 
 import backend.tbm.TableManager;
+import backend.utils.Bytes;
 import transport.Encoder;
 import transport.Package;
 import transport.Packager;
 import transport.Transporter;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
 
 /**
@@ -48,17 +51,23 @@ public class HandleSocket implements Runnable {
                 break;
             }
             byte[] sql = pkg.getData();
+            ResultStream rows = new ResultStream(packager);
             byte[] result = null;
             Exception e = null;
             try {
-                result = exe.execute(sql);
+                result = exe.execute(sql, rows);
             } catch (Exception e1) {
                 e = e1;
                 e.printStackTrace();
             }
-            pkg = new Package(result, e);
             try {
-                packager.send(pkg);
+                if (e == null) {
+                    // 查询结果最后攒下的一段随结束包一起发出
+                    result = Bytes.concat(rows.drain(), result);
+                } else if (rows.isBroken()) {
+                    break;
+                }
+                packager.send(new Package(result, e));
             } catch (Exception e1) {
                 e1.printStackTrace();
                 break;
@@ -72,3 +81,53 @@ public class HandleSocket implements Runnable {
         }
     }
 }
+
+/**
+ * 查询结果的输出流：攒够 CHUNK_SIZE 字节就作为 partial 包发给客户端，结果不在服务端整体缓存
+ */
+class ResultStream extends OutputStream {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private Packager packager;
+    private ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    private boolean broken; // 发送失败，连接已不可用
+
+    ResultStream(Packager packager) {
+        this.packager = packager;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buf.write(b);
+        sendIfFull();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        buf.write(b, off, len);
+        sendIfFull();
+    }
+
+    private void sendIfFull() throws IOException {
+        if (buf.size() < CHUNK_SIZE) {
+            return;
+        }
+        try {
+            packager.send(new Package(drain(), true));
+        } catch (Exception e) {
+            broken = true;
+            throw new IOException(e);
+        }
+    }
+
+    // 取出还没发出的数据
+    byte[] drain() {
+        byte[] data = buf.toByteArray();
+        buf.reset();
+        return data;
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+}
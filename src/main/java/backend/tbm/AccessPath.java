@@ -0,0 +1,69 @@
+package backend.tbm;
+
+/**
+ * 查询的一条访问路径及其估计代价，Table.plan 从候选中选代价最小的：
+ * - 一次索引范围扫描 (scan)，residual 不为 null 时取出的行还要用它过滤
+ * - 两个索引扫描的结果求交或求并 (scan 和 scan2)，residual 不为 null 时回表后同样要过滤
+ * - 顺序扫描整个数据文件 (scan 为 null)，用 residual 过滤
+ * 代价以经索引回表读一行为单位，估计的行数来自 IndexStats
+ * 各项的比例按实测定：页面都在缓存中时，回表读一行约 300ns，从叶子取一个键约 15ns，
+ * 顺序扫描一页 (约 120 行) 约 3us
+ */
+class AccessPath {
+    static final double FETCH_COST = 1.0; // 经索引回表读一行
+    static final double KEY_COST = 0.05; // 只从索引键中取值 (覆盖扫描)，或取出 uid 留待合并
+    static final double DESCENT_COST = 2.0; // 从根走到叶子
+    static final double PAGE_COST = 10.0; // 顺序扫描读一页并过滤其中的数据项
+    static final double HEAP_ROW_COST = 0.5; // 顺序扫描中读出一行满足条件的记录，页不在缓存中时不必再查缓存
+
+    IndexScan scan;
+    IndexScan scan2;
+    boolean or; // scan2 不为 null 时：true 求并，false 求交
+    boolean covering; // 索引键含有所有要输出的列
+    RowFilter residual;
+    double rows; // 估计要读出的行数
+    double cost;
+
+    /**
+     * 一次索引扫描，估计取出 rows 行
+     */
+    static AccessPath index(IndexScan scan, double rows, boolean covering, RowFilter residual) {
+        AccessPath p = new AccessPath();
+        p.scan = scan;
+        p.covering = covering && residual == null;
+        p.residual = residual;
+        p.rows = rows;
+        p.cost = DESCENT_COST + rows * (p.covering ? KEY_COST : FETCH_COST);
+        return p;
+    }
+
+    /**
+     * 两个索引扫描分别取出 rows1、rows2 项，合并后估计有 rows 行要回表
+     */
+    static AccessPath merge(IndexScan scan1, double rows1, IndexScan scan2, double rows2, boolean or,
+            double rows, RowFilter residual) {
+        AccessPath p = new AccessPath();
+        p.scan = scan1;
+        p.scan2 = scan2;
+        p.or = or;
+        p.residual = residual;
+        p.rows = rows;
+        p.cost = 2 * DESCENT_COST + (rows1 + rows2) * KEY_COST + rows * FETCH_COST;
+        return p;
+    }
+
+    /**
+     * 顺序扫描 pages 页，估计有 rows 行满足条件
+     */
+    static AccessPath heap(RowFilter filter, int pages, double rows) {
+        AccessPath p = new AccessPath();
+        p.residual = filter;
+        p.rows = rows;
+        p.cost = pages * PAGE_COST + rows * HEAP_ROW_COST;
+        return p;
+    }
+
+    boolean isHeap() {
+        return scan == null;
+    }
+}
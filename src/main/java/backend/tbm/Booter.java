@@ -11,7 +11,7 @@ import java.nio.file.StandardCopyOption;
 
 /**
  * Booter 管理数据库的启动信息
- * 目前只存储一个信息：头表的 UID
+ * 存储表和记录的格式版本和头表的 UID (见 TableManagerImpl.bootRaw)
  * 使用原子性重命名来保证更新的安全性
  */
 public class Booter {
@@ -68,7 +68,7 @@ public class Booter {
     }
 
     /**
-     * 读取启动信息（头表 UID）
+     * 读取启动信息
      */
     public byte[] load() {
         byte[] buf = null;
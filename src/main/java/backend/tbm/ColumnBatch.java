@@ -0,0 +1,181 @@
+package backend.tbm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 查询执行中在算子间传递的一批行 (见 Operator)，最多 CAPACITY 行，按列取值：
+ * 整数列的值在 longs(col) 中，string 列的字节在 data 中，位置为 strFrom(col)、strTo(col)
+ * 只能取 loaded 为 true 的列 (要输出的和条件中用到的)
+ * sel 中升序存放选中的行号，过滤只缩小 sel，不移动数据
+ *
+ * 记录整条拷进 data，某一列第一次被用到时才按 RowCodec 为当时选中的行解出，
+ * 顺序扫描中大部分行被条件滤掉时，只有条件用到的列要对每一行解出
+ * 每个算子复用自己的一个 ColumnBatch，reset 后重新装入，不为每一行分配对象
+ */
+class ColumnBatch {
+    static final int CAPACITY = 1024;
+
+    RowCodec codec;
+    boolean[] loaded;
+    int size; // 行数
+    private long[][] longs;
+    private int[][] strFrom;
+    private int[][] strTo;
+    private boolean[] decoded; // 这一列已为选中的行解出
+    private int[] rowOff = new int[CAPACITY]; // 记录在 data 中的位置，-1 表示各列的值已直接放入
+    byte[] data = new byte[CAPACITY * 32];
+    private int used;
+    int[] sel = new int[CAPACITY];
+    int selected;
+
+    ColumnBatch(RowCodec codec, boolean[] loaded) {
+        this.codec = codec;
+        this.loaded = loaded;
+        int n = codec.columns();
+        longs = new long[n][];
+        strFrom = new int[n][];
+        strTo = new int[n][];
+        decoded = new boolean[n];
+        for (int col = 0; col < n; col++) {
+            if (!loaded[col]) {
+                continue;
+            }
+            if (codec.isString(col)) {
+                strFrom[col] = new int[CAPACITY];
+                strTo[col] = new int[CAPACITY];
+            } else {
+                longs[col] = new long[CAPACITY];
+            }
+        }
+    }
+
+    void reset() {
+        size = 0;
+        used = 0;
+        selected = 0;
+        Arrays.fill(decoded, false);
+    }
+
+    boolean isFull() {
+        return size == CAPACITY;
+    }
+
+    /**
+     * 选中所有行
+     */
+    void selectAll() {
+        for (int i = 0; i < size; i++) {
+            sel[i] = i;
+        }
+        selected = size;
+    }
+
+    /**
+     * 改为选中 rows[from, from + n) 这些行 (升序)，不要求是原来选中的子集
+     */
+    void select(int[] rows, int from, int n) {
+        System.arraycopy(rows, from, sel, 0, n);
+        selected = n;
+        Arrays.fill(decoded, false);
+    }
+
+    /**
+     * 加入一条记录 raw[from, to)，拷贝到 data 中，返回行号
+     */
+    int add(byte[] raw, int from, int to) {
+        int row = size++;
+        rowOff[row] = append(raw, from, to);
+        return row;
+    }
+
+    /**
+     * 加入一行已解出的值 (按字段顺序，只用到 loaded 的列)，返回行号
+     */
+    int add(Object[] values) {
+        int row = size++;
+        rowOff[row] = -1;
+        for (int col = 0; col < loaded.length; col++) {
+            if (!loaded[col]) {
+                continue;
+            }
+            if (codec.isString(col)) {
+                byte[] b = ((String) values[col]).getBytes(StandardCharsets.UTF_8);
+                strFrom[col][row] = append(b, 0, b.length);
+                strTo[col][row] = used;
+            } else {
+                longs[col][row] = ((Number) values[col]).longValue();
+            }
+        }
+        return row;
+    }
+
+    long[] longs(int col) {
+        decode(col);
+        return longs[col];
+    }
+
+    int[] strFrom(int col) {
+        decode(col);
+        return strFrom[col];
+    }
+
+    int[] strTo(int col) {
+        decode(col);
+        return strTo[col];
+    }
+
+    // 为选中的行解出第 col 列，之后选中的行只会减少 (或经 select 重新选择)
+    private void decode(int col) {
+        if (decoded[col]) {
+            return;
+        }
+        decoded[col] = true;
+        boolean string = codec.isString(col);
+        for (int i = 0; i < selected; i++) {
+            int row = sel[i];
+            int off = rowOff[row];
+            if (off < 0) {
+                continue;
+            }
+            if (string) {
+                strFrom[col][row] = codec.stringStart(data, off, col);
+                strTo[col][row] = codec.stringEnd(data, off, col);
+            } else {
+                longs[col][row] = codec.getLong(data, off, col);
+            }
+        }
+    }
+
+    private int append(byte[] raw, int from, int to) {
+        int len = to - from;
+        if (used + len > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length << 1, used + len));
+        }
+        System.arraycopy(raw, from, data, used, len);
+        int off = used;
+        used += len;
+        return off;
+    }
+
+    /**
+     * 把第 row 行的 cols 这几列按 [name=value, ...] 的格式写入 sb
+     */
+    void print(int row, int[] cols, StringBuilder sb) {
+        sb.append('[');
+        for (int i = 0; i < cols.length; i++) {
+            int col = cols[i];
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(codec.name(col)).append('=');
+            if (codec.isString(col)) {
+                int from = strFrom(col)[row];
+                sb.append(new String(data, from, strTo[col][row] - from, StandardCharsets.UTF_8));
+            } else {
+                sb.append(longs(col)[row]);
+            }
+        }
+        sb.append(']');
+    }
+}
@@ -0,0 +1,211 @@
+package backend.tbm;
+
+import backend.im.BPlusTree;
+import backend.im.Keys;
+import backend.im.RangeCursor;
+import backend.parser.statement;
+import backend.tm.TransactionManagerImpl;
+import backend.utils.Bytes;
+import backend.utils.Panic;
+import backend.utils.Parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 组合索引：按顺序覆盖表中的几列，键为各列编码 (Field.value2Segment) 的拼接
+ * 二进制格式：[Columns][IndexUid]，Columns 为逗号分隔的字段名
+ *
+ * 各段拼接后整个键的字节序就是按列逐个比较的顺序，所以前几列相等、下一列在某个范围内的行
+ * 在索引上是连续的一段，"a = ? and b > ?" 这样的条件用一次范围扫描就能回答
+ * 键中带着各列的值，只查询这些列时可以不回表 (覆盖索引)：只为查询而带上的列放在最后即可，
+ * 如 index (id, name) 能回答 "select id, name from t where id > ?"
+ */
+public class CompositeIndex {
+    long uid; // 索引在 VM 中的 UID
+    private Table tb; // 所属表
+    List<Field> columns = new ArrayList<>(); // 覆盖的字段，按键中的顺序
+    private long index; // B+ 树的 UID
+    private BPlusTree bt;
+    IndexStats stats; // 索引的统计信息
+
+    private CompositeIndex(Table tb) {
+        this.tb = tb;
+    }
+
+    /**
+     * 从 VM 中加载组合索引，表的字段已加载
+     */
+    public static CompositeIndex loadIndex(Table tb, long uid) {
+        byte[] raw = null;
+        try {
+            raw = ((TableManagerImpl) tb.tbm).vm.read(TransactionManagerImpl.SUPER_XID, uid);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        assert raw != null;
+        CompositeIndex idx = new CompositeIndex(tb);
+        idx.uid = uid;
+        ParseStringRes res = Parser.parseString(raw);
+        for (String name : res.str.split(",")) {
+            idx.columns.add(tb.findField(name));
+        }
+        idx.index = Parser.getLong(raw, res.next);
+        try {
+            idx.bt = BPlusTree.load(idx.index, ((TableManagerImpl) tb.tbm).dm);
+            idx.stats = new IndexStats(tb, idx.bt, idx.index, false);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        return idx;
+    }
+
+    /**
+     * 创建组合索引并持久化
+     */
+    public static CompositeIndex createIndex(Table tb, long xid, String[] columnNames) throws Exception {
+        CompositeIndex idx = new CompositeIndex(tb);
+        for (String name : columnNames) {
+            Field f = tb.findField(name);
+            if (idx.columns.contains(f)) {
+                throw new RuntimeException("Duplicate column in index: " + name);
+            }
+            idx.columns.add(f);
+        }
+        idx.index = BPlusTree.create(((TableManagerImpl) tb.tbm).dm);
+        idx.bt = BPlusTree.load(idx.index, ((TableManagerImpl) tb.tbm).dm);
+        idx.stats = new IndexStats(tb, idx.bt, idx.index, true);
+        byte[] columnsRaw = Parser.string2Byte(String.join(",", columnNames));
+        byte[] indexRaw = Parser.long2Byte(idx.index);
+        idx.uid = ((TableManagerImpl) tb.tbm).vm.insert(xid, Bytes.concat(columnsRaw, indexRaw));
+        return idx;
+    }
+
+    /**
+     * 一行在本索引中的键，row 为按字段顺序排列的值
+     */
+    public byte[] key(Object[] row) {
+        byte[] key = new byte[0];
+        for (Field f : columns) {
+            key = Bytes.concat(key, f.value2Segment(row[f.column], true));
+        }
+        return key;
+    }
+
+    /**
+     * 索引键的最大长度，更长的键在索引中只存前缀
+     */
+    int maxKeySize() {
+        return bt.maxKeySize();
+    }
+
+    public void insert(Object[] row, long uid) throws Exception {
+        bt.insert(key(row), uid);
+        stats.changed(1);
+    }
+
+    public void delete(Object[] row, long uid) throws Exception {
+        bt.delete(key(row), uid);
+        stats.changed(1);
+    }
+
+    /**
+     * 批量插入 keys[i] -> uids[i] (键已由 key 编码)
+     */
+    public void bulkInsert(byte[][] keys, long[] uids) throws Exception {
+        Field.bulkInsert(bt, keys, uids);
+        stats.changed(keys.length);
+    }
+
+    /**
+     * 本索引能否回答第一列为 eq、第二列为 next 的条件 (eq 为 null 时 next 在第一列上)
+     */
+    public boolean covers(statement.SingleExpression eq, statement.SingleExpression next) {
+        int k = 0;
+        if (eq != null) {
+            if (!"=".equals(eq.compareOp) || !columns.get(0).fieldName.equals(eq.field)) {
+                return false;
+            }
+            k = 1;
+        }
+        return k < columns.size() && columns.get(k).fieldName.equals(next.field);
+    }
+
+    /**
+     * 满足 covers(eq, next) 的条件在索引上的范围
+     * 前面相等的列拼成前缀 p，下一列的条件在 p 之后的部分上计算：
+     * 等于 v 为以 p+v 开头的键，小于 v 为 [p, p+v)，大于 v 为 [p+v 之后, p 之后)，like 为以 p+前缀 开头的键
+     */
+    public FieldCalRes calExp(statement.SingleExpression eq, statement.SingleExpression next) {
+        byte[] prefix = new byte[0];
+        int k = 0;
+        if (eq != null) {
+            Field f = columns.get(0);
+            prefix = f.value2Segment(f.string2Value(eq.value), true);
+            k = 1;
+        }
+        Field f = columns.get(k);
+        FieldCalRes res = new FieldCalRes();
+        res.rightInclusive = false;
+        if ("like".equals(next.compareOp)) {
+            byte[] p = Bytes.concat(prefix, f.value2Segment(f.likePrefix(next.value), false));
+            res.left = p;
+            res.right = Keys.prefixUpperBound(p);
+            return res;
+        }
+        byte[] p = Bytes.concat(prefix, f.value2Segment(f.string2Value(next.value), true));
+        switch (next.compareOp) {
+            case "=":
+                res.left = p;
+                res.right = Keys.prefixUpperBound(p);
+                break;
+            case "<":
+                res.left = prefix;
+                res.right = p;
+                break;
+            case ">":
+                res.left = Keys.prefixUpperBound(p);
+                res.right = Keys.prefixUpperBound(prefix);
+                if (res.left == null) {
+                    // 已是最大的值，没有更大的
+                    res.left = new byte[0];
+                    res.right = new byte[0];
+                }
+                break;
+            default:
+                throw new RuntimeException("Invalid compare operator: " + next.compareOp);
+        }
+        return res;
+    }
+
+    public RangeCursor cursor(FieldCalRes range) throws Exception {
+        return cursor(range, false);
+    }
+
+    public RangeCursor cursor(FieldCalRes range, boolean withKeys) throws Exception {
+        return bt.cursor(range.left, range.right, range.rightInclusive, withKeys);
+    }
+
+    /**
+     * key 的逆：从键中解出各列的值放进 row 中对应的位置
+     */
+    public void decodeKey(byte[] key, Object[] row) {
+        int pos = 0;
+        for (Field f : columns) {
+            pos = f.segment2Value(key, pos, row);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("index (");
+        for (int i = 0; i < columns.size(); i++) {
+            sb.append(columns.get(i).fieldName);
+            if (i < columns.size() - 1) {
+                sb.append(", ");
+            }
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+}
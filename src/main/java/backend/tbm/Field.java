@@ -1,12 +1,16 @@
 package backend.tbm;
 
 import backend.im.BPlusTree;
+import backend.im.BulkLoader;
+import backend.im.Keys;
+import backend.im.RangeCursor;
 import backend.parser.statement;
 import backend.tm.TransactionManagerImpl;
 import backend.utils.Panic;
 import backend.utils.Parser;
 import backend.utils.Bytes;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -20,8 +24,10 @@ public class Field {
     private Table tb; // 所属表
     String fieldName; // 字段名
     String fieldType; // 字段类型: int32, int64, string
+    int column; // 在表中是第几列
     private long index; // 索引 B+ 树的 UID，0 表示无索引
     private BPlusTree bt; // B+ 树索引对象
+    IndexStats stats; // 索引的统计信息，无索引时为 null
 
     public Field(long uid, Table tb) {
         this.uid = uid;
@@ -57,13 +63,14 @@ public class Field {
         ParseStringRes res = Parser.parseString(raw);
         fieldName = res.str;
         position += res.next;
-        res = Parser.parseString(Arrays.copyOfRange(raw, position, raw.length));
+        res = Parser.parseString(raw, position);
         fieldType = res.str;
         position += res.next;
-        this.index = Parser.parseLong(Arrays.copyOfRange(raw, position, position + 8));
+        this.index = Parser.getLong(raw, position);
         if (index != 0) {
             try {
                 bt = BPlusTree.load(index, ((TableManagerImpl) tb.tbm).dm);
+                stats = new IndexStats(tb, bt, index, false);
             } catch (Exception e) {
                 Panic.panic(e);
             }
@@ -83,6 +90,7 @@ public class Field {
             BPlusTree bt = BPlusTree.load(index, ((TableManagerImpl) tb.tbm).dm);
             f.index = index;
             f.bt = bt;
+            f.stats = new IndexStats(tb, bt, index, true);
         }
         f.persistSelf(xid);
         return f;
@@ -107,6 +115,13 @@ public class Field {
         }
     }
 
+    /**
+     * 索引键的最大长度，更长的键在索引中只存前缀
+     */
+    int maxKeySize() {
+        return bt.maxKeySize();
+    }
+
     /**
      * 判断是否有索引
      */
@@ -118,103 +133,189 @@ public class Field {
      * 向索引中插入键值对
      */
     public void insert(Object key, long uid) throws Exception {
-        long uKey = value2Uid(key);
-        bt.insert(uKey, uid);
+        bt.insert(value2Key(key), uid);
+        stats.changed(1);
+    }
+
+    /**
+     * 从索引中删除键值对
+     */
+    public void delete(Object key, long uid) throws Exception {
+        bt.delete(value2Key(key), uid);
+        stats.changed(1);
+    }
+
+    /**
+     * 批量向索引插入 keys[i] -> uids[i] (键已由 value2Key 编码)
+     * 索引为空时排序后自底向上构建，否则 (或构建期间有并发插入) 逐条插入
+     */
+    public void bulkInsert(byte[][] keys, long[] uids) throws Exception {
+        bulkInsert(bt, keys, uids);
+        stats.changed(keys.length);
+    }
+
+    static void bulkInsert(BPlusTree bt, byte[][] keys, long[] uids) throws Exception {
+        if (bt.isEmpty()) {
+            Integer[] order = new Integer[keys.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+            BulkLoader loader = bt.bulkLoader();
+            for (int i : order) {
+                loader.add(keys[i], uids[i]);
+            }
+            if (loader.finish()) {
+                return;
+            }
+        }
+        for (int i = 0; i < keys.length; i++) {
+            bt.insert(keys[i], uids[i]);
+        }
     }
 
     /**
      * 在索引中搜索
      */
-    public List<Long> search(long left, long right) throws Exception {
-        return bt.searchRange(left, right);
+    public List<Long> search(FieldCalRes range) throws Exception {
+        RangeCursor cursor = cursor(range);
+        List<Long> uids = new ArrayList<>();
+        while (cursor.hasNext()) {
+            uids.add(cursor.next());
+        }
+        return uids;
+    }
+
+    /**
+     * 在索引中按键序逐个取出范围内的 uid
+     */
+    public RangeCursor cursor(FieldCalRes range) throws Exception {
+        return cursor(range, false);
     }
 
     /**
-     * 将值转换为 long 类型（用于索引）
+     * withKeys 为 true 时游标同时给出每项的键，可用 key2Value 解出字段值
      */
-    public long value2Uid(Object key) {
-        long uid = 0;
+    public RangeCursor cursor(FieldCalRes range, boolean withKeys) throws Exception {
+        return bt.cursor(range.left, range.right, range.rightInclusive, withKeys);
+    }
+
+    /**
+     * 将值编码为索引键，键的字节序与值的顺序一致
+     * 整数为翻转符号位的 8 字节大端序，字符串为 UTF-8 字节串
+     */
+    public byte[] value2Key(Object key) {
         switch (fieldType) {
-            case "string":
-                uid = Parser.str2Uid((String) key);
-                break;
             case "int32":
-                uid = (int) key;
-                break;
+                return Keys.encodeLong((int) key);
             case "int64":
-                uid = (long) key;
-                break;
+                return Keys.encodeLong((long) key);
+            case "string":
+                return Keys.encodeString((String) key);
         }
-        return uid;
+        return null;
     }
 
     /**
-     * 将二进制数据解析为值
+     * value2Key 的逆：从索引键解出字段值
      */
-    public Object parseValue(byte[] raw) {
+    public Object key2Value(byte[] key) {
         switch (fieldType) {
             case "int32":
-                return Parser.parseInt(Arrays.copyOf(raw, 4));
+                return (int) Keys.decodeLong(key);
             case "int64":
-                return Parser.parseLong(Arrays.copyOf(raw, 8));
+                return Keys.decodeLong(key);
             case "string":
-                return Parser.parseString(raw).str;
+                return Keys.decodeString(key);
         }
         return null;
     }
 
     /**
-     * 将值序列化为二进制
+     * 将值编码为组合索引键中的一段，各段拼接后仍保持按列逐个比较的顺序
+     * terminated 为 false 时字符串不加结束符，得到以它开头的所有值的公共前缀
+     */
+    public byte[] value2Segment(Object key, boolean terminated) {
+        if ("string".equals(fieldType)) {
+            return Keys.encodeStringSegment((String) key, terminated);
+        }
+        return value2Key(key);
+    }
+
+    /**
+     * 从组合索引键的 off 处解出本字段的值放进 row[column]，返回这一段之后的位置
      */
-    public byte[] value2Raw(Object v) {
+    int segment2Value(byte[] key, int off, Object[] row) {
+        if ("string".equals(fieldType)) {
+            row[column] = Keys.decodeStringSegment(key, off);
+            return Keys.stringSegmentEnd(key, off);
+        }
+        long v = Keys.decodeLong(key, off);
+        if ("int32".equals(fieldType)) {
+            row[column] = (int) v;
+        } else {
+            row[column] = v;
+        }
+        return off + 8;
+    }
+
+    /**
+     * 解析条件中的值字符串
+     */
+    public Object string2Value(String str) {
         switch (fieldType) {
             case "int32":
-                return Parser.int2Byte((int) v);
+                return Integer.parseInt(str);
             case "int64":
-                return Parser.long2Byte((long) v);
+                return Long.parseLong(str);
             case "string":
-                return Parser.string2Byte((String) v);
+                return str;
         }
         return null;
     }
 
     /**
-     * 计算单个表达式的范围
+     * 计算单个表达式在索引上的范围
+     * 字符串支持 like 前缀匹配 ('abc%')，同样是一段连续的键
      */
     public FieldCalRes calExp(statement.SingleExpression exp) throws Exception {
-        Object v = null;
         FieldCalRes res = new FieldCalRes();
-        switch (fieldType) {
-            case "int32":
-                v = Integer.parseInt(exp.value);
-                break;
-            case "int64":
-                v = Long.parseLong(exp.value);
-                break;
-            case "string":
-                v = exp.value;
-                break;
+        if ("like".equals(exp.compareOp)) {
+            res.left = Keys.encodeString(likePrefix(exp.value));
+            res.right = Keys.prefixUpperBound(res.left);
+            res.rightInclusive = false;
+            return res;
         }
-        long uid = value2Uid(v);
+        byte[] key = value2Key(string2Value(exp.value));
         switch (exp.compareOp) {
             case "<":
-                res.left = 0;
-                res.right = uid;
-                if (res.right > 0)
-                    res.right--;
+                res.right = key;
+                res.rightInclusive = false;
                 break;
             case "=":
-                res.left = uid;
-                res.right = uid;
+                res.left = key;
+                res.right = key;
                 break;
             case ">":
-                res.left = uid + 1;
-                res.right = Long.MAX_VALUE;
+                res.left = Keys.successor(key);
                 break;
+            default:
+                throw new RuntimeException("Invalid compare operator: " + exp.compareOp);
         }
         return res;
     }
 
+    /**
+     * like 模式中 % 之前的前缀，只支持字符串字段上以 % 结尾的前缀匹配
+     */
+    String likePrefix(String pattern) {
+        int wildcard = pattern.indexOf('%');
+        if (!"string".equals(fieldType) || wildcard != pattern.length() - 1) {
+            throw new RuntimeException("Only prefix pattern on string field supported: " + pattern);
+        }
+        return pattern.substring(0, wildcard);
+    }
+
     /**
      * 字段值转字符串（打印用）
      */
@@ -227,11 +328,3 @@ public class Field {
         return fieldName + " (" + fieldType + ")" + (isIndexed() ? " [indexed]" : "");
     }
 }
-
-/**
- * 字段计算结果，表示一个范围
- */
-class FieldCalRes {
-    long left;
-    long right;
-}
@@ -0,0 +1,46 @@
+package backend.tbm;
+
+import backend.im.Keys;
+
+import java.util.Arrays;
+
+/**
+ * 字段计算结果，表示索引上的一段键：从 left (含) 到 right，默认为整个索引
+ */
+class FieldCalRes {
+    byte[] left = new byte[0];
+    byte[] right; // null 表示没有上界
+    boolean rightInclusive = true;
+    boolean lossy; // 范围内可能有不满足条件的项，取出的行要用条件重新判断
+
+    /**
+     * 与同一字段上另一个范围的交集，两个条件 and 在同一字段上时合成一次扫描
+     */
+    FieldCalRes intersect(FieldCalRes o) {
+        FieldCalRes res = new FieldCalRes();
+        res.lossy = lossy || o.lossy;
+        res.left = Arrays.compareUnsigned(left, o.left) >= 0 ? left : o.left;
+        if (right == null || o.right == null) {
+            res.right = right == null ? o.right : right;
+            res.rightInclusive = right == null ? o.rightInclusive : rightInclusive;
+            return res;
+        }
+        int c = Arrays.compareUnsigned(right, o.right);
+        res.right = c <= 0 ? right : o.right;
+        res.rightInclusive = c < 0 ? rightInclusive : c > 0 ? o.rightInclusive : rightInclusive && o.rightInclusive;
+        return res;
+    }
+
+    /**
+     * 在只存键的前 max 字节的索引上 (见 Keys.truncate) 对应的范围，包含原范围内所有键截断后的值
+     * 截断后更长的左边界可能放进比它小的键，长度达到 max 的右边界可能放进比它大的键，这时结果是 lossy 的
+     */
+    FieldCalRes truncate(int max) {
+        FieldCalRes res = new FieldCalRes();
+        res.left = Keys.truncate(left, max);
+        res.right = right == null ? null : Keys.truncate(right, max);
+        res.rightInclusive = rightInclusive || right != null && right.length >= max;
+        res.lossy = lossy || left.length > max || right != null && right.length >= max;
+        return res;
+    }
+}
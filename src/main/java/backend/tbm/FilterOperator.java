@@ -0,0 +1,28 @@
+package backend.tbm;
+
+/**
+ * 用 RowFilter 在列上过滤下层给出的行
+ */
+class FilterOperator implements Operator {
+    private Operator child;
+    private RowFilter filter;
+
+    FilterOperator(Operator child, RowFilter filter) {
+        this.child = child;
+        this.filter = filter;
+    }
+
+    @Override
+    public ColumnBatch next(int max) throws Exception {
+        while (true) {
+            ColumnBatch b = child.next(max);
+            if (b == null) {
+                return null;
+            }
+            filter.filter(b);
+            if (b.selected > 0) {
+                return b;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package backend.tbm;
+
+import backend.common.RowBatch;
+import backend.common.SubArray;
+import backend.vm.HeapScan;
+import backend.vm.VersionManager;
+
+/**
+ * 顺序扫描表的所有版本，条件 (filter) 下推到扫描中
+ * 每次装入 CAPACITY 个版本后先在列上过滤，只对满足条件的判断可见性：
+ * 来自磁盘的页面副本直接用记下的 XMIN/XMAX 判断，来自缓存活页的一起经 VersionManager.readMany 确认
+ * 记录在页面副本中拷出，版本的数据插入后不再改变，可见的直接输出
+ */
+class HeapScanOperator implements Operator {
+    private VersionManager vm;
+    private long xid;
+    private HeapScan heap;
+    private RowFilter filter;
+    private ColumnBatch batch;
+    private long[] uids = new long[ColumnBatch.CAPACITY];
+    private long[] xmin = new long[ColumnBatch.CAPACITY];
+    private long[] xmax = new long[ColumnBatch.CAPACITY];
+    private boolean[] cached = new boolean[ColumnBatch.CAPACITY];
+    private long[] fetch = new long[ColumnBatch.CAPACITY];
+    private RowBatch rows = new RowBatch();
+    private int[] visible = new int[ColumnBatch.CAPACITY]; // 本批中可见的行
+    private int visibleCount;
+    private int pos; // visible 中下一个要给出的
+
+    HeapScanOperator(VersionManager vm, long xid, HeapScan heap, RowFilter filter, ColumnBatch batch) {
+        this.vm = vm;
+        this.xid = xid;
+        this.heap = heap;
+        this.filter = filter;
+        this.batch = batch;
+    }
+
+    @Override
+    public ColumnBatch next(int max) throws Exception {
+        while (pos == visibleCount) {
+            if (!fill()) {
+                return null;
+            }
+        }
+        int n = Math.min(max, visibleCount - pos);
+        batch.select(visible, pos, n);
+        pos += n;
+        return batch;
+    }
+
+    // 装入下一批版本，过滤后判断可见性，扫描完了返回 false
+    private boolean fill() throws Exception {
+        batch.reset();
+        while (!batch.isFull() && heap.next()) {
+            SubArray row = heap.row();
+            int r = batch.add(row.raw, row.start, row.end);
+            uids[r] = heap.uid();
+            xmin[r] = heap.xmin();
+            xmax[r] = heap.xmax();
+            cached[r] = heap.cached();
+        }
+        if (batch.size == 0) {
+            return false;
+        }
+        batch.selectAll();
+        filter.filter(batch);
+        int m = 0;
+        for (int i = 0; i < batch.selected; i++) {
+            int r = batch.sel[i];
+            if (cached[r]) {
+                fetch[m++] = uids[r];
+            }
+        }
+        if (m > 0) {
+            vm.readMany(xid, fetch, 0, m, rows);
+        }
+        visibleCount = 0;
+        pos = 0;
+        for (int i = 0, j = 0; i < batch.selected; i++) {
+            int r = batch.sel[i];
+            if (cached[r] ? rows.get(j++) != null : heap.isVisible(xmin[r], xmax[r])) {
+                visible[visibleCount++] = r;
+            }
+        }
+        return true;
+    }
+}
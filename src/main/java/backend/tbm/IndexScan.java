@@ -0,0 +1,86 @@
+package backend.tbm;
+
+import backend.im.RangeCursor;
+
+/**
+ * 一次索引范围扫描：用字段自己的索引 (field) 或组合索引 (index) 扫描 range
+ * 索引只存键的前 maxKeySize 字节，range 在这里按同样的规则截断；截断使范围变大时 (isLossy)，
+ * 取出的行要用完整的条件重新判断，长度达到上限的键也不能当作列值直接输出 (isExact)
+ */
+class IndexScan {
+    Field field;
+    CompositeIndex index;
+    FieldCalRes range;
+    private int maxKeySize;
+
+    IndexScan(Field field, FieldCalRes range) {
+        this.field = field;
+        this.maxKeySize = field.maxKeySize();
+        this.range = range.truncate(maxKeySize);
+    }
+
+    IndexScan(CompositeIndex index, FieldCalRes range) {
+        this.index = index;
+        this.maxKeySize = index.maxKeySize();
+        this.range = range.truncate(maxKeySize);
+    }
+
+    /**
+     * 扫描结果中是否可能有不满足条件的行
+     */
+    boolean isLossy() {
+        return range.lossy;
+    }
+
+    /**
+     * 取出的键是否是完整的，可能被截断过的键不能解出列值
+     */
+    boolean isExact(byte[] key) {
+        return key.length < maxKeySize;
+    }
+
+    /**
+     * 索引键中是否含有 names 中的所有列
+     */
+    boolean covers(String[] names) {
+        for (String name : names) {
+            boolean found = false;
+            if (field != null) {
+                found = field.fieldName.equals(name);
+            } else {
+                for (Field f : index.columns) {
+                    if (f.fieldName.equals(name)) {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 估计扫描取出的行数
+     */
+    double estimate() throws Exception {
+        return field != null ? field.stats.estimate(range) : index.stats.estimate(range);
+    }
+
+    RangeCursor cursor(boolean withKeys) throws Exception {
+        return field != null ? field.cursor(range, withKeys) : index.cursor(range, withKeys);
+    }
+
+    /**
+     * 从键中解出索引覆盖的列，放进 row 中对应的位置
+     */
+    void decode(byte[] key, Object[] row) {
+        if (field != null) {
+            row[field.column] = field.key2Value(key);
+        } else {
+            index.decodeKey(key, row);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package backend.tbm;
+
+import backend.common.RowBatch;
+import backend.common.SubArray;
+import backend.im.RangeCursor;
+import backend.vm.VersionManager;
+
+/**
+ * 按键序扫描一个索引，给出可见的行，输出顺序与索引顺序一致
+ * 覆盖扫描时所在页全部可见 (见 VisibilityMap) 且键是完整的版本直接从键中取值，其余的一批回表 (VersionManager.readMany)
+ * 每批只从索引中取出 max 项，有 LIMIT 时不多读
+ */
+class IndexScanOperator implements Operator {
+    private VersionManager vm;
+    private long xid;
+    private IndexScan scan;
+    private boolean covering;
+    private VisibilityMap vis;
+    private long since;
+    private RangeCursor cursor;
+    private ColumnBatch batch;
+    private byte[][] keys = new byte[ColumnBatch.CAPACITY][]; // 能直接从键中取值的项
+    private long[] fetch = new long[ColumnBatch.CAPACITY]; // 要回表的项
+    private RowBatch rows = new RowBatch();
+    private Object[] decoded;
+
+    IndexScanOperator(VersionManager vm, long xid, IndexScan scan, boolean covering, VisibilityMap vis,
+            ColumnBatch batch) throws Exception {
+        this.vm = vm;
+        this.xid = xid;
+        this.scan = scan;
+        this.covering = covering;
+        this.vis = vis;
+        this.since = vis.now();
+        this.cursor = scan.cursor(covering);
+        this.batch = batch;
+        this.decoded = new Object[batch.codec.columns()];
+    }
+
+    @Override
+    public ColumnBatch next(int max) throws Exception {
+        batch.reset();
+        int want = Math.min(max, ColumnBatch.CAPACITY);
+        while (batch.size == 0 && cursor.hasNext()) {
+            int n = 0;
+            int m = 0;
+            while (n < want && cursor.hasNext()) {
+                long uid = cursor.next();
+                keys[n] = covering && vis.isAllVisible(uid, since) ? cursor.key() : null;
+                if (keys[n] != null && !scan.isExact(keys[n])) {
+                    keys[n] = null;
+                }
+                if (keys[n] == null) {
+                    fetch[m++] = uid;
+                }
+                n++;
+            }
+            vm.readMany(xid, fetch, 0, m, rows);
+            for (int i = 0, j = 0; i < n; i++) {
+                if (keys[i] != null) {
+                    scan.decode(keys[i], decoded);
+                    batch.add(decoded);
+                    continue;
+                }
+                SubArray row = rows.get(j++);
+                if (row != null) {
+                    batch.add(row.raw, row.start, row.end);
+                }
+            }
+        }
+        if (batch.size == 0) {
+            return null;
+        }
+        batch.selectAll();
+        return batch;
+    }
+}
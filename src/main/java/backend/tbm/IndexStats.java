@@ -0,0 +1,269 @@
+package backend.tbm;
+
+import backend.im.BPlusTree;
+import backend.im.RangeCursor;
+import backend.utils.Parser;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一棵索引的统计信息：最小最大键、不同键数和等深直方图，供 Table.plan 估计范围内的行数
+ *
+ * 直方图给出范围内的键所占的比例，乘以表的存活行数 (Table.rows) 得到估计的行数
+ * 收集时扫描一遍叶子，对键做蓄水池抽样，排好序后按等深分成 BUCKETS 个桶，相邻两个边界之间的键数约相等
+ * 收集在后台线程上进行 (见 StatsStore)：打开时没有保存的直方图、或索引项的增删累计超过上次收集时
+ * 键数的 1/5 时提交一次收集，收集完成前继续使用旧的直方图，还没有直方图时按固定的比例估计
+ */
+class IndexStats {
+    private static final int SAMPLE = 4096;
+    private static final int BUCKETS = 64;
+    // 没有直方图时：等值条件和范围条件取出的行数比例 (System R 的默认值)，以及表的行数也未知时假设的行数
+    private static final double DEFAULT_EQ_FRACTION = 0.1;
+    private static final double DEFAULT_RANGE_FRACTION = 1.0 / 3;
+    private static final long DEFAULT_ROWS = 1000;
+
+    private Table tb;
+    private BPlusTree bt;
+    private long id; // B+ 树的 UID，统计按它保存
+    private AtomicLong changes = new AtomicLong(); // 上次收集后的增删数
+    private AtomicBoolean collecting = new AtomicBoolean(); // 已提交的收集还没完成
+    private volatile Histogram hist;
+
+    /**
+     * 加载索引 id 的统计：有保存的直方图时直接使用，否则提交一次收集
+     * created 为 true 表示索引刚刚创建，是空的，不需要收集
+     */
+    IndexStats(Table tb, BPlusTree bt, long id, boolean created) {
+        this.tb = tb;
+        this.bt = bt;
+        this.id = id;
+        if (created) {
+            hist = new Histogram(0, new byte[0][]);
+            return;
+        }
+        byte[] raw = ((TableManagerImpl) tb.tbm).stats.get(id);
+        if (raw != null) {
+            hist = Histogram.decode(raw);
+        } else {
+            refresh();
+        }
+    }
+
+    /**
+     * 索引中增删了 n 项，累计足够多时在后台重新收集
+     */
+    void changed(int n) {
+        long c = changes.addAndGet(n);
+        Histogram h = hist;
+        if (h != null && c > h.rows / 5 + 64) {
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        if (!collecting.compareAndSet(false, true)) {
+            return;
+        }
+        ((TableManagerImpl) tb.tbm).stats.submit(() -> {
+            try {
+                changes.set(0);
+                hist = collect();
+            } finally {
+                collecting.set(false);
+            }
+        });
+    }
+
+    /**
+     * 把直方图放进要写回的统计中
+     */
+    void save(Map<Long, byte[]> stats) {
+        Histogram h = hist;
+        if (h != null) {
+            stats.put(id, h.encode());
+        }
+    }
+
+    /**
+     * 估计 range 内的行数，不会访问索引
+     */
+    double estimate(FieldCalRes range) {
+        Histogram h = hist;
+        long rows = tb.rows();
+        if (h == null) {
+            boolean eq = range.right != null && range.rightInclusive && Arrays.equals(range.left, range.right);
+            boolean all = range.right == null && range.left.length == 0;
+            double frac = all ? 1 : eq ? DEFAULT_EQ_FRACTION : DEFAULT_RANGE_FRACTION;
+            return frac * (rows < 0 ? DEFAULT_ROWS : rows);
+        }
+        if (rows < 0) {
+            // 表的行数还在后台统计，暂用索引中的键数 (含还没清理的旧版本)
+            rows = h.rows;
+        }
+        if (h.rows == 0 || rows == 0) {
+            return 0;
+        }
+        double lo = h.fractionBelow(range.left);
+        double hi = range.right == null ? 1 : range.rightInclusive
+                ? h.fractionAtMost(range.right) : h.fractionBelow(range.right);
+        double frac = Math.max(hi - lo, 0);
+        if (range.right != null && range.rightInclusive && Arrays.equals(range.left, range.right)
+                && h.contains(range.left)) {
+            // 等值条件落在两个边界之间时按平均每个键的行数估计
+            frac = Math.max(frac, 1.0 / h.distinct);
+        }
+        return frac * rows;
+    }
+
+    private Histogram collect() throws Exception {
+        byte[][] sample = new byte[SAMPLE][];
+        Random random = new Random(SAMPLE);
+        long rows = 0;
+        RangeCursor cursor = bt.cursor(new byte[0], null, true, true);
+        while (cursor.hasNext()) {
+            cursor.next();
+            if (rows < SAMPLE) {
+                sample[(int) rows] = cursor.key();
+            } else {
+                long j = (long) (random.nextDouble() * (rows + 1));
+                if (j < SAMPLE) {
+                    sample[(int) j] = cursor.key();
+                }
+            }
+            rows++;
+        }
+        int m = (int) Math.min(rows, SAMPLE);
+        sample = Arrays.copyOf(sample, m);
+        Arrays.sort(sample, Arrays::compareUnsigned);
+        return new Histogram(rows, sample);
+    }
+
+    /**
+     * 直方图，保存的格式: [Rows(8)][Distinct(8)][BoundCount(2)] 之后每个边界 [Length(2)][Key]
+     */
+    private static class Histogram {
+        long rows; // 收集时索引中的键数，含还没清理的旧版本
+        byte[][] bounds; // BUCKETS + 1 个边界，第一个是最小键，最后一个是最大键
+        double distinct;
+
+        private Histogram() {
+        }
+
+        static Histogram decode(byte[] raw) {
+            Histogram h = new Histogram();
+            h.rows = Parser.getLong(raw, 0);
+            h.distinct = Double.longBitsToDouble(Parser.getLong(raw, 8));
+            int n = Parser.getShort(raw, 16) & 0xFFFF;
+            h.bounds = new byte[n][];
+            int pos = 18;
+            for (int i = 0; i < n; i++) {
+                int len = Parser.getShort(raw, pos) & 0xFFFF;
+                h.bounds[i] = Arrays.copyOfRange(raw, pos + 2, pos + 2 + len);
+                pos += 2 + len;
+            }
+            return h;
+        }
+
+        byte[] encode() {
+            int size = 18;
+            for (byte[] b : bounds) {
+                size += 2 + b.length;
+            }
+            byte[] raw = new byte[size];
+            Parser.putLong(raw, 0, rows);
+            Parser.putLong(raw, 8, Double.doubleToLongBits(distinct));
+            Parser.putShort(raw, 16, (short) bounds.length);
+            int pos = 18;
+            for (byte[] b : bounds) {
+                Parser.putShort(raw, pos, (short) b.length);
+                System.arraycopy(b, 0, raw, pos + 2, b.length);
+                pos += 2 + b.length;
+            }
+            return raw;
+        }
+
+        Histogram(long rows, byte[][] sample) {
+            this.rows = rows;
+            int m = sample.length;
+            if (m == 0) {
+                bounds = new byte[0][];
+                distinct = 1;
+                return;
+            }
+            int buckets = Math.min(BUCKETS, m);
+            bounds = new byte[buckets + 1][];
+            for (int i = 0; i <= buckets; i++) {
+                bounds[i] = sample[(int) ((long) i * (m - 1) / buckets)];
+            }
+            // 抽样中的不同键数 d 和只出现一次的键数 f1 推算全体的不同键数 (Haas-Stokes Duj1)
+            int d = 0;
+            int f1 = 0;
+            for (int i = 0; i < m; ) {
+                int j = i + 1;
+                while (j < m && Arrays.equals(sample[i], sample[j])) {
+                    j++;
+                }
+                d++;
+                if (j - i == 1) {
+                    f1++;
+                }
+                i = j;
+            }
+            distinct = m == rows ? d : (double) m * d / (m - f1 + (double) f1 * m / rows);
+            distinct = Math.max(distinct, 1);
+        }
+
+        boolean contains(byte[] key) {
+            return bounds.length > 0 && Arrays.compareUnsigned(key, bounds[0]) >= 0
+                    && Arrays.compareUnsigned(key, bounds[bounds.length - 1]) <= 0;
+        }
+
+        // 键小于 key 的行所占的比例
+        double fractionBelow(byte[] key) {
+            int lt = 0;
+            while (lt < bounds.length && Arrays.compareUnsigned(bounds[lt], key) < 0) {
+                lt++;
+            }
+            return fraction(lt, key);
+        }
+
+        // 键不大于 key 的行所占的比例
+        double fractionAtMost(byte[] key) {
+            int le = 0;
+            while (le < bounds.length && Arrays.compareUnsigned(bounds[le], key) <= 0) {
+                le++;
+            }
+            return fraction(le, key);
+        }
+
+        // 有 n 个边界在 key 之前：key 落在第 n - 1 个桶中，按键在桶内线性插值
+        private double fraction(int n, byte[] key) {
+            if (n == 0) {
+                return 0;
+            }
+            if (n == bounds.length) {
+                return 1;
+            }
+            byte[] loKey = bounds[n - 1];
+            byte[] hiKey = bounds[n];
+            // 桶内的键有相同的前缀，从第一个不同的字节起取 8 个字节看作无符号数
+            int from = Arrays.mismatch(loKey, hiKey);
+            double lo = numeric(loKey, from);
+            double hi = numeric(hiKey, from);
+            double pos = hi > lo ? (numeric(key, from) - lo) / (hi - lo) : 0.5;
+            return (n - 1 + Math.min(Math.max(pos, 0), 1)) / (bounds.length - 1);
+        }
+
+        private static double numeric(byte[] key, int from) {
+            double v = 0;
+            for (int i = from; i < from + 8; i++) {
+                v = v * 256 + (i >= 0 && i < key.length ? key[i] & 0xFF : 0);
+            }
+            return v;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package backend.tbm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 索引清理：把已对所有事务不可见的记录版本从索引中删掉，使索引大小跟随存活的行数
+ *
+ * 事务执行时记下它删除的版本 (提交后成为垃圾) 和插入的版本 (回滚后成为垃圾)，
+ * 事务结束时把对应的一批放进待清理队列。提交和回滚时顺带清理队首一批：
+ * 版本由 VM 确认已不可见 (见 Visibility.isGarbage) 才删除它的索引项，否则留到以后再试。
+ * 待清理的版本只在内存中，重启后丢失的只是一些多余的索引项，查询时照常被可见性过滤掉
+ *
+ * 同时维护页的可见性提示 (VisibilityMap)：记下的每个版本都是所在页的一次改动，
+ * 清理掉索引项、或提交的插入已对所有事务可见时，这次改动才落定
+ */
+class IndexVacuum {
+    // 每次提交/回滚时最多清理的版本数
+    private static final int BATCH = 64;
+
+    private TableManagerImpl tbm;
+    private VisibilityMap vis;
+    private Map<Long, TxnGarbage> txns;
+    private Deque<Garbage> queue;
+    private Deque<TxnGarbage> committedTxns; // 已提交、插入的版本还没对所有事务可见的事务
+    private Lock lock;
+
+    IndexVacuum(TableManagerImpl tbm, VisibilityMap vis) {
+        this.tbm = tbm;
+        this.vis = vis;
+        this.txns = new HashMap<>();
+        this.queue = new ArrayDeque<>();
+        this.committedTxns = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * 事务 xid 删除了 tb 中的版本 uid
+     */
+    void deleted(long xid, Table tb, long uid) {
+        lock.lock();
+        try {
+            txn(xid).deleted.add(new Garbage(tb, uid));
+        } finally {
+            lock.unlock();
+        }
+        vis.changed(uid);
+    }
+
+    /**
+     * 事务 xid 在 tb 中插入了版本 uid
+     */
+    void inserted(long xid, Table tb, long uid) {
+        lock.lock();
+        try {
+            txn(xid).inserted.add(new Garbage(tb, uid));
+        } finally {
+            lock.unlock();
+        }
+        vis.changed(uid);
+    }
+
+    private TxnGarbage txn(long xid) {
+        TxnGarbage g = txns.get(xid);
+        if (g == null) {
+            g = new TxnGarbage(xid);
+            txns.put(xid, g);
+        }
+        return g;
+    }
+
+    /**
+     * 事务结束：提交时它删除的版本、回滚时它插入的版本进入待清理队列
+     * 回滚的删除没有改变任何版本的可见性，立即落定；提交时按插入和删除的版本数增减各表的存活行数
+     */
+    void end(long xid, boolean committed) {
+        TxnGarbage g;
+        lock.lock();
+        try {
+            g = txns.remove(xid);
+            if (g == null) {
+                return;
+            }
+            if (committed) {
+                queue.addAll(g.deleted);
+                committedTxns.addLast(g);
+            } else {
+                queue.addAll(g.inserted);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!committed) {
+            for (Garbage d : g.deleted) {
+                vis.settled(d.uid);
+            }
+            return;
+        }
+        for (Garbage ins : g.inserted) {
+            ins.tb.rowsChanged(1);
+        }
+        for (Garbage d : g.deleted) {
+            d.tb.rowsChanged(-1);
+        }
+    }
+
+    /**
+     * 清理队首的一批，遇到还有事务可能看到的版本就停下，放回队首
+     * 再落定已对所有事务可见的那些已提交事务的插入
+     */
+    void collect() throws Exception {
+        collectGarbage();
+        while (true) {
+            TxnGarbage g;
+            lock.lock();
+            try {
+                g = committedTxns.peekFirst();
+                if (g == null || !tbm.vm.isVisibleToAll(g.xid)) {
+                    return;
+                }
+                committedTxns.pollFirst();
+            } finally {
+                lock.unlock();
+            }
+            for (Garbage ins : g.inserted) {
+                vis.settled(ins.uid);
+            }
+        }
+    }
+
+    private void collectGarbage() throws Exception {
+        List<Garbage> batch = new ArrayList<>();
+        lock.lock();
+        try {
+            while (batch.size() < BATCH && !queue.isEmpty()) {
+                batch.add(queue.pollFirst());
+            }
+        } finally {
+            lock.unlock();
+        }
+        int i = 0;
+        try {
+            for (; i < batch.size(); i++) {
+                Garbage g = batch.get(i);
+                byte[] raw = tbm.vm.readGarbage(g.uid);
+                if (raw == null) {
+                    break;
+                }
+                g.tb.deleteIndex(g.uid, raw);
+                vis.settled(g.uid);
+            }
+        } finally {
+            if (i < batch.size()) {
+                lock.lock();
+                try {
+                    for (int j = batch.size() - 1; j >= i; j--) {
+                        queue.addFirst(batch.get(j));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static class Garbage {
+        Table tb;
+        long uid;
+
+        Garbage(Table tb, long uid) {
+            this.tb = tb;
+            this.uid = uid;
+        }
+    }
+
+    private static class TxnGarbage {
+        long xid;
+        List<Garbage> deleted = new ArrayList<>();
+        List<Garbage> inserted = new ArrayList<>();
+
+        TxnGarbage(long xid) {
+            this.xid = xid;
+        }
+    }
+}
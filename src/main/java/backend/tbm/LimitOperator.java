@@ -0,0 +1,28 @@
+package backend.tbm;
+
+/**
+ * 最多给出 limit 行，够了就不再向下层拉取
+ */
+class LimitOperator implements Operator {
+    private Operator child;
+    private int remaining;
+
+    LimitOperator(Operator child, int limit) {
+        this.child = child;
+        this.remaining = limit;
+    }
+
+    @Override
+    public ColumnBatch next(int max) throws Exception {
+        if (remaining == 0) {
+            return null;
+        }
+        ColumnBatch b = child.next(Math.min(max, remaining));
+        if (b == null) {
+            return null;
+        }
+        b.selected = Math.min(b.selected, remaining);
+        remaining -= b.selected;
+        return b;
+    }
+}
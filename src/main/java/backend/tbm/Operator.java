@@ -0,0 +1,14 @@
+package backend.tbm;
+
+/**
+ * SELECT 的执行算子，由 Table.read 按 AccessPath 组成一条流水线，上层向下层逐批拉取：
+ * 扫描 (HeapScanOperator、IndexScanOperator、UidScanOperator) -> FilterOperator -> LimitOperator
+ * 各层之间传递 ColumnBatch，只在最后输出时才把选中的行格式化成文本
+ */
+interface Operator {
+    /**
+     * 下一批行，选中的不超过 max 行且至少一行，没有了返回 null
+     * 返回的 ColumnBatch 在下一次调用 next 之前有效
+     */
+    ColumnBatch next(int max) throws Exception;
+}
@@ -0,0 +1,129 @@
+package backend.tbm;
+
+import backend.utils.Parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 按表的字段编码记录，建表或加载表时根据字段生成一次
+ * 二进制格式：[Slot1][Slot2]...[SlotN][StringBytes]，字符串按 UTF-8 编码
+ * int32、int64 列的槽就是值本身 (4、8 字节)，string 列的槽是该字符串在记录中的结束位置 (4 字节)，
+ * 字符串的字节依次放在所有槽之后，从前一个 string 列的结束位置 (第一个从槽之后) 开始
+ * 每一列的槽在记录中的位置固定，取任一列都不必解析它前面的列
+ */
+class RowCodec {
+    private String[] names;
+    private boolean[] string;
+    private boolean[] int32;
+    private int[] slots; // 第 i 列的槽在记录中的位置
+    private int[] prevString; // 第 i 列之前最近的 string 列的槽的位置，没有时为 -1
+    private int fixedLen; // 所有槽的总长度
+
+    RowCodec(List<Field> fields) {
+        int n = fields.size();
+        names = new String[n];
+        string = new boolean[n];
+        int32 = new boolean[n];
+        slots = new int[n];
+        prevString = new int[n];
+        int pos = 0;
+        int prev = -1;
+        for (int i = 0; i < n; i++) {
+            Field f = fields.get(i);
+            names[i] = f.fieldName;
+            string[i] = "string".equals(f.fieldType);
+            int32[i] = "int32".equals(f.fieldType);
+            slots[i] = pos;
+            prevString[i] = prev;
+            if (string[i]) {
+                prev = pos;
+            }
+            pos += "int64".equals(f.fieldType) ? 8 : 4;
+        }
+        fixedLen = pos;
+    }
+
+    int columns() {
+        return names.length;
+    }
+
+    String name(int col) {
+        return names[col];
+    }
+
+    boolean isString(int col) {
+        return string[col];
+    }
+
+    /**
+     * 把按字段顺序排列的值编码成一条记录，只分配一次
+     */
+    byte[] encode(Object[] values) {
+        byte[][] strs = new byte[values.length][];
+        int len = fixedLen;
+        for (int i = 0; i < values.length; i++) {
+            if (string[i]) {
+                strs[i] = ((String) values[i]).getBytes(StandardCharsets.UTF_8);
+                len += strs[i].length;
+            }
+        }
+        byte[] raw = new byte[len];
+        int end = fixedLen;
+        for (int i = 0; i < values.length; i++) {
+            if (string[i]) {
+                System.arraycopy(strs[i], 0, raw, end, strs[i].length);
+                end += strs[i].length;
+                Parser.putInt(raw, slots[i], end);
+            } else if (int32[i]) {
+                Parser.putInt(raw, slots[i], (int) values[i]);
+            } else {
+                Parser.putLong(raw, slots[i], (long) values[i]);
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * 解出从 raw 的 off 处开始的记录的所有列
+     */
+    Object[] decode(byte[] raw, int off) {
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = value(raw, off, i);
+        }
+        return values;
+    }
+
+    /**
+     * 第 col 列的值
+     */
+    Object value(byte[] raw, int off, int col) {
+        if (string[col]) {
+            int from = stringStart(raw, off, col);
+            return new String(raw, from, stringEnd(raw, off, col) - from, StandardCharsets.UTF_8);
+        }
+        if (int32[col]) {
+            return Parser.getInt(raw, off + slots[col]);
+        }
+        return Parser.getLong(raw, off + slots[col]);
+    }
+
+    /**
+     * 整数列 col 的值
+     */
+    long getLong(byte[] raw, int off, int col) {
+        return int32[col] ? Parser.getInt(raw, off + slots[col]) : Parser.getLong(raw, off + slots[col]);
+    }
+
+    /**
+     * string 列 col 的字节在 raw 中从 stringStart 到 stringEnd
+     */
+    int stringStart(byte[] raw, int off, int col) {
+        return off + (prevString[col] < 0 ? fixedLen : Parser.getInt(raw, off + prevString[col]));
+    }
+
+    int stringEnd(byte[] raw, int off, int col) {
+        return off + Parser.getInt(raw, off + slots[col]);
+    }
+}
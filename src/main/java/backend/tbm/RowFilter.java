@@ -0,0 +1,203 @@
+package backend.tbm;
+
+import backend.common.SubArray;
+import backend.parser.statement;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 在记录的原始字节上判断 WHERE 条件，按 RowCodec 直接找到条件中的列，不解析出整行 (顺序扫描和索引扫描的剩余过滤用)
+ * 条件中的值预先编码好：整数解析成 long，字符串编码成与记录中相同的字节，比较时不再创建对象
+ * 字符串按字节无符号比较，与索引键的顺序一致
+ * filter 在 ColumnBatch 的列上成批判断，每个条件是一个对列数组的循环，只缩小选中的行
+ */
+class RowFilter {
+    private RowCodec codec;
+    private Condition exp1; // 为 null 表示没有条件
+    private Condition exp2;
+    private boolean or;
+    private int[] tmp1; // or 时 filter 用的临时选中行
+    private int[] tmp2;
+
+    RowFilter(Table tb, statement.Where where) {
+        this.codec = tb.codec;
+        if (where != null) {
+            exp1 = new Condition(tb, where.singleExp1);
+            if (where.singleExp2 != null) {
+                exp2 = new Condition(tb, where.singleExp2);
+                or = "or".equals(where.logicOp);
+            }
+        }
+    }
+
+    boolean matches(SubArray row) {
+        if (exp1 == null) {
+            return true;
+        }
+        boolean m = exp1.matches(row, codec);
+        if (exp2 == null || m == or) {
+            return m;
+        }
+        return exp2.matches(row, codec);
+    }
+
+    /**
+     * 在 load 中标出条件用到的列
+     */
+    void columns(boolean[] load) {
+        if (exp1 != null) {
+            load[exp1.field] = true;
+        }
+        if (exp2 != null) {
+            load[exp2.field] = true;
+        }
+    }
+
+    /**
+     * 在 b 选中的行中只留下满足条件的
+     */
+    void filter(ColumnBatch b) {
+        if (exp1 == null) {
+            return;
+        }
+        if (exp2 == null) {
+            b.selected = exp1.filter(b, b.sel, b.selected, b.sel);
+            return;
+        }
+        if (!or) {
+            b.selected = exp1.filter(b, b.sel, b.selected, b.sel);
+            b.selected = exp2.filter(b, b.sel, b.selected, b.sel);
+            return;
+        }
+        // 不满足 exp1 的行再用 exp2 判断，两部分按行号归并
+        if (tmp1 == null) {
+            tmp1 = new int[ColumnBatch.CAPACITY];
+            tmp2 = new int[ColumnBatch.CAPACITY];
+        }
+        int n1 = exp1.filter(b, b.sel, b.selected, tmp1);
+        int rest = 0;
+        for (int i = 0, j = 0; i < b.selected; i++) {
+            if (j < n1 && tmp1[j] == b.sel[i]) {
+                j++;
+            } else {
+                tmp2[rest++] = b.sel[i];
+            }
+        }
+        int n2 = exp2.filter(b, tmp2, rest, tmp2);
+        int n = 0;
+        for (int i = 0, j = 0; i < n1 || j < n2; ) {
+            b.sel[n++] = j == n2 || i < n1 && tmp1[i] < tmp2[j] ? tmp1[i++] : tmp2[j++];
+        }
+        b.selected = n;
+    }
+
+    /**
+     * 单个条件：第 field 列与 value 比较
+     */
+    private static class Condition {
+        int field;
+        String op;
+        boolean string;
+        long num;
+        byte[] str;
+
+        Condition(Table tb, statement.SingleExpression exp) {
+            Field f = tb.findField(exp.field);
+            field = f.column;
+            op = exp.compareOp;
+            string = "string".equals(f.fieldType);
+            if ("like".equals(op)) {
+                str = f.likePrefix(exp.value).getBytes(StandardCharsets.UTF_8);
+                return;
+            }
+            if (!"=".equals(op) && !"<".equals(op) && !">".equals(op)) {
+                throw new RuntimeException("Invalid compare operator: " + op);
+            }
+            Object v = f.string2Value(exp.value);
+            if (string) {
+                str = ((String) v).getBytes(StandardCharsets.UTF_8);
+            } else {
+                num = ((Number) v).longValue();
+            }
+        }
+
+        boolean matches(SubArray row, RowCodec codec) {
+            int c;
+            if (string) {
+                int from = codec.stringStart(row.raw, row.start, field);
+                int to = codec.stringEnd(row.raw, row.start, field);
+                if ("like".equals(op)) {
+                    return to - from >= str.length
+                            && Arrays.equals(row.raw, from, from + str.length, str, 0, str.length);
+                }
+                c = Arrays.compareUnsigned(row.raw, from, to, str, 0, str.length);
+            } else {
+                c = Long.compare(codec.getLong(row.raw, row.start, field), num);
+            }
+            switch (op) {
+                case "=":
+                    return c == 0;
+                case "<":
+                    return c < 0;
+                default:
+                    return c > 0;
+            }
+        }
+
+        /**
+         * 从 in 的前 n 行中选出满足条件的放进 out (可以就是 in)，返回个数
+         */
+        int filter(ColumnBatch b, int[] in, int n, int[] out) {
+            int m = 0;
+            if (!string) {
+                long[] v = b.longs(field);
+                switch (op) {
+                    case "=":
+                        for (int i = 0; i < n; i++) {
+                            int r = in[i];
+                            if (v[r] == num) {
+                                out[m++] = r;
+                            }
+                        }
+                        break;
+                    case "<":
+                        for (int i = 0; i < n; i++) {
+                            int r = in[i];
+                            if (v[r] < num) {
+                                out[m++] = r;
+                            }
+                        }
+                        break;
+                    default:
+                        for (int i = 0; i < n; i++) {
+                            int r = in[i];
+                            if (v[r] > num) {
+                                out[m++] = r;
+                            }
+                        }
+                }
+                return m;
+            }
+            byte[] data = b.data;
+            int[] from = b.strFrom(field);
+            int[] to = b.strTo(field);
+            boolean like = "like".equals(op);
+            for (int i = 0; i < n; i++) {
+                int r = in[i];
+                boolean match;
+                if (like) {
+                    match = to[r] - from[r] >= str.length
+                            && Arrays.equals(data, from[r], from[r] + str.length, str, 0, str.length);
+                } else {
+                    int c = Arrays.compareUnsigned(data, from[r], to[r], str, 0, str.length);
+                    match = "=".equals(op) ? c == 0 : "<".equals(op) ? c < 0 : c > 0;
+                }
+                if (match) {
+                    out[m++] = r;
+                }
+            }
+            return m;
+        }
+    }
+}
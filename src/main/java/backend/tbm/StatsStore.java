@@ -0,0 +1,156 @@
+package backend.tbm;
+
+import backend.utils.Panic;
+import backend.utils.Parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 优化器统计的持久化和后台收集
+ * 统计存在 .stat 文件中：每张表的存活行数 (Table.rows) 和每个索引的直方图 (IndexStats)。
+ * 和 .fsm 一样只是提示：丢失或过时只影响代价估计，打开时没有的统计由后台线程重新收集
+ * 文件结构: [Count(4)] 之后 Count 项 [Id(8)][Length(4)][Data]，Id 为表的 UID 或索引 B+ 树的 UID
+ *
+ * 收集统计和定期写回都在同一个后台线程上执行，查询线程只读取已有的统计，从不扫描索引
+ */
+class StatsStore {
+    static final String STATS_SUFFIX = ".stat";
+    static final String STATS_TMP_SUFFIX = ".stat_tmp";
+    private static final long SAVE_INTERVAL_MS = 30 * 1000; // 定期写回的周期
+
+    private String path;
+    private Map<Long, byte[]> saved; // 打开时从文件读出的统计
+    private List<Table> tables;
+    private ScheduledExecutorService collector;
+
+    private StatsStore(String path, Map<Long, byte[]> saved) {
+        this.path = path;
+        this.saved = saved;
+        this.tables = new CopyOnWriteArrayList<>();
+        this.collector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stats-collector");
+            t.setDaemon(true);
+            return t;
+        });
+        collector.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MS, SAVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 读出 path 对应的 .stat 文件，文件不存在或不完整时当作没有统计
+     */
+    static StatsStore open(String path) {
+        new File(path + STATS_TMP_SUFFIX).delete();
+        Map<Long, byte[]> saved = new HashMap<>();
+        File f = new File(path + STATS_SUFFIX);
+        if (f.exists()) {
+            try {
+                byte[] raw = Files.readAllBytes(f.toPath());
+                int count = Parser.getInt(raw, 0);
+                int pos = 4;
+                for (int i = 0; i < count; i++) {
+                    long id = Parser.getLong(raw, pos);
+                    int len = Parser.getInt(raw, pos + 8);
+                    pos += 12;
+                    byte[] data = new byte[len];
+                    System.arraycopy(raw, pos, data, 0, len);
+                    pos += len;
+                    saved.put(id, data);
+                }
+            } catch (IOException | RuntimeException e) {
+                saved.clear();
+            }
+        }
+        return new StatsStore(path, saved);
+    }
+
+    /**
+     * 打开时读出的 id 的统计，没有时返回 null
+     */
+    byte[] get(long id) {
+        return saved.get(id);
+    }
+
+    /**
+     * 登记一张表，之后写回时带上它和它的索引的统计
+     */
+    void register(Table tb) {
+        tables.add(tb);
+    }
+
+    /**
+     * 在后台线程上执行一次统计收集
+     */
+    void submit(StatsTask task) {
+        collector.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+        });
+    }
+
+    interface StatsTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * 把所有表的统计写入临时文件再原子地重命名 (同 Booter.update)
+     */
+    void save() {
+        Map<Long, byte[]> stats = new HashMap<>();
+        for (Table tb : tables) {
+            tb.saveStats(stats);
+        }
+        int size = 4;
+        for (byte[] data : stats.values()) {
+            size += 12 + data.length;
+        }
+        byte[] raw = new byte[size];
+        Parser.putInt(raw, 0, stats.size());
+        int pos = 4;
+        for (Map.Entry<Long, byte[]> e : stats.entrySet()) {
+            Parser.putLong(raw, pos, e.getKey());
+            Parser.putInt(raw, pos + 8, e.getValue().length);
+            pos += 12;
+            System.arraycopy(e.getValue(), 0, raw, pos, e.getValue().length);
+            pos += e.getValue().length;
+        }
+        File tmp = new File(path + STATS_TMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(raw);
+            out.flush();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        try {
+            Files.move(tmp.toPath(), new File(path + STATS_SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 等待进行中的收集完成，再写回一次
+     */
+    void close() {
+        collector.shutdown();
+        try {
+            collector.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        save();
+    }
+}
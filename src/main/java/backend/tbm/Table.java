@@ -1,24 +1,39 @@
 package backend.tbm;
 
+import backend.common.LongList;
+import backend.common.RowBatch;
+import backend.common.SubArray;
+import backend.im.RangeCursor;
 import backend.parser.statement;
 import backend.tm.TransactionManagerImpl;
+import backend.vm.HeapScan;
+import backend.vm.VersionManager;
 import backend.utils.Bytes;
 import backend.utils.Panic;
 import backend.utils.Parser;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Table 表示数据库中的一张表
  * 二进制格式：[TableName][NextTableUid][Field1Uid][Field2Uid]...[FieldNUid]
+ * 有组合索引时后接 [0][Index1Uid]...[IndexMUid]，0 不是合法的 UID，用来分隔字段和组合索引
  */
 public class Table {
+    private static final int FETCH_BATCH = 64; // 每次批量回表的记录数
     TableManager tbm; // 表管理器引用
     long uid; // 表在 VM 中的 UID
     String name; // 表名
     byte status; // 表状态
     long nextUid; // 下一张表的 UID（链表结构）
     List<Field> fields = new ArrayList<>(); // 字段列表
+    List<CompositeIndex> indexes = new ArrayList<>(); // 组合索引列表
+    RowCodec codec; // 按字段生成的记录编码
+    // 已提交的存活行数，事务提交时按它插入和删除的版本增减 (见 IndexVacuum.end)，-1 表示还在后台统计
+    private AtomicLong rows = new AtomicLong(-1);
 
     public Table(TableManager tbm, long uid) {
         this.tbm = tbm;
@@ -43,7 +58,74 @@ public class Table {
         }
         assert raw != null;
         Table tb = new Table(tbm, uid);
-        return tb.parseSelf(raw);
+        tb.parseSelf(raw);
+        tb.loadRows();
+        return tb;
+    }
+
+    // 行数取保存的统计，没有时在后台数一遍
+    private void loadRows() {
+        StatsStore stats = ((TableManagerImpl) tbm).stats;
+        byte[] raw = stats.get(uid);
+        if (raw != null) {
+            rows.set(Parser.getLong(raw, 0));
+        } else {
+            stats.submit(this::countRows);
+        }
+        stats.register(this);
+    }
+
+    /**
+     * 数一遍对新事务可见的行，作为存活行数的起点
+     * 计数期间提交的增删可能被重复计入或漏掉，只影响代价估计
+     */
+    private void countRows() throws Exception {
+        VersionManager vm = ((TableManagerImpl) tbm).vm;
+        long xid = vm.begin(0);
+        long n = 0;
+        try {
+            HeapScan heap = vm.scan(xid, uid);
+            while (heap.next()) {
+                if (heap.read() != null) {
+                    n++;
+                }
+            }
+        } finally {
+            vm.commit(xid);
+        }
+        rows.compareAndSet(-1, n);
+    }
+
+    /**
+     * 表的存活行数，还不知道时返回 -1
+     */
+    long rows() {
+        return rows.get();
+    }
+
+    /**
+     * 提交的事务使存活行数变化了 n
+     */
+    void rowsChanged(long n) {
+        rows.getAndUpdate(r -> r < 0 ? r : r + n);
+    }
+
+    /**
+     * 把行数和各索引的直方图放进要写回的统计中
+     */
+    void saveStats(Map<Long, byte[]> stats) {
+        long n = rows.get();
+        if (n >= 0) {
+            stats.put(uid, Parser.long2Byte(n));
+        }
+        for (Field f : fields) {
+            if (f.isIndexed()) {
+                f.stats.save(stats);
+            }
+        }
+        for (CompositeIndex idx : indexes) {
+            idx.stats.save(stats);
+        }
     }
 
     /**
@@ -54,15 +136,23 @@ public class Table {
         ParseStringRes res = Parser.parseString(raw);
         name = res.str;
         position += res.next;
-        nextUid = Parser.parseLong(Arrays.copyOfRange(raw, position, position + 8));
+        nextUid = Parser.getLong(raw, position);
         position += 8;
 
-        // 解析所有字段 UID
+        // 解析所有字段 UID，遇到 0 后是组合索引 UID
+        boolean index = false;
         while (position < raw.length) {
-            long uid = Parser.parseLong(Arrays.copyOfRange(raw, position, position + 8));
+            long uid = Parser.getLong(raw, position);
             position += 8;
-            fields.add(Field.loadField(this, uid));
+            if (uid == 0) {
+                index = true;
+            } else if (index) {
+                indexes.add(CompositeIndex.loadIndex(this, uid));
+            } else {
+                addField(Field.loadField(this, uid));
+            }
         }
+        codec = new RowCodec(fields);
         return this;
     }
 
@@ -82,9 +172,23 @@ public class Table {
                     break;
                 }
             }
-            tb.fields.add(Field.createField(tb, xid, fieldName, fieldType, indexed));
+            tb.addField(Field.createField(tb, xid, fieldName, fieldType, indexed));
         }
-        return tb.persistSelf(xid);
+        tb.codec = new RowCodec(tb.fields);
+        if (create.compositeIndex != null) {
+            for (String[] columns : create.compositeIndex) {
+                tb.indexes.add(CompositeIndex.createIndex(tb, xid, columns));
+            }
+        }
+        tb.persistSelf(xid);
+        tb.rows.set(0);
+        ((TableManagerImpl) tbm).stats.register(tb);
+        return tb;
+    }
+
+    private void addField(Field f) {
+        f.column = fields.size();
+        fields.add(f);
     }
 
     /**
@@ -97,6 +201,12 @@ public class Table {
         for (Field f : fields) {
             fieldRaw = Bytes.concat(fieldRaw, Parser.long2Byte(f.uid));
         }
+        if (!indexes.isEmpty()) {
+            fieldRaw = Bytes.concat(fieldRaw, Parser.long2Byte(0));
+            for (CompositeIndex idx : indexes) {
+                fieldRaw = Bytes.concat(fieldRaw, Parser.long2Byte(idx.uid));
+            }
+        }
         uid = ((TableManagerImpl) tbm).vm.insert(xid, Bytes.concat(nameRaw, nextRaw, fieldRaw));
         return this;
     }
@@ -105,30 +215,74 @@ public class Table {
      * 插入数据
      */
     public void insert(long xid, statement.Insert insert) throws Exception {
-        Map<String, Object> entry = string2Entry(insert.values);
-        byte[] raw = entry2Raw(entry);
-        long uid = ((TableManagerImpl) tbm).vm.insert(xid, raw);
+        Object[] row = string2Row(insert.values);
+        byte[] raw = codec.encode(row);
+        long uid = ((TableManagerImpl) tbm).vm.insert(xid, raw, this.uid);
+        ((TableManagerImpl) tbm).vacuum.inserted(xid, this, uid);
+        insertIndex(row, uid);
+    }
+
+    // 把一行加入所有索引
+    private void insertIndex(Object[] row, long uid) throws Exception {
         for (Field f : fields) {
             if (f.isIndexed()) {
-                f.insert(entry.get(f.fieldName), uid);
+                f.insert(row[f.column], uid);
+            }
+        }
+        for (CompositeIndex idx : indexes) {
+            idx.insert(row, uid);
+        }
+    }
+
+    /**
+     * 批量插入数据：先写入所有记录，再按字段批量建索引，空表的索引自底向上一次构建
+     */
+    public int bulkInsert(long xid, List<String[]> rows) throws Exception {
+        int n = rows.size();
+        long[] uids = new long[n];
+        byte[][][] keys = new byte[fields.size()][][];
+        for (int j = 0; j < fields.size(); j++) {
+            if (fields.get(j).isIndexed()) {
+                keys[j] = new byte[n][];
+            }
+        }
+        byte[][][] indexKeys = new byte[indexes.size()][n][];
+        for (int i = 0; i < n; i++) {
+            Object[] row = string2Row(rows.get(i));
+            uids[i] = ((TableManagerImpl) tbm).vm.insert(xid, codec.encode(row), uid);
+            ((TableManagerImpl) tbm).vacuum.inserted(xid, this, uids[i]);
+            for (int j = 0; j < fields.size(); j++) {
+                if (keys[j] != null) {
+                    keys[j][i] = fields.get(j).value2Key(row[j]);
+                }
+            }
+            for (int j = 0; j < indexes.size(); j++) {
+                indexKeys[j][i] = indexes.get(j).key(row);
             }
         }
+        for (int j = 0; j < fields.size(); j++) {
+            if (keys[j] != null) {
+                fields.get(j).bulkInsert(keys[j], uids);
+            }
+        }
+        for (int j = 0; j < indexes.size(); j++) {
+            indexes.get(j).bulkInsert(indexKeys[j], uids);
+        }
+        return n;
     }
 
     /**
-     * 将值字符串数组转为 Map
+     * 将值字符串数组转为按字段顺序排列的值
      */
-    private Map<String, Object> string2Entry(String[] values) throws Exception {
+    private Object[] string2Row(String[] values) throws Exception {
         if (values.length != fields.size()) {
             throw new RuntimeException("Values count doesn't match fields count");
         }
-        Map<String, Object> entry = new HashMap<>();
+        Object[] row = new Object[fields.size()];
         for (int i = 0; i < fields.size(); i++) {
-            Field f = fields.get(i);
-            Object v = parseValue(f.fieldType, values[i]);
-            entry.put(f.fieldName, v);
+            row[i] = parseValue(fields.get(i).fieldType, values[i]);
         }
-        return entry;
+        return row;
     }
 
     /**
@@ -146,25 +300,15 @@ public class Table {
         return null;
     }
 
-    /**
-     * 将 Map 序列化为二进制
-     */
-    private byte[] entry2Raw(Map<String, Object> entry) {
-        byte[] raw = new byte[0];
-        for (Field f : fields) {
-            raw = Bytes.concat(raw, f.value2Raw(entry.get(f.fieldName)));
-        }
-        return raw;
-    }
-
     /**
      * 删除数据
      */
     public int delete(long xid, statement.Delete delete) throws Exception {
-        List<Long> uids = parseWhere(delete.where);
+        long[] uids = parseWhere(xid, delete.where);
         int count = 0;
-        for (Long uid : uids) {
+        for (long uid : uids) {
             if (((TableManagerImpl) tbm).vm.delete(xid, uid)) {
+                ((TableManagerImpl) tbm).vacuum.deleted(xid, this, uid);
                 count++;
             }
         }
@@ -175,177 +319,334 @@ public class Table {
      * 更新数据
      */
     public int update(long xid, statement.Update update) throws Exception {
-        List<Long> uids = parseWhere(update.where);
-        Field fd = null;
-        for (Field f : fields) {
-            if (f.fieldName.equals(update.fieldName)) {
-                fd = f;
-                break;
-            }
-        }
-        if (fd == null) {
-            throw new RuntimeException("Field not found: " + update.fieldName);
-        }
+        long[] uids = parseWhere(xid, update.where);
+        Field fd = findField(update.fieldName);
         Object value = parseValue(fd.fieldType, update.value);
         int count = 0;
-        for (Long uid : uids) {
-            byte[] raw = ((TableManagerImpl) tbm).vm.read(xid, uid);
-            if (raw == null)
-                continue;
-            ((TableManagerImpl) tbm).vm.delete(xid, uid);
-            Map<String, Object> entry = parseEntry(raw);
-            entry.put(fd.fieldName, value);
-            byte[] newRaw = entry2Raw(entry);
-            long newUid = ((TableManagerImpl) tbm).vm.insert(xid, newRaw);
-            // 更新索引
-            for (Field f : fields) {
-                if (f.isIndexed()) {
-                    f.insert(entry.get(f.fieldName), newUid);
+        RowBatch batch = new RowBatch();
+        for (int from = 0; from < uids.length; from += FETCH_BATCH) {
+            int to = Math.min(from + FETCH_BATCH, uids.length);
+            ((TableManagerImpl) tbm).vm.readMany(xid, uids, from, to, batch);
+            for (int i = 0; i < to - from; i++) {
+                SubArray row = batch.get(i);
+                if (row == null) {
+                    continue;
+                }
+                long uid = uids[from + i];
+                if (((TableManagerImpl) tbm).vm.delete(xid, uid)) {
+                    ((TableManagerImpl) tbm).vacuum.deleted(xid, this, uid);
                 }
+                Object[] values = codec.decode(row.raw, row.start);
+                values[fd.column] = value;
+                long newUid = ((TableManagerImpl) tbm).vm.insert(xid, codec.encode(values), this.uid);
+                ((TableManagerImpl) tbm).vacuum.inserted(xid, this, newUid);
+                // 更新索引
+                insertIndex(values, newUid);
+                count++;
             }
-            count++;
         }
         return count;
     }
 
     /**
-     * 查询数据
+     * 从所有索引中删除版本 uid 的索引项，raw 为该版本的数据
      */
-    public String read(long xid, statement.Select select) throws Exception {
-        List<Long> uids = parseWhere(select.where);
+    void deleteIndex(long uid, byte[] raw) throws Exception {
+        Object[] row = codec.decode(raw, 0);
+        for (Field f : fields) {
+            if (f.isIndexed()) {
+                f.delete(row[f.column], uid);
+            }
+        }
+        for (CompositeIndex idx : indexes) {
+            idx.delete(row, uid);
+        }
+    }
+
+    /**
+     * 查询数据，结果边产生边写入 out
+     * 按 plan 选出的访问路径组成算子流水线 (见 Operator)：扫描 -> 剩余过滤 -> LIMIT，逐批拉取
+     * 批中只取出要输出的列和条件用到的列，条件在列上成批判断，到达 LIMIT 就停下
+     * 只在这里把选中的行格式化成文本，每批写一次 out
+     */
+    public void read(long xid, statement.Select select, OutputStream out) throws Exception {
+        String[] shown = selectedFields(select.fields);
+        int[] cols = new int[shown.length];
+        boolean[] load = new boolean[fields.size()];
+        for (int i = 0; i < shown.length; i++) {
+            cols[i] = findField(shown[i]).column;
+            load[cols[i]] = true;
+        }
+        AccessPath path = plan(select.where, shown);
+        if (path.residual != null) {
+            path.residual.columns(load);
+        }
+        ColumnBatch batch = new ColumnBatch(codec, load);
+        VersionManager vm = ((TableManagerImpl) tbm).vm;
+        Operator op;
+        if (path.isHeap()) {
+            op = new HeapScanOperator(vm, xid, vm.scan(xid, uid), path.residual, batch);
+        } else {
+            if (path.scan2 == null) {
+                op = new IndexScanOperator(vm, xid, path.scan, path.covering, ((TableManagerImpl) tbm).vis, batch);
+            } else {
+                op = new UidScanOperator(vm, xid, merge(path), batch);
+            }
+            if (path.residual != null) {
+                op = new FilterOperator(op, path.residual);
+            }
+        }
+        if (select.limit >= 0) {
+            op = new LimitOperator(op, select.limit);
+        }
         StringBuilder sb = new StringBuilder();
-        for (Long uid : uids) {
-            byte[] raw = ((TableManagerImpl) tbm).vm.read(xid, uid);
-            if (raw == null)
-                continue;
-            Map<String, Object> entry = parseEntry(raw);
-            sb.append(printEntry(entry, select.fields)).append("\n");
+        for (ColumnBatch b = op.next(ColumnBatch.CAPACITY); b != null; b = op.next(ColumnBatch.CAPACITY)) {
+            for (int i = 0; i < b.selected; i++) {
+                b.print(b.sel[i], cols, sb);
+                sb.append('\n');
+            }
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            sb.setLength(0);
         }
-        return sb.toString();
     }
 
     /**
-     * 解析 WHERE 条件
+     * 解析 WHERE 条件，返回可能满足条件的记录，按 uid 即页面顺序排列
+     * 顺序扫描或带剩余过滤的索引扫描时读出记录判断，只返回对 xid 可见且满足条件的
+     */
+    private long[] parseWhere(long xid, statement.Where where) throws Exception {
+        AccessPath path = plan(where, null);
+        LongList uids = new LongList();
+        if (path.isHeap()) {
+            HeapScan heap = ((TableManagerImpl) tbm).vm.scan(xid, uid);
+            while (heap.next()) {
+                if (path.residual.matches(heap.row()) && heap.read() != null) {
+                    uids.add(heap.uid());
+                }
+            }
+            return uids.toArray();
+        }
+        long[] scanned = path.scan2 != null ? merge(path) : sortedUids(path.scan);
+        if (path.residual == null) {
+            return scanned;
+        }
+        RowBatch batch = new RowBatch();
+        for (int from = 0; from < scanned.length; from += FETCH_BATCH) {
+            int to = Math.min(from + FETCH_BATCH, scanned.length);
+            ((TableManagerImpl) tbm).vm.readMany(xid, scanned, from, to, batch);
+            for (int i = 0; i < to - from; i++) {
+                SubArray row = batch.get(i);
+                if (row != null && path.residual.matches(row)) {
+                    uids.add(scanned[from + i]);
+                }
+            }
+        }
+        return uids.toArray();
+    }
+
+    // 两个索引扫描的结果排序后求并或求交，结果按页面顺序回表
+    private long[] merge(AccessPath path) throws Exception {
+        long[] uids = sortedUids(path.scan);
+        long[] uids1 = sortedUids(path.scan2);
+        if (path.or) {
+            return mergeLists(uids, uids1);
+        } else {
+            return intersectLists(uids, uids1);
+        }
+    }
+
+    // 扫描出的所有 uid，按大小排序
+    private static long[] sortedUids(IndexScan scan) throws Exception {
+        LongList list = new LongList();
+        scan.cursor(false).drainTo(list);
+        long[] uids = list.toArray();
+        Arrays.sort(uids);
+        return uids;
+    }
+
+    /**
+     * 选出回答 where 代价最小的访问路径，shown 为要输出的列 (为 null 表示只要 uid，不能覆盖)
+     * 候选有顺序扫描，每个能用上的索引扫描 (and 的另一个条件作为剩余过滤)，
+     * and 连接的 "a = ?" 和 "b ..." 恰好是某个组合索引的前两列时的一次扫描，
+     * 同一字段上 and 的两个条件合成的一次扫描，以及两个条件各自扫描后求交或求并
+     * 扫描的范围因键被截断而变大 (IndexScan.isLossy) 时，取出的行用整个 where 重新过滤
+     * 代价相同时靠前的优先，顺序扫描最后比较
      */
-    private List<Long> parseWhere(statement.Where where) throws Exception {
-        long l0 = 0, r0 = 0, l1 = 0, r1 = 0;
-        boolean single = false;
-        Field fd = null;
+    private AccessPath plan(statement.Where where, String[] shown) throws Exception {
+        List<AccessPath> paths = new ArrayList<>();
         if (where == null) {
-            // 无条件，查询所有
             for (Field f : fields) {
                 if (f.isIndexed()) {
-                    fd = f;
-                    break;
+                    paths.add(indexPath(new IndexScan(f, new FieldCalRes()), shown, null, where));
                 }
             }
-            l0 = 0;
-            r0 = Long.MAX_VALUE;
-            single = true;
+            for (CompositeIndex idx : indexes) {
+                paths.add(indexPath(new IndexScan(idx, new FieldCalRes()), shown, null, where));
+            }
+        } else if (where.singleExp2 == null) {
+            for (IndexScan scan : expScans(where.singleExp1)) {
+                paths.add(indexPath(scan, shown, null, where));
+            }
         } else {
-            for (Field f : fields) {
-                if (f.fieldName.equals(where.singleExp1.field)) {
-                    if (!f.isIndexed()) {
-                        throw new RuntimeException("Field not indexed: " + f.fieldName);
+            statement.SingleExpression exp1 = where.singleExp1;
+            statement.SingleExpression exp2 = where.singleExp2;
+            boolean or = "or".equals(where.logicOp);
+            List<IndexScan> scans1 = expScans(exp1);
+            List<IndexScan> scans2 = expScans(exp2);
+            if (!or) {
+                for (CompositeIndex idx : indexes) {
+                    if (idx.covers(exp1, exp2)) {
+                        paths.add(indexPath(new IndexScan(idx, idx.calExp(exp1, exp2)), shown, null, where));
+                    } else if (idx.covers(exp2, exp1)) {
+                        paths.add(indexPath(new IndexScan(idx, idx.calExp(exp2, exp1)), shown, null, where));
                     }
-                    fd = f;
-                    break;
+                }
+                Field fd = findField(exp1.field);
+                if (fd == findField(exp2.field) && fd.isIndexed()) {
+                    FieldCalRes range = fd.calExp(exp1).intersect(fd.calExp(exp2));
+                    paths.add(indexPath(new IndexScan(fd, range), shown, null, where));
+                }
+                RowFilter residual = new RowFilter(this, where);
+                for (IndexScan scan : scans1) {
+                    paths.add(indexPath(scan, shown, residual, where));
+                }
+                for (IndexScan scan : scans2) {
+                    paths.add(indexPath(scan, shown, residual, where));
                 }
             }
-            if (fd == null) {
-                throw new RuntimeException("Field not found: " + where.singleExp1.field);
-            }
-            FieldCalRes res = fd.calExp(where.singleExp1);
-            l0 = res.left;
-            r0 = res.right;
-            if (where.singleExp2 == null) {
-                single = true;
-            } else {
-                res = fd.calExp(where.singleExp2);
-                l1 = res.left;
-                r1 = res.right;
+            if (!scans1.isEmpty() && !scans2.isEmpty()) {
+                IndexScan s1 = cheapest(scans1);
+                IndexScan s2 = cheapest(scans2);
+                double r1 = s1.estimate();
+                double r2 = s2.estimate();
+                double total = Math.max(Math.max(rows(), Math.max(r1, r2)), 1);
+                double rows = or ? r1 + r2 - r1 * r2 / total : r1 * r2 / total;
+                RowFilter residual = s1.isLossy() || s2.isLossy() ? new RowFilter(this, where) : null;
+                paths.add(AccessPath.merge(s1, r1, s2, r2, or, rows, residual));
             }
         }
-        List<Long> uids = fd.search(l0, r0);
-        if (!single) {
-            List<Long> uids1 = fd.search(l1, r1);
-            if ("or".equals(where.logicOp)) {
-                uids = mergeLists(uids, uids1);
-            } else {
-                uids = intersectLists(uids, uids1);
+        // 满足条件的行数取各索引路径估计中最少的，没有索引可用时只能顺序扫描，不必估计
+        double rows = 0;
+        AccessPath best = null;
+        for (AccessPath p : paths) {
+            rows = best == null ? p.rows : Math.min(rows, p.rows);
+            if (best == null || p.cost < best.cost) {
+                best = p;
             }
         }
-        return uids;
+        int pages = ((TableManagerImpl) tbm).dm.getPageNumber();
+        AccessPath heap = AccessPath.heap(new RowFilter(this, where), pages, rows);
+        return best == null || heap.cost < best.cost ? heap : best;
     }
 
-    /**
-     * 解析二进制为 Map
-     */
-    private Map<String, Object> parseEntry(byte[] raw) {
-        int pos = 0;
-        Map<String, Object> entry = new HashMap<>();
-        for (Field f : fields) {
-            Object v = f.parseValue(Arrays.copyOfRange(raw, pos, raw.length));
-            entry.put(f.fieldName, v);
-            pos += getRawLen(f, v);
+    private AccessPath indexPath(IndexScan scan, String[] shown, RowFilter residual, statement.Where where)
+            throws Exception {
+        if (residual == null && scan.isLossy()) {
+            residual = new RowFilter(this, where);
         }
-        return entry;
+        return AccessPath.index(scan, scan.estimate(), shown != null && scan.covers(shown), residual);
     }
 
     /**
-     * 获取值的字节长度
+     * 单个条件能用的扫描：字段自己的索引，或以该字段开头的组合索引
      */
-    private int getRawLen(Field f, Object v) {
-        switch (f.fieldType) {
-            case "int32":
-                return 4;
-            case "int64":
-                return 8;
-            case "string":
-                return 4 + ((String) v).getBytes().length;
+    private List<IndexScan> expScans(statement.SingleExpression exp) throws Exception {
+        List<IndexScan> scans = new ArrayList<>();
+        Field fd = findField(exp.field);
+        if (fd.isIndexed()) {
+            scans.add(new IndexScan(fd, fd.calExp(exp)));
+        }
+        for (CompositeIndex idx : indexes) {
+            if (idx.covers(null, exp)) {
+                scans.add(new IndexScan(idx, idx.calExp(null, exp)));
+            }
+        }
+        return scans;
+    }
+
+    // 估计行数最少的扫描
+    private static IndexScan cheapest(List<IndexScan> scans) throws Exception {
+        IndexScan best = scans.get(0);
+        double rows = best.estimate();
+        for (IndexScan scan : scans) {
+            double r = scan.estimate();
+            if (r < rows) {
+                best = scan;
+                rows = r;
+            }
         }
-        return 0;
+        return best;
     }
 
     /**
-     * 打印条目
+     * 要输出的列名，* 展开为所有字段
      */
-    private String printEntry(Map<String, Object> entry, String[] selectFields) {
-        StringBuilder sb = new StringBuilder("[");
-        String[] fieldsToShow = selectFields;
+    private String[] selectedFields(String[] selectFields) {
         if (selectFields.length == 1 && "*".equals(selectFields[0])) {
-            fieldsToShow = new String[fields.size()];
+            String[] all = new String[fields.size()];
             for (int i = 0; i < fields.size(); i++) {
-                fieldsToShow[i] = fields.get(i).fieldName;
+                all[i] = fields.get(i).fieldName;
             }
+            return all;
         }
-        for (int i = 0; i < fieldsToShow.length; i++) {
-            String fn = fieldsToShow[i];
-            sb.append(fn).append("=").append(entry.get(fn));
-            if (i < fieldsToShow.length - 1) {
-                sb.append(", ");
+        return selectFields;
+    }
+
+    /**
+     * 按名字查找字段
+     */
+    Field findField(String fieldName) {
+        for (Field f : fields) {
+            if (f.fieldName.equals(fieldName)) {
+                return f;
             }
         }
-        sb.append("]");
-        return sb.toString();
+        throw new RuntimeException("Field not found: " + fieldName);
     }
 
     /**
-     * 合并两个列表（OR）
+     * 合并两个有序列表（OR），去掉重复的
      */
-    private List<Long> mergeLists(List<Long> l1, List<Long> l2) {
-        Set<Long> set = new HashSet<>(l1);
-        set.addAll(l2);
-        return new ArrayList<>(set);
+    private static long[] mergeLists(long[] l1, long[] l2) {
+        long[] res = new long[l1.length + l2.length];
+        int i = 0, j = 0, n = 0;
+        while (i < l1.length || j < l2.length) {
+            long v;
+            if (j == l2.length || i < l1.length && l1[i] < l2[j]) {
+                v = l1[i++];
+            } else if (i == l1.length || l2[j] < l1[i]) {
+                v = l2[j++];
+            } else {
+                v = l1[i++];
+                j++;
+            }
+            if (n == 0 || res[n - 1] != v) {
+                res[n++] = v;
+            }
+        }
+        return Arrays.copyOf(res, n);
     }
 
     /**
-     * 取两个列表的交集（AND）
+     * 取两个有序列表的交集（AND），去掉重复的
      */
-    private List<Long> intersectLists(List<Long> l1, List<Long> l2) {
-        Set<Long> set = new HashSet<>(l1);
-        set.retainAll(l2);
-        return new ArrayList<>(set);
+    private static long[] intersectLists(long[] l1, long[] l2) {
+        long[] res = new long[Math.min(l1.length, l2.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < l1.length && j < l2.length) {
+            if (l1[i] < l2[j]) {
+                i++;
+            } else if (l2[j] < l1[i]) {
+                j++;
+            } else {
+                if (n == 0 || res[n - 1] != l1[i]) {
+                    res[n++] = l1[i];
+                }
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(res, n);
     }
 
     @Override
@@ -358,6 +659,9 @@ public class Table {
                 sb.append(", ");
             }
         }
+        for (CompositeIndex idx : indexes) {
+            sb.append(", ").append(idx.toString());
+        }
         sb.append("}");
         return sb.toString();
     }
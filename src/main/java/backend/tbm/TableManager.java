@@ -4,6 +4,9 @@ import backend.dm.DataManager;
 import backend.parser.statement;
 import backend.vm.VersionManager;
 
+import java.io.OutputStream;
+import java.util.List;
+
 /**
  * TableManager 是 TBM 层对外提供的接口
  */
@@ -39,11 +42,21 @@ public interface TableManager {
      */
     byte[] insert(long xid, statement.Insert insert) throws Exception;
 
+    /**
+     * 批量导入数据 (多行 INSERT)，每行的值按字段顺序排列，所有行在同一个事务 xid 中写入
+     */
+    byte[] bulkInsert(long xid, String tableName, List<String[]> rows) throws Exception;
+
     /**
      * 查询数据
      */
     byte[] read(long xid, statement.Select select) throws Exception;
 
+    /**
+     * 查询数据，结果逐行写入 out，不在内存中攒下整个结果
+     */
+    void read(long xid, statement.Select select, OutputStream out) throws Exception;
+
     /**
      * 更新数据
      */
@@ -64,7 +77,7 @@ public interface TableManager {
      */
     static TableManager create(String path, VersionManager vm, DataManager dm) {
         Booter booter = Booter.create(path);
-        booter.update(new byte[8]); // 初始化为空（头表 UID = 0）
+        booter.update(TableManagerImpl.bootRaw(0)); // 初始化为空（头表 UID = 0）
         return new TableManagerImpl(vm, dm, booter);
     }
 
@@ -73,6 +86,7 @@ public interface TableManager {
      */
     static TableManager open(String path, VersionManager vm, DataManager dm) {
         Booter booter = Booter.open(path);
+        TableManagerImpl.checkFormat(booter);
         return new TableManagerImpl(vm, dm, booter);
     }
 }
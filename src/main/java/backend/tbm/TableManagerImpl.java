@@ -2,9 +2,13 @@ package backend.tbm;
 
 import backend.dm.DataManager;
 import backend.parser.statement;
+import backend.utils.Error;
+import backend.utils.Panic;
 import backend.utils.Parser;
 import backend.vm.VersionManager;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -16,12 +20,21 @@ import java.util.concurrent.locks.ReentrantLock;
  * TableManagerImpl 是 TableManager 接口的实现类
  */
 public class TableManagerImpl implements TableManager {
+    /**
+     * 表和记录的格式版本：Table、Field、CompositeIndex 或记录 (RowCodec) 的布局变化时加一
+     * 启动文件为 [FormatVersion(4)][FirstTableUid(8)]，没有写入版本的旧启动文件只有头表 UID
+     */
+    static final int FORMAT_VERSION = 1;
+
     VersionManager vm; // 版本管理器
     DataManager dm; // 数据管理器
     private Booter booter; // 启动信息管理
     private Map<String, Table> tableCache; // 表缓存
     private Map<Long, List<Table>> xidTableCache; // 事务关联的表
     private Lock lock; // 锁
+    IndexVacuum vacuum; // 索引清理
+    VisibilityMap vis; // 页的可见性提示
+    StatsStore stats; // 优化器统计
 
     public TableManagerImpl(VersionManager vm, DataManager dm, Booter booter) {
         this.vm = vm;
@@ -30,6 +43,9 @@ public class TableManagerImpl implements TableManager {
         this.tableCache = new HashMap<>();
         this.xidTableCache = new HashMap<>();
         this.lock = new ReentrantLock();
+        this.vis = new VisibilityMap(dm.getPageNumber());
+        this.vacuum = new IndexVacuum(this, vis);
+        this.stats = StatsStore.open(booter.path);
         loadTables();
     }
 
@@ -50,15 +66,34 @@ public class TableManagerImpl implements TableManager {
      */
     private long firstTableUid() {
         byte[] raw = booter.load();
-        return Parser.parseLong(raw);
+        return Parser.getLong(raw, 4);
     }
 
     /**
      * 更新头表 UID
      */
     private void updateFirstTableUid(long uid) {
-        byte[] raw = Parser.long2Byte(uid);
-        booter.update(raw);
+        booter.update(bootRaw(uid));
+    }
+
+    /**
+     * 启动文件的内容
+     */
+    static byte[] bootRaw(long firstTableUid) {
+        byte[] raw = new byte[12];
+        Parser.putInt(raw, 0, FORMAT_VERSION);
+        Parser.putLong(raw, 4, firstTableUid);
+        return raw;
+    }
+
+    /**
+     * 检查启动文件中的格式版本，按别的格式写下的表和记录不能用现在的布局解析
+     */
+    static void checkFormat(Booter booter) {
+        byte[] raw = booter.load();
+        if (raw.length != 12 || Parser.getInt(raw, 0) != FORMAT_VERSION) {
+            Panic.panic(Error.BadTableFormatException);
+        }
     }
 
     @Override
@@ -73,15 +108,28 @@ public class TableManagerImpl implements TableManager {
     @Override
     public byte[] commit(long xid) throws Exception {
         vm.commit(xid);
+        vacuum.end(xid, true);
+        collectGarbage();
         return "commit".getBytes();
     }
 
     @Override
     public byte[] abort(long xid) {
         vm.abort(xid);
+        vacuum.end(xid, false);
+        collectGarbage();
         return "abort".getBytes();
     }
 
+    // 事务结束后顺带清理一批索引项
+    private void collectGarbage() {
+        try {
+            vacuum.collect();
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+    }
+
     @Override
     public byte[] show(long xid) {
         lock.lock();
@@ -129,15 +177,34 @@ public class TableManagerImpl implements TableManager {
         return "insert".getBytes();
     }
 
+    @Override
+    public byte[] bulkInsert(long xid, String tableName, List<String[]> rows) throws Exception {
+        lock.lock();
+        Table tb = tableCache.get(tableName);
+        lock.unlock();
+        if (tb == null) {
+            throw new RuntimeException("Table not found: " + tableName);
+        }
+        int count = tb.bulkInsert(xid, rows);
+        return ("insert " + count).getBytes();
+    }
+
     @Override
     public byte[] read(long xid, statement.Select select) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        read(xid, select, out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public void read(long xid, statement.Select select, OutputStream out) throws Exception {
         lock.lock();
         Table tb = tableCache.get(select.tableName);
         lock.unlock();
         if (tb == null) {
             throw new RuntimeException("Table not found: " + select.tableName);
         }
-        return tb.read(xid, select).getBytes();
+        tb.read(xid, select, out);
     }
 
     @Override
@@ -166,6 +233,6 @@ public class TableManagerImpl implements TableManager {
 
     @Override
     public void close() {
-        // 关闭资源
+        stats.close();
     }
 }
@@ -0,0 +1,45 @@
+package backend.tbm;
+
+import backend.common.RowBatch;
+import backend.common.SubArray;
+import backend.vm.VersionManager;
+
+/**
+ * 按给出的顺序读出一组 uid 对应的可见行，用于两个索引扫描求交或求并之后回表
+ */
+class UidScanOperator implements Operator {
+    private VersionManager vm;
+    private long xid;
+    private long[] uids;
+    private int pos;
+    private ColumnBatch batch;
+    private RowBatch rows = new RowBatch();
+
+    UidScanOperator(VersionManager vm, long xid, long[] uids, ColumnBatch batch) {
+        this.vm = vm;
+        this.xid = xid;
+        this.uids = uids;
+        this.batch = batch;
+    }
+
+    @Override
+    public ColumnBatch next(int max) throws Exception {
+        batch.reset();
+        while (batch.size == 0 && pos < uids.length) {
+            int to = Math.min(uids.length, pos + Math.min(max, ColumnBatch.CAPACITY));
+            vm.readMany(xid, uids, pos, to, rows);
+            for (int i = 0; i < to - pos; i++) {
+                SubArray row = rows.get(i);
+                if (row != null) {
+                    batch.add(row.raw, row.start, row.end);
+                }
+            }
+            pos = to;
+        }
+        if (batch.size == 0) {
+            return null;
+        }
+        batch.selectAll();
+        return batch;
+    }
+}
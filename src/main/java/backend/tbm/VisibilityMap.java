@@ -0,0 +1,103 @@
+package backend.tbm;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 页的可见性提示：一页上能经索引找到的记录版本都对所有事务可见时，这一页是全部可见的
+ * 覆盖索引扫描遇到全部可见的页上的版本，直接用索引键中的列值，不再回表判断可见性
+ *
+ * 每页记下还没落定的改动数，由 IndexVacuum 维护：
+ * - 插入在事务提交、且对所有事务可见后落定；回滚的插入在索引项清理后落定
+ * - 删除在版本成为垃圾、索引项清理后落定；回滚的删除立即落定
+ * 计数回到 0 时页变为全部可见，记下此时的序号。扫描开始时取当前序号，只信任在此之前
+ * 就已全部可见的页：扫描途中才清理掉的索引项可能已被游标读到，不能当作可见的版本
+ *
+ * 提示只在内存中。打开数据库时已有的页上可能留着上次没清理的版本，这些页一律当作不可见
+ */
+class VisibilityMap {
+    private int lastOldPage; // 打开时的页数，不大于它的页不会变为全部可见
+    private int[] pending; // 每页未落定的改动数
+    private long[] visibleSince; // 每页变为全部可见时的序号，0 表示不是全部可见
+    private long seq;
+    private Lock lock;
+
+    VisibilityMap(int lastOldPage) {
+        this.lastOldPage = lastOldPage;
+        this.pending = new int[lastOldPage + 64];
+        this.visibleSince = new long[lastOldPage + 64];
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * 版本 uid 所在的页有了一次新的改动
+     */
+    void changed(long uid) {
+        int pgno = pgno(uid);
+        lock.lock();
+        try {
+            ensure(pgno);
+            pending[pgno]++;
+            visibleSince[pgno] = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * changed(uid) 记下的改动已落定
+     */
+    void settled(long uid) {
+        int pgno = pgno(uid);
+        lock.lock();
+        try {
+            if (--pending[pgno] == 0 && pgno > lastOldPage) {
+                visibleSince[pgno] = ++seq;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前序号，扫描开始前取一次，传给 isAllVisible
+     */
+    long now() {
+        lock.lock();
+        try {
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 版本 uid 所在的页在序号 since 时已经是全部可见的，且之后没有改动
+     */
+    boolean isAllVisible(long uid, long since) {
+        int pgno = pgno(uid);
+        lock.lock();
+        try {
+            if (pgno >= visibleSince.length) {
+                return false;
+            }
+            long v = visibleSince[pgno];
+            return v != 0 && v <= since;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensure(int pgno) {
+        if (pgno >= pending.length) {
+            int n = Math.max(pgno + 1, pending.length << 1);
+            pending = Arrays.copyOf(pending, n);
+            visibleSince = Arrays.copyOf(visibleSince, n);
+        }
+    }
+
+    private static int pgno(long uid) {
+        return (int) (uid >>> 32);
+    }
+}
@@ -0,0 +1,195 @@
+package backend.tm;
+
+import backend.utils.Error;
+import backend.utils.Panic;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static backend.tm.TransactionManagerImpl.*;
+
+/**
+ * 以内存映射方式访问 XID 文件的事务管理器，文件格式与 TransactionManagerImpl 相同
+ * 文件按 CHUNK_SIZE 分块映射，状态查询是一次内存读取，提交/回滚是一次内存写入加 msync
+ * 文件扩展时只重新映射最后一块，已映射的块保持不变
+ */
+public class MappedTransactionManagerImpl implements TransactionManager {
+    private static final int CHUNK_SIZE = 1 << 20; // 每块映射 1MB
+
+    private RandomAccessFile file;
+    private FileChannel fc;
+    private volatile MappedByteBuffer[] chunks;
+    private AtomicLong xidCounter; // 最后分配出去的 xid
+    private volatile long reservedXid; // 已在文件中预留的 xid 上限
+    private Lock counterLock; // 预留新的一批 xid 时加锁
+
+    MappedTransactionManagerImpl(RandomAccessFile raf) {
+        this.file = raf;
+        this.fc = raf.getChannel();
+        this.counterLock = new ReentrantLock();
+        this.chunks = new MappedByteBuffer[0];
+        checkXIDCounter();
+    }
+
+    /**
+     * 检查XID文件是否合法，并映射整个文件
+     * 文件比文件头记录的长时先截掉多出的预留 (见 TransactionManagerImpl)，再映射
+     */
+    private void checkXIDCounter() {
+        long fileLen = 0;
+        try {
+            fileLen = file.length();
+        } catch (IOException e) {
+            Panic.panic(Error.BadXIDFileException);
+        }
+        if (fileLen < LEN_XID_HEADER_LENGTH) {
+            Panic.panic(Error.BadXIDFileException);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(LEN_XID_HEADER_LENGTH);
+        try {
+            fc.read(buf, 0);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        this.reservedXid = buf.getLong(0);
+        long end = getXidPosition(reservedXid + 1);
+        if (end > fileLen) {
+            Panic.panic(Error.BadXIDFileException);
+        }
+        if (end < fileLen) {
+            truncateXidFile(file, end);
+        }
+        remap(end);
+        this.xidCounter = new AtomicLong(reservedXid);
+    }
+
+    // 映射到文件的新长度：最后一块可能变长，其余块不变
+    private void remap(long fileLen) {
+        int n = (int) ((fileLen + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        MappedByteBuffer[] old = chunks;
+        MappedByteBuffer[] cs = Arrays.copyOf(old, n);
+        int first = Math.max(0, old.length - 1);
+        try {
+            for (int i = first; i < n; i++) {
+                long start = (long) i * CHUNK_SIZE;
+                cs[i] = fc.map(FileChannel.MapMode.READ_WRITE, start, Math.min(CHUNK_SIZE, fileLen - start));
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        chunks = cs;
+    }
+
+    @Override
+    public long begin() {
+        long xid = xidCounter.incrementAndGet();
+        if (xid > reservedXid) {
+            reserveXID(xid);
+        }
+        return xid;
+    }
+
+    // 预留新的一批 xid，直到覆盖 xid
+    private void reserveXID(long xid) {
+        counterLock.lock();
+        try {
+            if (xid <= reservedXid) {
+                return;
+            }
+            long reserved = reservedXid;
+            while (reserved < xid) {
+                reserved += XID_BATCH;
+            }
+            long fileLen = getXidPosition(reserved + 1);
+            file.setLength(fileLen);
+            fc.force(true); // 文件长度先落盘，再写文件头
+            remap(fileLen);
+            MappedByteBuffer header = chunks[0];
+            header.putLong(0, reserved);
+            header.force(0, LEN_XID_HEADER_LENGTH);
+            reservedXid = reserved;
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            counterLock.unlock();
+        }
+    }
+
+    // 写入状态并 msync 该字节所在的页
+    private void updateXID(long xid, byte status) {
+        long pos = getXidPosition(xid);
+        MappedByteBuffer chunk = chunks[(int) (pos / CHUNK_SIZE)];
+        int off = (int) (pos % CHUNK_SIZE);
+        chunk.put(off, status);
+        chunk.force(off, XID_FIELD_SIZE);
+    }
+
+    @Override
+    public void commit(long xid) {
+        updateXID(xid, FIELD_TRAN_COMMITTED);
+    }
+
+    @Override
+    public void abort(long xid) {
+        updateXID(xid, FIELD_TRAN_ABORTED);
+    }
+
+    // 检测XID事务是否处于status状态，超出已映射范围的 xid 视为 ACTIVE
+    private boolean checkXID(long xid, byte status) {
+        long pos = getXidPosition(xid);
+        MappedByteBuffer[] cs = chunks;
+        int idx = (int) (pos / CHUNK_SIZE);
+        int off = (int) (pos % CHUNK_SIZE);
+        byte b = FIELD_TRAN_ACTIVE;
+        if (idx < cs.length && off < cs[idx].limit()) {
+            b = cs[idx].get(off);
+        }
+        return b == status;
+    }
+
+    @Override
+    public boolean isActive(long xid) {
+        if (xid == SUPER_XID)
+            return false;
+        return checkXID(xid, FIELD_TRAN_ACTIVE);
+    }
+
+    @Override
+    public boolean isCommitted(long xid) {
+        if (xid == SUPER_XID)
+            return true;
+        return checkXID(xid, FIELD_TRAN_COMMITTED);
+    }
+
+    @Override
+    public boolean isAborted(long xid) {
+        if (xid == SUPER_XID)
+            return false;
+        return checkXID(xid, FIELD_TRAN_ABORTED);
+    }
+
+    @Override
+    public void close() {
+        try {
+            fc.close();
+            file.close();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    public static TransactionManager create(String path) {
+        return new MappedTransactionManagerImpl(createXidFile(path));
+    }
+
+    public static TransactionManager open(String path) {
+        return new MappedTransactionManagerImpl(openXidFile(path));
+    }
+}
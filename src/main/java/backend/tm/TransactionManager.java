@@ -24,4 +24,13 @@ public interface TransactionManager {
     static TransactionManager open(String path) {
         return TransactionManagerImpl.open(path);
     }
+
+    // mmap 为 true 时以内存映射方式访问 XID 文件
+    static TransactionManager create(String path, boolean mmap) {
+        return mmap ? MappedTransactionManagerImpl.create(path) : TransactionManagerImpl.create(path);
+    }
+
+    static TransactionManager open(String path, boolean mmap) {
+        return mmap ? MappedTransactionManagerImpl.open(path) : TransactionManagerImpl.open(path);
+    }
 }
@@ -9,18 +9,28 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * XID 文件结构: [已预留的 XID 上限(8B)] [xid 1 的状态(1B)] [xid 2 的状态(1B)] ...
+ * XID 按批预留：一次把文件扩展 XID_BATCH 个 0 (即 ACTIVE)，只写一次文件头并刷盘一次，
+ * 之后批内的 begin 只是一次原子自增，不写文件
+ * 崩溃后预留但未使用的 xid 保持 ACTIVE，它们没有写过日志和数据，重启后从上限之后继续分配
+ * 预留时先扩展文件再写文件头，崩溃在两者之间时文件比文件头记录的长，多出的部分是没用过的 xid
+ */
 public class TransactionManagerImpl implements TransactionManager {
     // XID 文件头长度
     static final int LEN_XID_HEADER_LENGTH = 8;
     // 每个事务的占用长度
-    private static final int XID_FIELD_SIZE = 1;
+    static final int XID_FIELD_SIZE = 1;
+    // 每次预留的 xid 个数
+    static final int XID_BATCH = 4096;
     // 事务的三种状态
-    private static final byte FIELD_TRAN_ACTIVE = 0;
-    private static final byte FIELD_TRAN_COMMITTED = 1;
-    private static final byte FIELD_TRAN_ABORTED = 2;
+    static final byte FIELD_TRAN_ACTIVE = 0;
+    static final byte FIELD_TRAN_COMMITTED = 1;
+    static final byte FIELD_TRAN_ABORTED = 2;
     // 超级事务，永远为 commited 状态
     public static final long SUPER_XID = 0;
     // XID 文件后缀
@@ -28,8 +38,11 @@ public class TransactionManagerImpl implements TransactionManager {
 
     private RandomAccessFile file;
     private FileChannel fc;
-    private long xidCounter;
-    private Lock counterLock;
+    private AtomicLong xidCounter; // 最后分配出去的 xid
+    private volatile long reservedXid; // 已在文件中预留的 xid 上限
+    private Lock counterLock; // 预留新的一批 xid 时加锁
+    // 事务状态的内存副本，XID 文件仍是持久化的那一份
+    private XidStatusTable statuses;
 
     TransactionManagerImpl(RandomAccessFile raf, FileChannel fc) {
         this.file = raf; // 1. 接收外部传进来的文件对象
@@ -40,7 +53,8 @@ public class TransactionManagerImpl implements TransactionManager {
 
     /**
      * 检查XID文件是否合法
-     * 读取XID_HEADER_LENGTH，并根据xidCounter计算文件理论长度，对比实际长度
+     * 读取XID_HEADER_LENGTH，并根据已预留的 xid 上限计算文件理论长度，对比实际长度
+     * 文件比理论长度长时截掉多出的部分 (扩展后没来得及写文件头的预留)，短时文件损坏
      */
     private void checkXIDCounter() {
         long fileLen = 0;
@@ -59,56 +73,106 @@ public class TransactionManagerImpl implements TransactionManager {
         } catch (IOException e) {
             Panic.panic(e);
         }
-        this.xidCounter = Parser.parseLong(buf.array());
-        long end = getXidPosition(this.xidCounter + 1);
-        if (end != fileLen) {
+        this.reservedXid = Parser.parseLong(buf.array());
+        long end = getXidPosition(this.reservedXid + 1);
+        if (end > fileLen) {
             Panic.panic(Error.BadXIDFileException);
         }
+        if (end < fileLen) {
+            truncateXidFile(file, end);
+        }
+        this.xidCounter = new AtomicLong(reservedXid);
+        loadStatuses();
+    }
+
+    // 截掉文件头记录的上限之后的预留，那部分全是没分配过的 ACTIVE
+    static void truncateXidFile(RandomAccessFile file, long end) {
+        try {
+            file.setLength(end);
+            file.getChannel().force(true);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    // 一次读出所有事务的状态，之后的查询不再访问文件
+    private void loadStatuses() {
+        statuses = new XidStatusTable(reservedXid + XID_BATCH);
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        long xid = 1;
+        try {
+            while (xid <= reservedXid) {
+                buf.clear();
+                int n = (int) Math.min(buf.capacity(), reservedXid - xid + 1);
+                buf.limit(n);
+                while (buf.hasRemaining()) {
+                    fc.read(buf, getXidPosition(xid) + buf.position());
+                }
+                for (int i = 0; i < n; i++) {
+                    byte status = buf.get(i);
+                    if (status != FIELD_TRAN_ACTIVE) {
+                        statuses.set(xid + i, status);
+                    }
+                }
+                xid += n;
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
     }
 
     // 根据事务xid取得其在xid文件中对应的位置
-    private long getXidPosition(long xid) {
+    static long getXidPosition(long xid) {
         return LEN_XID_HEADER_LENGTH + (xid - 1) * XID_FIELD_SIZE;
     }
 
-    // 更新xid事务的状态为status
+    // 更新xid事务的状态为status：先写文件并刷盘，再更新内存，读者看到的状态一定已经持久化
     private void updateXID(long xid, byte status) {
         long offset = getXidPosition(xid);
         byte[] tmp = new byte[XID_FIELD_SIZE];
         tmp[0] = status;
         ByteBuffer buf = ByteBuffer.wrap(tmp);
         try {
-            fc.position(offset);
-            fc.write(buf);
+            fc.write(buf, offset); // 按位置写，并发的 commit/abort 不会互相挪动文件指针
             fc.force(false);
         } catch (IOException e) {
             Panic.panic(e);
         }
+        statuses.set(xid, status);
     }
 
-    // 开启一个新事务
+    // 开启一个新事务：预留的状态本来就是 ACTIVE，不需要写文件
     @Override
     public long begin() {
-        counterLock.lock();
-        try {
-            long xid = xidCounter + 1;
-            updateXID(xid, FIELD_TRAN_ACTIVE);
-            incrXIDCounter();
-            return xid;
-        } finally {
-            counterLock.unlock();
+        long xid = xidCounter.incrementAndGet();
+        if (xid > reservedXid) {
+            reserveXID(xid);
         }
+        return xid;
     }
 
-    // 增加xid计数器
-    private void incrXIDCounter() {
-        xidCounter++;
+    // 预留新的一批 xid，直到覆盖 xid
+    private void reserveXID(long xid) {
+        counterLock.lock();
         try {
-            fc.position(0);
-            fc.write(ByteBuffer.wrap(Parser.long2Byte(xidCounter)));
-            fc.force(false); // 强制刷新（只刷内容，不刷元数据），把新的xidCounter写入磁盘而不只是写入内存缓存
+            if (xid <= reservedXid) {
+                return;
+            }
+            long reserved = reservedXid;
+            while (reserved < xid) {
+                reserved += XID_BATCH;
+            }
+            // 扩展出的部分全部为 0，即 ACTIVE
+            // 文件长度先落盘，再写文件头并刷盘：文件头记录的上限不会超过文件实际的长度
+            file.setLength(getXidPosition(reserved + 1));
+            fc.force(true);
+            fc.write(ByteBuffer.wrap(Parser.long2Byte(reserved)), 0);
+            fc.force(false);
+            reservedXid = reserved;
         } catch (IOException e) {
             Panic.panic(e);
+        } finally {
+            counterLock.unlock();
         }
     }
 
@@ -126,15 +190,7 @@ public class TransactionManagerImpl implements TransactionManager {
 
     // 检测XID事务是否处于status状态
     private boolean checkXID(long xid, byte status) {
-        long offset = getXidPosition(xid);
-        ByteBuffer buf = ByteBuffer.wrap(new byte[XID_FIELD_SIZE]);
-        try {
-            fc.position(offset);
-            fc.read(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        return buf.array()[0] == status;
+        return statuses.get(xid) == status;
     }
 
     // -------检查xid status-------
@@ -172,6 +228,18 @@ public class TransactionManagerImpl implements TransactionManager {
 
     // 创建xid文件
     public static TransactionManager create(String path) {
+        RandomAccessFile raf = createXidFile(path);
+        return new TransactionManagerImpl(raf, raf.getChannel());
+    }
+
+    // 打开xid文件
+    public static TransactionManager open(String path) {
+        RandomAccessFile raf = openXidFile(path);
+        return new TransactionManagerImpl(raf, raf.getChannel());
+    }
+
+    // 新建xid文件并写入空文件头
+    static RandomAccessFile createXidFile(String path) {
         File f = new File(path + XID_SUFFIX);
         try {
             if (!f.createNewFile()) {
@@ -183,27 +251,18 @@ public class TransactionManagerImpl implements TransactionManager {
         if (!f.canRead() || !f.canWrite()) {
             Panic.panic(Error.FileCannotRWException);
         }
-        FileChannel fc = null;
         RandomAccessFile raf = null;
         try {
             raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
+            // 写空XID文件头
+            raf.getChannel().write(ByteBuffer.wrap(new byte[LEN_XID_HEADER_LENGTH]), 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
-        // 写空XID文件头
-        ByteBuffer buf = ByteBuffer.wrap(new byte[LEN_XID_HEADER_LENGTH]);
-        try {
-            fc.position(0);
-            fc.write(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        return new TransactionManagerImpl(raf, fc);
+        return raf;
     }
 
-    // 打开xid文件
-    public static TransactionManager open(String path) {
+    static RandomAccessFile openXidFile(String path) {
         File f = new File(path + XID_SUFFIX);
         if (!f.exists()) {
             Panic.panic(Error.FileNotExistsException);
@@ -211,14 +270,12 @@ public class TransactionManagerImpl implements TransactionManager {
         if (!f.canRead() || !f.canWrite()) {
             Panic.panic(Error.FileCannotRWException);
         }
-        FileChannel fc = null;
         RandomAccessFile raf = null;
         try {
             raf = new RandomAccessFile(f, "rw");
-            fc = raf.getChannel();
         } catch (IOException e) {
             Panic.panic(e);
         }
-        return new TransactionManagerImpl(raf, fc);
+        return raf;
     }
 }
@@ -0,0 +1,57 @@
+package backend.tm;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 内存中的事务状态表
+ * 每个事务占 2 bit，一个 long 存 32 个事务，取值与 XID 文件中的状态字节一致
+ * 读不加锁；写只发生在 begin/commit/abort，加锁串行化，扩容时不会丢失并发的写
+ */
+class XidStatusTable {
+    private static final int BITS = 2;
+    private static final int PER_WORD = Long.SIZE / BITS;
+    private static final long MASK = (1L << BITS) - 1;
+
+    private volatile AtomicLongArray words;
+
+    XidStatusTable(long capacity) {
+        words = new AtomicLongArray(wordCount(capacity));
+    }
+
+    // 查询 xid 的状态，超出表范围的 xid 视为 0 (活跃)，与读取 XID 文件末尾之后的行为一致
+    byte get(long xid) {
+        long i = xid - 1;
+        AtomicLongArray w = words;
+        int idx = (int) (i / PER_WORD);
+        if (idx >= w.length()) {
+            return 0;
+        }
+        int shift = (int) (i % PER_WORD) * BITS;
+        return (byte) ((w.get(idx) >>> shift) & MASK);
+    }
+
+    synchronized void set(long xid, byte status) {
+        long i = xid - 1;
+        int idx = (int) (i / PER_WORD);
+        if (idx >= words.length()) {
+            grow(idx + 1);
+        }
+        int shift = (int) (i % PER_WORD) * BITS;
+        long word = words.get(idx);
+        word = (word & ~(MASK << shift)) | ((status & MASK) << shift);
+        words.set(idx, word);
+    }
+
+    private void grow(int minWords) {
+        AtomicLongArray old = words;
+        AtomicLongArray w = new AtomicLongArray(Math.max(minWords, old.length() << 1));
+        for (int i = 0; i < old.length(); i++) {
+            w.set(i, old.get(i));
+        }
+        words = w;
+    }
+
+    private static int wordCount(long capacity) {
+        return (int) Math.max(1, (capacity + PER_WORD - 1) / PER_WORD);
+    }
+}
@@ -12,6 +12,8 @@ public class Error {
     public static final Exception MemTooSmallException = new RuntimeException("Memory too small!");
     public static final Exception DataTooLargeException = new RuntimeException("Data too large!");
     public static final Exception DatabaseBusyException = new RuntimeException("Database is busy!");
+    public static final Exception BadDataFileFormatException = new RuntimeException(
+            "Data file format version not supported, recreate or migrate the database!");
 
     // tm
     public static final Exception BadXIDFileException = new RuntimeException("Bad XID file!");
@@ -21,6 +23,13 @@ public class Error {
     public static final Exception ConcurrentUpdateException = new RuntimeException("Concurrent update issue!");
     public static final Exception DeadlockException = new RuntimeException("Deadlock detected!");
 
+    // im
+    public static final Exception KeyOutOfOrderException = new RuntimeException("Bulk load keys out of order!");
+
+    // tbm
+    public static final Exception BadTableFormatException = new RuntimeException(
+            "Table format version not supported, recreate or migrate the database!");
+
     // parser
     public static final Exception InvalidCommandException = new RuntimeException("Invalid command!");
 
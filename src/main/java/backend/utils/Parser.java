@@ -1,8 +1,44 @@
 package backend.utils;
 
-import java.nio.ByteBuffer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * 基本类型与字节数组之间的转换，统一使用大端序
+ * getXxx/putXxx 直接按偏移读写原数组，不产生任何中间数组，热点路径都应使用它们
+ */
 public class Parser {
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    // ------------------- 按偏移读写 -------------------
+    public static long getLong(byte[] raw, int off) {
+        return (long) LONG.get(raw, off);
+    }
+
+    public static void putLong(byte[] raw, int off, long value) {
+        LONG.set(raw, off, value);
+    }
+
+    public static int getInt(byte[] raw, int off) {
+        return (int) INT.get(raw, off);
+    }
+
+    public static void putInt(byte[] raw, int off, int value) {
+        INT.set(raw, off, value);
+    }
+
+    public static short getShort(byte[] raw, int off) {
+        return (short) SHORT.get(raw, off);
+    }
+
+    public static void putShort(byte[] raw, int off, short value) {
+        SHORT.set(raw, off, value);
+    }
+
     // ------------------- long -------------------
     /**
      * 将 byte[] 转换为 long
@@ -11,8 +47,7 @@ public class Parser {
      * @return 解析出的 long 值
      */
     public static long parseLong(byte[] array) {
-        ByteBuffer buffer = ByteBuffer.wrap(array, 0, 8);
-        return buffer.getLong();
+        return getLong(array, 0);
     }
 
     /**
@@ -22,7 +57,9 @@ public class Parser {
      * @return 长度为 8 的字节数组
      */
     public static byte[] long2Byte(long value) {
-        return ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(value).array();
+        byte[] raw = new byte[Long.BYTES];
+        putLong(raw, 0, value);
+        return raw;
     }
 
     // ------------------- short -------------------
@@ -33,8 +70,7 @@ public class Parser {
      * @return 解析出的 short 值
      */
     public static short parseShort(byte[] array) {
-        ByteBuffer buffer = ByteBuffer.wrap(array, 0, 2);
-        return buffer.getShort();
+        return getShort(array, 0);
     }
 
     /**
@@ -44,7 +80,9 @@ public class Parser {
      * @return 长度为 2 的字节数组
      */
     public static byte[] short2Byte(short value) {
-        return ByteBuffer.allocate(Short.SIZE / Byte.SIZE).putShort(value).array();
+        byte[] raw = new byte[Short.BYTES];
+        putShort(raw, 0, value);
+        return raw;
     }
 
     // ------------------- int -------------------
@@ -55,8 +93,7 @@ public class Parser {
      * @return 解析出的 int 值
      */
     public static int parseInt(byte[] array) {
-        ByteBuffer buffer = ByteBuffer.wrap(array, 0, 4);
-        return buffer.getInt();
+        return getInt(array, 0);
     }
 
     /**
@@ -66,7 +103,9 @@ public class Parser {
      * @return 长度为 4 的字节数组
      */
     public static byte[] int2Byte(int value) {
-        return ByteBuffer.allocate(Integer.SIZE / Byte.SIZE).putInt(value).array();
+        byte[] raw = new byte[Integer.BYTES];
+        putInt(raw, 0, value);
+        return raw;
     }
 
     // ------------------- string -------------------
@@ -75,10 +114,9 @@ public class Parser {
      * 格式：[StringLength(4字节)][StringData]
      */
     public static byte[] string2Byte(String str) {
-        byte[] strBytes = str.getBytes();
-        byte[] lenBytes = int2Byte(strBytes.length);
+        byte[] strBytes = str.getBytes(StandardCharsets.UTF_8);
         byte[] result = new byte[4 + strBytes.length];
-        System.arraycopy(lenBytes, 0, result, 0, 4);
+        putInt(result, 0, strBytes.length);
         System.arraycopy(strBytes, 0, result, 4, strBytes.length);
         return result;
     }
@@ -88,24 +126,18 @@ public class Parser {
      * 返回 ParseStringRes，包含解析的字符串和下一个位置偏移
      */
     public static backend.tbm.ParseStringRes parseString(byte[] raw) {
-        int len = parseInt(raw);
-        String str = new String(raw, 4, len);
-        backend.tbm.ParseStringRes res = new backend.tbm.ParseStringRes();
-        res.str = str;
-        res.next = 4 + len;
-        return res;
+        return parseString(raw, 0);
     }
 
     /**
-     * 将字符串转换为 UID（用于索引）
-     * 简单实现：取前8字节的哈希
+     * 从 raw 的 off 处解析字符串，res.next 为相对 off 的长度
      */
-    public static long str2Uid(String str) {
-        long seed = 13331;
-        long res = 0;
-        for (byte b : str.getBytes()) {
-            res = res * seed + (long) b;
-        }
+    public static backend.tbm.ParseStringRes parseString(byte[] raw, int off) {
+        int len = getInt(raw, off);
+        String str = new String(raw, off + 4, len, StandardCharsets.UTF_8);
+        backend.tbm.ParseStringRes res = new backend.tbm.ParseStringRes();
+        res.str = str;
+        res.next = 4 + len;
         return res;
     }
 }
\ No newline at end of file
@@ -3,16 +3,15 @@ package backend.vm;
 import backend.common.SubArray;
 import backend.dm.dataItem.DataItem;
 import backend.utils.Parser;
-import java.util.Arrays;
 
 /**
  * Entry 是 VM 层向上提供的数据抽象
  * 一个 Entry 对应一条记录，内部持有一个 DataItem
  */
 public class Entry {
-    private static final int OF_XMIN = 0;
-    private static final int OF_XMAX = OF_XMIN + 8;
-    private static final int OF_DATA = OF_XMAX + 8;
+    static final int OF_XMIN = 0;
+    static final int OF_XMAX = OF_XMIN + 8;
+    static final int OF_DATA = OF_XMAX + 8;
     private long uid;
     private DataItem dataItem;
     private VersionManager vm;
@@ -48,13 +47,10 @@ public class Entry {
      * @return 完整的字节数组 [XMIN][XMAX][DATA]
      */
     public static byte[] wrapEntryRaw(long xid, byte[] data) {
-        byte[] xmin = Parser.long2Byte(xid);
-        byte[] xmax = new byte[8]; // 初始 XMAX 为 0
-        // 手动拼接字节数组，避免依赖 Guava
-        byte[] result = new byte[xmin.length + xmax.length + data.length];
-        System.arraycopy(xmin, 0, result, 0, xmin.length);
-        System.arraycopy(xmax, 0, result, xmin.length, xmax.length);
-        System.arraycopy(data, 0, result, xmin.length + xmax.length, data.length);
+        // 初始 XMAX 为 0
+        byte[] result = new byte[OF_DATA + data.length];
+        Parser.putLong(result, OF_XMIN, xid);
+        System.arraycopy(data, 0, result, OF_DATA, data.length);
         return result;
     }
 
@@ -94,7 +90,7 @@ public class Entry {
         dataItem.rLock();
         try {
             SubArray sa = dataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start + OF_XMIN, sa.start + OF_XMAX));
+            return sa.getLong(OF_XMIN);
         } finally {
             dataItem.rUnlock();
         }
@@ -107,7 +103,7 @@ public class Entry {
         dataItem.rLock();
         try {
             SubArray sa = dataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start + OF_XMAX, sa.start + OF_DATA));
+            return sa.getLong(OF_XMAX);
         } finally {
             dataItem.rUnlock();
         }
@@ -122,7 +118,7 @@ public class Entry {
         dataItem.before();
         try {
             SubArray sa = dataItem.data();
-            System.arraycopy(Parser.long2Byte(xid), 0, sa.raw, sa.start + OF_XMAX, 8);
+            sa.putLong(OF_XMAX, xid);
         } finally {
             dataItem.after(xid);
         }
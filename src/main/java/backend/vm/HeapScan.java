@@ -0,0 +1,79 @@
+package backend.vm;
+
+import backend.common.SubArray;
+import backend.dm.ItemScan;
+import java.util.Arrays;
+
+/**
+ * 顺序扫描某个 owner 的所有记录版本 (见 DataManager.scan)
+ *
+ * next 只定位到下一个版本，row() 是它未经可见性判断的数据，调用方可以先在上面就地判断条件，
+ * 满足时再调用 read() 判断可见性并取出数据：
+ * 从磁盘读出的页面副本中直接用 XMIN/XMAX 判断；来自缓存中活页的副本可能正被修改，经 VM 重新读取
+ *
+ * 成批处理时调用方也可以先记下 xmin()、xmax()、cached()，过滤之后再判断：
+ * cached() 为 false 的用 isVisible(xmin, xmax)，为 true 的经 VersionManager.readMany 读取
+ */
+public class HeapScan {
+    private VersionManagerImpl vm;
+    private Transaction t;
+    private ItemScan items;
+
+    HeapScan(VersionManagerImpl vm, Transaction t, ItemScan items) {
+        this.vm = vm;
+        this.t = t;
+        this.items = items;
+    }
+
+    public boolean next() {
+        return items.next();
+    }
+
+    public long uid() {
+        return items.uid();
+    }
+
+    /**
+     * 当前版本的记录数据，可见性未知，下一次 next 之后失效
+     */
+    public SubArray row() {
+        SubArray e = items.data();
+        return new SubArray(e.raw, e.start + Entry.OF_DATA, e.end);
+    }
+
+    public long xmin() {
+        return items.data().getLong(Entry.OF_XMIN);
+    }
+
+    public long xmax() {
+        return items.data().getLong(Entry.OF_XMAX);
+    }
+
+    /**
+     * 当前版本是否来自缓存中的活页，是则副本中的 XMIN/XMAX 可能已过时
+     */
+    public boolean cached() {
+        return items.cached();
+    }
+
+    /**
+     * 不在缓存中的页面副本上记下的 XMIN/XMAX 对事务是否可见
+     */
+    public boolean isVisible(long xmin, long xmax) {
+        return Visibility.isVisible(vm.tm, t, xmin, xmax);
+    }
+
+    /**
+     * 当前版本对事务可见时返回它的数据，否则返回 null
+     */
+    public byte[] read() throws Exception {
+        if (items.cached()) {
+            return vm.read(t.xid, items.uid());
+        }
+        SubArray e = items.data();
+        if (!Visibility.isVisible(vm.tm, t, e.getLong(Entry.OF_XMIN), e.getLong(Entry.OF_XMAX))) {
+            return null;
+        }
+        return Arrays.copyOfRange(e.raw, e.start + Entry.OF_DATA, e.end);
+    }
+}
@@ -1,5 +1,6 @@
 package backend.vm;
 
+import backend.common.RowBatch;
 import backend.dm.DataManager;
 import backend.tm.TransactionManager;
 
@@ -13,16 +14,42 @@ public interface VersionManager {
      */
     byte[] read(long xid, long uid) throws Exception;
 
+    /**
+     * 批量读取 uids[from, to) 的记录，第 i 条放在 batch 的第 i 个位置，对 xid 不可见的为空
+     * 按页取数据、在拷贝上判断可见性，不经过记录缓存，数据放在可复用的 batch 中
+     */
+    void readMany(long xid, long[] uids, int from, int to, RowBatch batch) throws Exception;
+
     /**
      * 插入一条记录
      */
     long insert(long xid, byte[] data) throws Exception;
 
+    /**
+     * 插入一条属于 owner (如所属表的 uid) 的记录，之后可以用 scan 顺序扫描出来
+     */
+    long insert(long xid, byte[] data, long owner) throws Exception;
+
+    /**
+     * 按页序扫描属于 owner 的记录，只给出对事务 xid 可见的版本
+     */
+    HeapScan scan(long xid, long owner) throws Exception;
+
     /**
      * 删除一条记录
      */
     boolean delete(long xid, long uid) throws Exception;
 
+    /**
+     * 记录已对所有事务不可见 (可以清除) 时返回它的数据，否则返回 null
+     */
+    byte[] readGarbage(long uid) throws Exception;
+
+    /**
+     * 事务 xid 已提交，且现在和以后的所有事务都能看到它的修改
+     */
+    boolean isVisibleToAll(long xid);
+
     /**
      * 开始一个事务
      */
@@ -1,6 +1,8 @@
 package backend.vm;
 
 import backend.common.AbstractCache;
+import backend.common.RowBatch;
+import backend.common.SubArray;
 import backend.dm.DataManager;
 import backend.tm.TransactionManager;
 import backend.tm.TransactionManagerImpl;
@@ -61,8 +63,35 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         }
     }
 
+    @Override
+    public void readMany(long xid, long[] uids, int from, int to, RowBatch batch) throws Exception {
+        lock.lock();
+        Transaction t = activeTransaction.get(xid);
+        lock.unlock();
+        if (t.err != null) {
+            throw t.err;
+        }
+        dm.readMany(uids, from, to, batch);
+        for (int i = 0; i < to - from; i++) {
+            SubArray e = batch.get(i);
+            if (e == null) {
+                continue;
+            }
+            if (Visibility.isVisible(tm, t, e.getLong(Entry.OF_XMIN), e.getLong(Entry.OF_XMAX))) {
+                batch.skip(i, Entry.OF_DATA);
+            } else {
+                batch.clear(i);
+            }
+        }
+    }
+
     @Override
     public long insert(long xid, byte[] data) throws Exception {
+        return insert(xid, data, 0);
+    }
+
+    @Override
+    public long insert(long xid, byte[] data, long owner) throws Exception {
         lock.lock();
         Transaction t = activeTransaction.get(xid);
         lock.unlock();
@@ -70,7 +99,18 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
             throw t.err;
         }
         byte[] raw = Entry.wrapEntryRaw(xid, data);
-        return dm.insert(xid, raw);
+        return owner == 0 ? dm.insert(xid, raw) : dm.insert(xid, raw, owner);
+    }
+
+    @Override
+    public HeapScan scan(long xid, long owner) throws Exception {
+        lock.lock();
+        Transaction t = activeTransaction.get(xid);
+        lock.unlock();
+        if (t.err != null) {
+            throw t.err;
+        }
+        return new HeapScan(this, t, dm.scan(owner));
     }
 
     @Override
@@ -129,6 +169,60 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         }
     }
 
+    @Override
+    public byte[] readGarbage(long uid) throws Exception {
+        Entry entry = null;
+        try {
+            entry = super.get(uid);
+        } catch (Exception e) {
+            if (e == backend.utils.Error.NullEntryException) {
+                return null;
+            } else {
+                throw e;
+            }
+        }
+        try {
+            if (Visibility.isGarbage(tm, entry, horizon())) {
+                return entry.data();
+            } else {
+                return null;
+            }
+        } finally {
+            entry.release();
+        }
+    }
+
+    @Override
+    public boolean isVisibleToAll(long xid) {
+        return tm.isCommitted(xid) && xid < horizon();
+    }
+
+    /**
+     * 活跃事务及其快照中最小的 xid，没有活跃事务时为 Long.MAX_VALUE
+     */
+    private long horizon() {
+        lock.lock();
+        try {
+            long horizon = Long.MAX_VALUE;
+            for (Transaction t : activeTransaction.values()) {
+                if (t.xid == TransactionManagerImpl.SUPER_XID) {
+                    continue;
+                }
+                horizon = Math.min(horizon, t.xid);
+                if (t.snapshot != null) {
+                    for (long x : t.snapshot.keySet()) {
+                        if (x != TransactionManagerImpl.SUPER_XID) {
+                            horizon = Math.min(horizon, x);
+                        }
+                    }
+                }
+            }
+            return horizon;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public long begin(int level) {
         lock.lock();
@@ -160,6 +254,8 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         activeTransaction.remove(xid);
         lock.unlock();
         lt.remove(xid);
+        // 先让事务的日志落盘，再把事务标记为已提交
+        dm.flushLog(xid);
         tm.commit(xid);
     }
 
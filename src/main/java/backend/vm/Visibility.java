@@ -15,20 +15,25 @@ public class Visibility {
      * @return true 表示可见
      */
     public static boolean isVisible(TransactionManager tm, Transaction t, Entry e) {
+        return isVisible(tm, t, e.getXmin(), e.getXmax());
+    }
+
+    /**
+     * 同上，版本由 xmin 和 xmax 给出 (顺序扫描时直接从页面副本中读出)
+     */
+    public static boolean isVisible(TransactionManager tm, Transaction t, long xmin, long xmax) {
         if (t.level == 0) {
-            return readCommitted(tm, t, e);
+            return readCommitted(tm, t, xmin, xmax);
         } else {
-            return repeatableRead(tm, t, e);
+            return repeatableRead(tm, t, xmin, xmax);
         }
     }
 
     /**
      * 读提交隔离级别的可见性判断
      */
-    private static boolean readCommitted(TransactionManager tm, Transaction t, Entry e) {
+    private static boolean readCommitted(TransactionManager tm, Transaction t, long xmin, long xmax) {
         long xid = t.xid;
-        long xmin = e.getXmin();
-        long xmax = e.getXmax();
 
         // 由当前事务创建且未被删除
         if (xmin == xid && xmax == 0)
@@ -52,10 +57,8 @@ public class Visibility {
     /**
      * 可重复读隔离级别的可见性判断
      */
-    private static boolean repeatableRead(TransactionManager tm, Transaction t, Entry e) {
+    private static boolean repeatableRead(TransactionManager tm, Transaction t, long xmin, long xmax) {
         long xid = t.xid;
-        long xmin = e.getXmin();
-        long xmax = e.getXmax();
 
         // 由当前事务创建且未被删除
         if (xmin == xid && xmax == 0)
@@ -76,6 +79,21 @@ public class Visibility {
         return false;
     }
 
+    /**
+     * 判断版本是否对现在和以后的所有事务都不可见，这样的版本可以从索引中清除
+     * 创建它的事务已回滚；或删除它的事务已提交，且早于 horizon (活跃事务及其快照中最小的 xid)，
+     * 读提交看得到这次删除，可重复读的事务都在它之后开始且快照中没有它
+     *
+     * @param horizon 活跃事务及其快照中最小的 xid
+     */
+    public static boolean isGarbage(TransactionManager tm, Entry e, long horizon) {
+        if (tm.isAborted(e.getXmin())) {
+            return true;
+        }
+        long xmax = e.getXmax();
+        return xmax != 0 && xmax < horizon && tm.isCommitted(xmax);
+    }
+
     /**
      * 检测是否发生版本跳跃
      * 可重复读隔离级别下，如果要修改的数据已被不可见的事务修改，需要回滚
@@ -0,0 +1,212 @@
+package benchmark;
+
+import backend.dm.DataManager;
+import backend.im.BPlusTree;
+import backend.im.BulkLoader;
+import backend.tm.TransactionManager;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * B+ 树索引多线程压测，直接在 DataManager 上建树，不经过事务和表
+ *
+ * 测试内容 (线程数 1/2/4/8 各跑一遍，每次新建一棵树)：
+ * 1. 并发插入：各线程插入互不相同的键，键打散到不同的叶子
+ * 2. 并发点查：各线程随机查已插入的键
+ * 3. 读写混合：一半线程插入，一半线程点查
+ * 4. 并发删除：删掉测试1插入的所有键
+ * 另外单线程对比同一批有序键逐条插入与批量构建 (BulkLoader) 的耗时
+ */
+public class IndexBenchmark {
+
+    private static final String TEST_DB_PATH = "index_benchmark_db";
+    private static final int KEY_COUNT = 200_000; // 每轮插入的键数
+    private static final int LOOKUP_COUNT = 200_000; // 每轮点查次数
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+    private TransactionManager tm;
+    private DataManager dm;
+
+    public static void main(String[] args) {
+        IndexBenchmark benchmark = new IndexBenchmark();
+        try {
+            benchmark.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void run() throws Exception {
+        System.out.println("========== JTxBase Index Benchmark ==========\n");
+        System.out.println("CPU cores: " + Runtime.getRuntime().availableProcessors() + "\n");
+        cleanupTestDB();
+        tm = TransactionManager.create(TEST_DB_PATH);
+        dm = DataManager.create(TEST_DB_PATH, (1 << 20) * 256, tm); // 256MB
+        try {
+            benchmarkBulkLoad();
+            for (int threads : THREAD_COUNTS) {
+                runOnce(threads);
+            }
+        } finally {
+            dm.close();
+            tm.close();
+            cleanupTestDB();
+        }
+        System.out.println("========== Benchmark Complete ==========");
+    }
+
+    private void runOnce(int threads) throws Exception {
+        System.out.println("---------- " + threads + " thread(s) ----------");
+        BPlusTree tree = BPlusTree.load(BPlusTree.create(dm), dm);
+        try {
+            // 测试1：并发插入
+            long ms = parallel(threads, (t, n) -> {
+                for (long i = t; i < KEY_COUNT; i += n) {
+                    tree.insert(scatter(i), i + 1);
+                }
+            });
+            System.out.printf("  [Insert] %d keys, %d ms, %.0f ops/s%n", KEY_COUNT, ms, KEY_COUNT * 1000.0 / ms);
+
+            checkCount(tree, KEY_COUNT);
+
+            // 测试2：并发点查
+            AtomicLong misses = new AtomicLong();
+            ms = parallel(threads, (t, n) -> {
+                Random random = new Random(t);
+                for (int i = t; i < LOOKUP_COUNT; i += n) {
+                    long k = random.nextInt(KEY_COUNT);
+                    if (tree.search(scatter(k)).isEmpty()) {
+                        misses.incrementAndGet();
+                    }
+                }
+            });
+            System.out.printf("  [Lookup] %d lookups, %d ms, %.0f ops/s, misses: %d%n",
+                    LOOKUP_COUNT, ms, LOOKUP_COUNT * 1000.0 / ms, misses.get());
+
+            // 测试3：读写混合，单线程时读写交替
+            AtomicLong reads = new AtomicLong();
+            AtomicLong writes = new AtomicLong();
+            ms = parallel(Math.max(threads, 2), (t, n) -> {
+                Random random = new Random(t);
+                if (t % 2 == 0) {
+                    for (long i = KEY_COUNT + t / 2; i < KEY_COUNT * 3 / 2; i += (n + 1) / 2) {
+                        tree.insert(scatter(i), i + 1);
+                        writes.incrementAndGet();
+                    }
+                } else {
+                    for (int i = 0; i < LOOKUP_COUNT / ((n + 1) / 2); i++) {
+                        tree.search(scatter(random.nextInt(KEY_COUNT)));
+                        reads.incrementAndGet();
+                    }
+                }
+            });
+            System.out.printf("  [Mixed] %d inserts + %d lookups, %d ms, %.0f ops/s%n",
+                    writes.get(), reads.get(), ms, (writes.get() + reads.get()) * 1000.0 / ms);
+            checkCount(tree, KEY_COUNT * 3 / 2);
+
+            // 测试4：并发删除
+            AtomicLong missed = new AtomicLong();
+            ms = parallel(threads, (t, n) -> {
+                for (long i = t; i < KEY_COUNT; i += n) {
+                    if (!tree.delete(scatter(i), i + 1)) {
+                        missed.incrementAndGet();
+                    }
+                }
+            });
+            System.out.printf("  [Delete] %d keys, %d ms, %.0f ops/s, missed: %d%n",
+                    KEY_COUNT, ms, KEY_COUNT * 1000.0 / ms, missed.get());
+            checkCount(tree, KEY_COUNT / 2);
+        } finally {
+            tree.close();
+        }
+        System.out.println();
+    }
+
+    /**
+     * 同一批有序键：逐条插入 vs 自底向上批量构建
+     */
+    private void benchmarkBulkLoad() throws Exception {
+        System.out.println("---------- Bulk load (" + KEY_COUNT + " sorted keys) ----------");
+        BPlusTree tree = BPlusTree.load(BPlusTree.create(dm), dm);
+        long start = System.currentTimeMillis();
+        for (long i = 0; i < KEY_COUNT; i++) {
+            tree.insert(i, i + 1);
+        }
+        long insertMs = Math.max(1, System.currentTimeMillis() - start);
+        checkCount(tree, KEY_COUNT);
+        tree.close();
+
+        tree = BPlusTree.load(BPlusTree.create(dm), dm);
+        start = System.currentTimeMillis();
+        BulkLoader loader = tree.bulkLoader();
+        for (long i = 0; i < KEY_COUNT; i++) {
+            loader.add(i, i + 1);
+        }
+        loader.finish();
+        long bulkMs = Math.max(1, System.currentTimeMillis() - start);
+        checkCount(tree, KEY_COUNT);
+        for (long i = 0; i < KEY_COUNT; i += 997) {
+            List<Long> uids = tree.search(i);
+            if (uids.size() != 1 || uids.get(0) != i + 1) {
+                throw new IllegalStateException("bulk loaded key " + i + " not found");
+            }
+        }
+        tree.close();
+
+        System.out.printf("  [Insert] %d ms, %.0f ops/s%n", insertMs, KEY_COUNT * 1000.0 / insertMs);
+        System.out.printf("  [Bulk]   %d ms, %.0f ops/s%n", bulkMs, KEY_COUNT * 1000.0 / bulkMs);
+        System.out.println();
+    }
+
+    // 并发插入后检查树中的键数，确认没有丢失
+    private static void checkCount(BPlusTree tree, int expected) throws Exception {
+        int found = tree.searchRange(Long.MIN_VALUE, Long.MAX_VALUE).size();
+        if (found != expected) {
+            throw new IllegalStateException("expected " + expected + " keys, found " + found);
+        }
+    }
+
+    private interface Task {
+        void run(int threadId, int threadCount) throws Exception;
+    }
+
+    // 用 threads 个线程并发执行 task，返回耗时 (ms)
+    private static long parallel(int threads, Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int threadId = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                task.run(threadId, threads);
+                return null;
+            }));
+        }
+        long startTime = System.currentTimeMillis();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long endTime = System.currentTimeMillis();
+        executor.shutdown();
+        return Math.max(1, endTime - startTime);
+    }
+
+    // 把连续的序号打散成互不相同的键，相邻序号落在不同的叶子上
+    private static long scatter(long i) {
+        return i * 0x9E3779B97F4A7C15L;
+    }
+
+    private void cleanupTestDB() {
+        File[] files = new File(".").listFiles((dir, name) -> name.startsWith(TEST_DB_PATH + "."));
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+}
@@ -9,8 +9,10 @@ import backend.vm.VersionManager;
 import backend.vm.VersionManagerImpl;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * JTxBase 性能压测工具
@@ -18,6 +20,8 @@ import java.util.concurrent.*;
  * 测试内容：
  * 1. 索引查询 vs 全表扫描（10万条数据，P95延迟 + QPS）
  * 2. 并发事务吞吐量（10线程，P95延迟 + TPS）
+ * 两项测试分别在 XID 文件的 FileChannel 模式和内存映射模式下各跑一遍
+ * 同时统计每次操作在执行线程上分配的堆内存（HotSpot 的线程分配计数）
  */
 public class PerformanceBenchmark {
 
@@ -30,6 +34,7 @@ public class PerformanceBenchmark {
     private TableManager tbm;
     private TransactionManager tm;
     private DataManager dm;
+    private boolean mmap; // XID 文件是否使用内存映射
 
     public static void main(String[] args) {
         PerformanceBenchmark benchmark = new PerformanceBenchmark();
@@ -43,6 +48,16 @@ public class PerformanceBenchmark {
     public void run() throws Exception {
         System.out.println("========== JTxBase Performance Benchmark ==========\n");
 
+        for (boolean m : new boolean[] { false, true }) {
+            mmap = m;
+            System.out.println("---------- XID file: " + (mmap ? "mmap" : "FileChannel") + " ----------\n");
+            runOnce();
+            System.out.println();
+        }
+        System.out.println("========== Benchmark Complete ==========");
+    }
+
+    private void runOnce() throws Exception {
         // 清理旧的测试数据库
         cleanupTestDB();
 
@@ -61,7 +76,6 @@ public class PerformanceBenchmark {
 
         } finally {
             tbm.close();
-            System.out.println("\n========== Benchmark Complete ==========");
         }
 
         // 清理测试数据库
@@ -69,16 +83,23 @@ public class PerformanceBenchmark {
     }
 
     private void cleanupTestDB() {
-        String[] extensions = { ".xid", ".db", ".log", ".bt" };
+        String[] extensions = { ".xid", ".db", ".bt", ".fsm" };
         for (String ext : extensions) {
             File f = new File(TEST_DB_PATH + ext);
             if (f.exists())
                 f.delete();
         }
+        // 日志按段存放: benchmark_test_db.log.0, benchmark_test_db.log.1, ...
+        File[] segments = new File(".").listFiles((dir, name) -> name.startsWith(TEST_DB_PATH + ".log."));
+        if (segments != null) {
+            for (File f : segments) {
+                f.delete();
+            }
+        }
     }
 
     private void createTestDB() {
-        TransactionManager tm = TransactionManager.create(TEST_DB_PATH);
+        TransactionManager tm = TransactionManager.create(TEST_DB_PATH, mmap);
         DataManager dm = DataManager.create(TEST_DB_PATH, (1 << 20) * 64, tm); // 64MB
         VersionManager vm = new VersionManagerImpl(tm, dm);
         TableManager.create(TEST_DB_PATH, vm, dm);
@@ -88,7 +109,7 @@ public class PerformanceBenchmark {
     }
 
     private void openTestDB() {
-        tm = TransactionManager.open(TEST_DB_PATH);
+        tm = TransactionManager.open(TEST_DB_PATH, mmap);
         dm = DataManager.open(TEST_DB_PATH, (1 << 20) * 64, tm);
         VersionManager vm = new VersionManagerImpl(tm, dm);
         tbm = TableManager.open(TEST_DB_PATH, vm, dm);
@@ -147,6 +168,7 @@ public class PerformanceBenchmark {
         // 点查询测试（返回1条记录）
         System.out.println("  - Running point queries (WHERE id = X)...");
         List<Long> pointLatencies = new ArrayList<>();
+        long pointAlloc = 0;
         Random rand = new Random(42);
 
         for (int i = 0; i < QUERY_COUNT; i++) {
@@ -164,9 +186,11 @@ public class PerformanceBenchmark {
             select.where.singleExp1.compareOp = "=";
             select.where.singleExp1.value = String.valueOf(targetId);
 
+            long alloc = allocatedBytes();
             long start = System.nanoTime();
             tbm.read(xid, select);
             long end = System.nanoTime();
+            pointAlloc += allocatedBytes() - alloc;
 
             pointLatencies.add((end - start) / 1_000); // 转换为微秒
             tbm.commit(xid);
@@ -177,6 +201,7 @@ public class PerformanceBenchmark {
         System.out
                 .println("  - Running range queries (WHERE id > X AND id < X+100)... " + rangeQueryCount + " queries");
         List<Long> rangeLatencies = new ArrayList<>();
+        long rangeAlloc = 0;
 
         for (int i = 0; i < rangeQueryCount; i++) {
             int startId = rand.nextInt(RECORD_COUNT - 100);
@@ -198,9 +223,11 @@ public class PerformanceBenchmark {
             select.where.singleExp2.compareOp = "<";
             select.where.singleExp2.value = String.valueOf(startId + 100);
 
+            long alloc = allocatedBytes();
             long start = System.nanoTime();
             tbm.read(xid, select);
             long end = System.nanoTime();
+            rangeAlloc += allocatedBytes() - alloc;
 
             rangeLatencies.add((end - start) / 1_000); // 转换为微秒
             tbm.commit(xid);
@@ -225,11 +252,13 @@ public class PerformanceBenchmark {
         System.out.printf("    - Avg Latency: %.3f ms (%.0f µs)%n", pointAvg / 1000.0, pointAvg);
         System.out.printf("    - P95 Latency: %.3f ms (%.0f µs)%n", pointP95 / 1000.0, pointP95);
         System.out.printf("    - QPS: %.0f%n", 1_000_000.0 / pointAvg);
+        System.out.printf("    - Alloc: %.1f KB/query%n", pointAlloc / 1024.0 / QUERY_COUNT);
 
         System.out.println("  Range Query Results (~100 records):");
         System.out.printf("    - Avg Latency: %.2f ms%n", rangeAvg / 1000.0);
         System.out.printf("    - P95 Latency: %.2f ms%n", rangeP95 / 1000.0);
         System.out.printf("    - QPS: %.1f%n", 1_000_000.0 / rangeAvg);
+        System.out.printf("    - Alloc: %.1f KB/query%n", rangeAlloc / 1024.0 / rangeQueryCount);
     }
 
     /**
@@ -241,6 +270,7 @@ public class PerformanceBenchmark {
 
         ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
         List<Future<List<Long>>> futures = new ArrayList<>();
+        AtomicLong totalAlloc = new AtomicLong();
 
         long startTime = System.currentTimeMillis();
 
@@ -250,6 +280,7 @@ public class PerformanceBenchmark {
                 List<Long> latencies = new ArrayList<>();
                 statement.Begin begin = new statement.Begin();
                 begin.level = 0;
+                long alloc = allocatedBytes();
 
                 for (int i = 0; i < OPS_PER_THREAD; i++) {
                     long opStart = System.nanoTime();
@@ -280,6 +311,7 @@ public class PerformanceBenchmark {
                     long opEnd = System.nanoTime();
                     latencies.add((opEnd - opStart) / 1_000_000);
                 }
+                totalAlloc.addAndGet(allocatedBytes() - alloc);
                 return latencies;
             }));
         }
@@ -305,6 +337,16 @@ public class PerformanceBenchmark {
         System.out.printf("  - TPS: %.0f%n", tps);
         System.out.printf("  - Avg Latency: %.2f ms%n", avg);
         System.out.printf("  - P95 Latency: %.2f ms%n", p95);
+        System.out.printf("  - Alloc: %.1f KB/op%n", totalAlloc.get() / 1024.0 / totalOps);
+    }
+
+    // 当前线程累计分配的堆内存字节数，JVM 不支持时返回 0
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
     }
 
     private double calculateP95(List<Long> latencies) {
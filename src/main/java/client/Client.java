@@ -2,6 +2,9 @@ package client;
 
 import transport.Package;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
 /**
  * Client 执行 SQL 语句并返回结果
  */
@@ -16,12 +19,25 @@ public class Client {
      * 执行 SQL 语句
      */
     public byte[] execute(byte[] stat) throws Exception {
-        Package pkg = new Package(stat, null);
-        Package resPkg = rt.roundTrip(pkg);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        execute(stat, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 执行 SQL 语句，结果分段到达时逐段写入 out
+     */
+    public void execute(byte[] stat, OutputStream out) throws Exception {
+        Package resPkg = rt.roundTrip(new Package(stat, null));
+        while (resPkg.isPartial()) {
+            out.write(resPkg.getData());
+            out.flush();
+            resPkg = rt.receive();
+        }
         if (resPkg.getErr() != null) {
             throw resPkg.getErr();
         }
-        return resPkg.getData();
+        out.write(resPkg.getData());
     }
 
     /**
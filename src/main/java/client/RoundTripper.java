@@ -21,6 +21,13 @@ public class RoundTripper {
         return packager.receive();
     }
 
+    /**
+     * 接收同一个结果后续的包
+     */
+    public Package receive() throws Exception {
+        return packager.receive();
+    }
+
     /**
      * 关闭连接
      */
@@ -1,5 +1,6 @@
 package client;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
 /**
@@ -29,8 +30,9 @@ public class Shell {
                     break;
                 }
                 try {
-                    byte[] res = client.execute(statStr.getBytes());
-                    System.out.println(new String(res));
+                    // 查询结果边到达边打印
+                    client.execute(statStr.getBytes(StandardCharsets.UTF_8), System.out);
+                    System.out.println();
                 } catch (Exception e) {
                     System.out.println("Error: " + e.getMessage());
                 }
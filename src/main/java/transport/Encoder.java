@@ -8,7 +8,7 @@ import java.util.Arrays;
 /**
  * Encoder 负责编码和解码 Package
  * 编码格式：[Flag][data]
- * Flag=0 表示数据，Flag=1 表示错误
+ * Flag=0 表示数据，Flag=1 表示错误，Flag=2 表示结果的一段 (后面还有包)
  */
 public class Encoder {
 
@@ -23,6 +23,8 @@ public class Encoder {
                 msg = err.getMessage();
             }
             return Bytes.concat(new byte[] { 1 }, msg.getBytes());
+        } else if (pkg.isPartial()) {
+            return Bytes.concat(new byte[] { 2 }, pkg.getData());
         } else {
             return Bytes.concat(new byte[] { 0 }, pkg.getData());
         }
@@ -39,6 +41,8 @@ public class Encoder {
             return new Package(Arrays.copyOfRange(data, 1, data.length), null);
         } else if (data[0] == 1) {
             return new Package(null, new RuntimeException(new String(Arrays.copyOfRange(data, 1, data.length))));
+        } else if (data[0] == 2) {
+            return new Package(Arrays.copyOfRange(data, 1, data.length), true);
         } else {
             throw Error.InvalidPkgDataException;
         }
@@ -2,17 +2,23 @@ package transport;
 
 /**
  * Package 是传输的最基本结构
- * 包含数据或错误信息
+ * 包含数据或错误信息；partial 的包只是结果的一段，后面还有包，直到一个非 partial 的包结束
  */
 public class Package {
     private byte[] data;
     private Exception err;
+    private boolean partial;
 
     public Package(byte[] data, Exception err) {
         this.data = data;
         this.err = err;
     }
 
+    public Package(byte[] data, boolean partial) {
+        this.data = data;
+        this.partial = partial;
+    }
+
     public byte[] getData() {
         return data;
     }
@@ -20,4 +26,8 @@ public class Package {
     public Exception getErr() {
         return err;
     }
+
+    public boolean isPartial() {
+        return partial;
+    }
 }
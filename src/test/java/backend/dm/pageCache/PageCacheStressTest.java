@@ -0,0 +1,126 @@
+package backend.dm.pageCache;
+
+import static org.junit.Assert.assertEquals;
+
+import backend.dm.page.Page;
+import backend.utils.Parser;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 在最小的缓存下反复修改远多于缓存容量的页面，让淘汰写回、后台批量写回和检查点刷盘交错执行
+ * 运行中每次读到的页面和重新打开后文件里的页面都必须是最后一次修改的版本
+ */
+public class PageCacheStressTest {
+    private static final int PAGES = 64;
+    private static final int THREADS = 4;
+    private static final int OPS = 20000;
+    private static final int MEMORY = 10 * PageCache.PAGE_SIZE;
+
+    private File dir;
+    private String path;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("pc-stress").toFile();
+        path = new File(dir, "stress").getPath();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testNoStaleWritesUnderTinyCache() throws Exception {
+        PageCache pc = PageCacheImpl.create(path, MEMORY);
+        for (int i = 0; i < PAGES; i++) {
+            pc.newPage(new byte[PageCache.PAGE_SIZE]);
+        }
+        long[] expected = new long[PAGES + 1];
+        List<Throwable> errors = new ArrayList<>();
+        AtomicBoolean done = new AtomicBoolean();
+
+        // 检查点线程：不停地写回全部脏页
+        Thread checkpointer = new Thread(() -> {
+            while (!done.get()) {
+                pc.flushAll();
+            }
+        });
+        checkpointer.start();
+
+        // 每个线程只修改自己的页面 (pgno % THREADS == t)，期望值不需要同步
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int owner = t;
+            Thread w = new Thread(() -> {
+                Random r = new Random(owner);
+                try {
+                    for (int i = 0; i < OPS; i++) {
+                        int pgno = 1 + owner + THREADS * r.nextInt(PAGES / THREADS);
+                        Page pg = pc.getPage(pgno);
+                        try {
+                            long seen = Parser.getLong(pg.getData(), 0);
+                            if (seen != expected[pgno]) {
+                                throw new AssertionError("page " + pgno + " reloaded stale: " + seen
+                                        + " != " + expected[pgno]);
+                            }
+                            // 和 DataItem 一样：修改、标脏、再结束修改
+                            pg.beginWrite();
+                            long next = seen + 1;
+                            Parser.putLong(pg.getData(), 0, next);
+                            Parser.putLong(pg.getData(), PageCache.PAGE_SIZE - 8, next);
+                            pg.setDirty(true);
+                            pg.endWrite();
+                            expected[pgno] = next;
+                        } finally {
+                            pg.release();
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        done.set(true);
+        checkpointer.join();
+        if (!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+        pc.close();
+
+        PageCache reopened = PageCacheImpl.open(path, MEMORY);
+        try {
+            for (int pgno = 1; pgno <= PAGES; pgno++) {
+                Page pg = reopened.getPage(pgno);
+                assertEquals("page " + pgno, expected[pgno], Parser.getLong(pg.getData(), 0));
+                assertEquals("page " + pgno, expected[pgno], Parser.getLong(pg.getData(), PageCache.PAGE_SIZE - 8));
+                pg.release();
+            }
+        } finally {
+            reopened.close();
+        }
+    }
+}